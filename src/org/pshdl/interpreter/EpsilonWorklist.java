@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2014 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.utils.Instruction;
+
+/**
+ * The worklist of the epsilon cycles after the first one. Only the frames
+ * that transitively depend on a changed register are executed again.
+ */
+final class EpsilonWorklist {
+
+	/**
+	 * Maps an internal to the storage indices of the variable that it belongs
+	 * to
+	 */
+	interface IndexRange {
+		void addRange(Set<Integer> indices, int internalId);
+	}
+
+	/**
+	 * The frames that read and write each storage index, the storage indices
+	 * that each frame writes, and the frames that compute the predicates of
+	 * each frame.
+	 */
+	private final int[][] readers, writers, writes, predicateWriters;
+	/**
+	 * The frames that need to be executed in the next epsilon cycle
+	 */
+	final boolean[] scheduled;
+	private final int[] worklist;
+	private int size;
+
+	private EpsilonWorklist(int[][] readers, int[][] writers, int[][] writes, int[][] predicateWriters) {
+		this.readers = readers;
+		this.writers = writers;
+		this.writes = writes;
+		this.predicateWriters = predicateWriters;
+		this.scheduled = new boolean[writes.length];
+		this.worklist = new int[writes.length];
+	}
+
+	/**
+	 * Builds the dependencies for the worklist. The worklist is not used when a
+	 * frame reads a storage index that the same or a later frame writes,
+	 * because then a frame can see a different value in the next epsilon
+	 * cycle even though no register changed.
+	 *
+	 * @return <code>null</code> when the worklist can not be used for the
+	 *         frames
+	 */
+	static EpsilonWorklist create(Frame[] frames, int storageSize, IndexRange range) {
+		final int[][] writes = new int[frames.length][];
+		final List<List<Integer>> readers = new ArrayList<>();
+		final List<List<Integer>> writers = new ArrayList<>();
+		for (int i = 0; i < storageSize; i++) {
+			readers.add(new ArrayList<Integer>());
+			writers.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < frames.length; i++) {
+			writes[i] = writtenIndices(frames[i], range);
+			for (final int idx : writes[i]) {
+				writers.get(idx).add(i);
+			}
+		}
+		final int[][] predicateWriters = new int[frames.length][];
+		for (int i = 0; i < frames.length; i++) {
+			final Frame f = frames[i];
+			final Set<Integer> read = new LinkedHashSet<>();
+			final Set<Integer> predicates = new LinkedHashSet<>();
+			for (final int dep : f.internalDependencies) {
+				range.addRange(read, dep);
+			}
+			for (final FastInstruction fi : f.instructions) {
+				switch (fi.inst) {
+				case posPredicate:
+				case negPredicate:
+					range.addRange(predicates, fi.arg1);
+					range.addRange(read, fi.arg1);
+					break;
+				case loadInternal:
+				case isRisingEdge:
+				case isFallingEdge:
+					range.addRange(read, fi.arg1);
+					break;
+				default:
+				}
+			}
+			for (final int idx : read) {
+				readers.get(idx).add(i);
+				for (final int writer : writers.get(idx)) {
+					if (writer >= i)
+						return null;
+				}
+			}
+			final Set<Integer> predicateFrames = new LinkedHashSet<>();
+			for (final int idx : predicates) {
+				predicateFrames.addAll(writers.get(idx));
+			}
+			predicateWriters[i] = toArray(predicateFrames);
+		}
+		final int[][] readerArr = new int[storageSize][];
+		final int[][] writerArr = new int[storageSize][];
+		for (int i = 0; i < storageSize; i++) {
+			readerArr[i] = toArray(readers.get(i));
+			writerArr[i] = toArray(writers.get(i));
+		}
+		return new EpsilonWorklist(readerArr, writerArr, writes, predicateWriters);
+	}
+
+	/**
+	 * @return the storage indices that a frame may write to
+	 */
+	static int[] writtenIndices(Frame f, IndexRange range) {
+		final Set<Integer> written = new LinkedHashSet<>();
+		for (final int outputId : f.outputIds) {
+			range.addRange(written, outputId);
+		}
+		for (final FastInstruction fi : f.instructions) {
+			if (fi.inst == Instruction.writeInternal) {
+				range.addRange(written, fi.arg1);
+			}
+		}
+		return toArray(written);
+	}
+
+	static int[] toArray(Collection<Integer> values) {
+		final int[] res = new int[values.size()];
+		int pos = 0;
+		for (final Integer v : values) {
+			res[pos++] = v;
+		}
+		return res;
+	}
+
+	/**
+	 * Schedules all frames that transitively depend on a storage index for the
+	 * next epsilon cycle. Some frames are scheduled even though their inputs
+	 * did not change:
+	 * <ul>
+	 * <li>The other writers of a storage index that a scheduled frame writes,
+	 * so that the last writer still wins.</li>
+	 * <li>The frames that compute the predicates of a scheduled frame, so that
+	 * the predicates are fresh.</li>
+	 * </ul>
+	 */
+	void schedule(int storageIdx) {
+		int pos = size;
+		for (final int reader : readers[storageIdx]) {
+			enqueue(reader);
+		}
+		while (pos < size) {
+			final int frame = worklist[pos++];
+			for (final int idx : writes[frame]) {
+				for (final int reader : readers[idx]) {
+					enqueue(reader);
+				}
+				for (final int writer : writers[idx]) {
+					enqueue(writer);
+				}
+			}
+			for (final int writer : predicateWriters[frame]) {
+				enqueue(writer);
+			}
+		}
+	}
+
+	private void enqueue(int frame) {
+		if (!scheduled[frame]) {
+			scheduled[frame] = true;
+			worklist[size++] = frame;
+		}
+	}
+
+	/**
+	 * @return the scheduled frames in the order in which they have to be
+	 *         executed
+	 */
+	int[] toSortedArray() {
+		final int[] res = new int[size];
+		System.arraycopy(worklist, 0, res, 0, size);
+		Arrays.sort(res);
+		return res;
+	}
+
+	/**
+	 * Removes all frames from the worklist
+	 */
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			scheduled[worklist[i]] = false;
+		}
+		size = 0;
+	}
+}
@@ -36,10 +36,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.VariableInformation.Direction;
 import org.pshdl.interpreter.utils.Graph;
 import org.pshdl.interpreter.utils.Graph.Cycle;
 import org.pshdl.interpreter.utils.Graph.CycleException;
 import org.pshdl.interpreter.utils.Graph.Node;
+import org.pshdl.interpreter.utils.Instruction;
 
 public class ExecutableModel implements Serializable {
 	public final int maxDataWidth;
@@ -304,6 +307,156 @@ public class ExecutableModel implements Serializable {
 		return sb.toString();
 	}
 
+	/**
+	 * Determines the frames that can be evaluated once by
+	 * {@link IHDLInterpreter#initConstants()} instead of in every cycle. Such a
+	 * frame is marked as {@link Frame#constant}, does not read any internal,
+	 * has no edge, predicate or dynamic array access and does not write a
+	 * predicate, a register or an input. Additionally every other frame that
+	 * writes to the same variable has to qualify as well, otherwise a default
+	 * assignment would no longer be re-applied before an override.
+	 *
+	 * @return for each index of {@link #frames} whether it is such a frame
+	 */
+	public boolean[] getConstantFrames() {
+		final boolean[] res = new boolean[frames.length];
+		final Map<String, Boolean> variables = new LinkedHashMap<>();
+		for (int i = 0; i < frames.length; i++) {
+			final Frame f = frames[i];
+			res[i] = isConstantFrame(f);
+			for (final int outputId : f.outputIds) {
+				final String name = internals[outputId].baseName(false, true);
+				final Boolean other = variables.get(name);
+				variables.put(name, res[i] && ((other == null) || other));
+			}
+			for (final FastInstruction fi : f.instructions) {
+				if (fi.inst == Instruction.writeInternal) {
+					variables.put(internals[fi.arg1].baseName(false, true), false);
+				}
+			}
+		}
+		for (int i = 0; i < frames.length; i++) {
+			if (!res[i]) {
+				continue;
+			}
+			for (final int outputId : frames[i].outputIds) {
+				if (!variables.get(internals[outputId].baseName(false, true))) {
+					res[i] = false;
+				}
+			}
+		}
+		return res;
+	}
+
+	private boolean isConstantFrame(Frame f) {
+		if (!f.constant)
+			return false;
+		if ((f.edgeNegDepRes != -1) || (f.edgePosDepRes != -1) || (f.predNegDepRes.length != 0) || (f.predPosDepRes.length != 0))
+			return false;
+		if (f.outputIds.length == 0)
+			return false;
+		for (final FastInstruction fi : f.instructions) {
+			switch (fi.inst) {
+			case loadInternal:
+			case isFallingEdge:
+			case isRisingEdge:
+			case posPredicate:
+			case negPredicate:
+			case writeInternal:
+			case pushAddIndex:
+			case invokeFunction:
+				return false;
+			default:
+			}
+		}
+		for (final int outputId : f.outputIds) {
+			final InternalInformation ii = internals[outputId];
+			if (ii.isPred || ii.isShadowReg || (ii.bitEnd == -1) || ii.info.isRegister || (ii.info.dir == Direction.IN))
+				return false;
+			for (final int idx : ii.arrayIdx) {
+				if (idx == -1)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the model is fully synchronous and returns the edge that
+	 * clocks all registers. A model is fully synchronous when:
+	 * <ul>
+	 * <li>no frame belongs to a process,</li>
+	 * <li>every frame that writes a register starts with the same edge on the
+	 * same clock, only preceded by predicates,</li>
+	 * <li>no frame writes that clock and</li>
+	 * <li>every frame only reads variables that earlier frames write, so
+	 * there is no combinational feedback.</li>
+	 * </ul>
+	 * Such a model reaches its fixpoint after one pass over all frames, the
+	 * register copy and one pass over the frames that depend on the
+	 * registers.
+	 *
+	 * @return the {@link Instruction#isRisingEdge} or
+	 *         {@link Instruction#isFallingEdge} instruction of the clock, or
+	 *         <code>null</code> if the model is not fully synchronous
+	 */
+	public FastInstruction getSynchronousClock() {
+		FastInstruction clock = null;
+		final Set<String> written = new HashSet<>();
+		for (int i = frames.length - 1; i >= 0; i--) {
+			final Frame f = frames[i];
+			if (f.process != null)
+				return null;
+			boolean register = false;
+			for (final int outputId : f.outputIds) {
+				written.add(internals[outputId].baseName(false, true));
+				register |= internals[outputId].isShadowReg;
+			}
+			for (final FastInstruction fi : f.instructions) {
+				switch (fi.inst) {
+				case writeInternal:
+					written.add(internals[fi.arg1].baseName(false, true));
+					register |= internals[fi.arg1].isShadowReg;
+					break;
+				default:
+				}
+			}
+			for (final int dep : f.internalDependencies) {
+				if (written.contains(internals[dep].baseName(false, true)))
+					return null;
+			}
+			for (final FastInstruction fi : f.instructions) {
+				switch (fi.inst) {
+				case loadInternal:
+				case posPredicate:
+				case negPredicate:
+				case isRisingEdge:
+				case isFallingEdge:
+					if (written.contains(internals[fi.arg1].baseName(false, true)))
+						return null;
+					break;
+				default:
+				}
+			}
+			if (!register) {
+				continue;
+			}
+			final FastInstruction edge = f.leadingEdge();
+			if (edge == null)
+				return null;
+			final InternalInformation ii = internals[edge.arg1];
+			if ((ii.info.dimensions.length != 0) || (ii.bitEnd == -1))
+				return null;
+			if (clock == null) {
+				clock = edge;
+			} else if ((clock.inst != edge.inst) || !internals[clock.arg1].fullName.equals(ii.fullName))
+				return null;
+		}
+		if ((clock == null) || written.contains(internals[clock.arg1].baseName(false, true)))
+			return null;
+		return clock;
+	}
+
 	public Frame findFrame(final int id) {
 		for (final Frame f : frames) {
 			if (f.uniqueID == id)
@@ -27,16 +27,27 @@
 package org.pshdl.interpreter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Formatter;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
 
-import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess.RegUpdater;
+import org.pshdl.interpreter.Frame.FastInstruction;
 import org.pshdl.interpreter.VariableInformation.Type;
+import org.pshdl.interpreter.access.BulkAccesses;
 import org.pshdl.interpreter.frames.FastFrame;
+import org.pshdl.interpreter.frames.FlatProgram;
+import org.pshdl.interpreter.frames.FrameGuard;
+import org.pshdl.interpreter.frames.TieredCompiler;
+import org.pshdl.interpreter.frames.TraceCompiler;
+import org.pshdl.interpreter.utils.Instruction;
 
 public class FastSimpleInterpreter implements IHDLInterpreter {
 
@@ -59,6 +70,26 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 
 	}
 
+	/**
+	 * Creates the {@link FastFrame} that executes a {@link Frame}. This allows
+	 * to replace the default interpreting frame with a different
+	 * implementation, such as a compiled one.
+	 */
+	public static interface IFrameFactory {
+		public FastFrame createFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge);
+	}
+
+	/**
+	 * The default {@link IFrameFactory} that creates interpreting
+	 * {@link FastFrame}s
+	 */
+	public static final IFrameFactory DEFAULT_FRAMES = new IFrameFactory() {
+		@Override
+		public FastFrame createFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge) {
+			return new FastFrame(fir, f, disableEdge);
+		}
+	};
+
 	public class LongAccess {
 
 		public class RegUpdater {
@@ -81,12 +112,12 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 		public final boolean prev;
 
 		public int shift;
-		private final boolean isDynamicBit;
+		public final boolean isDynamicBit;
 
 		public int targetAccessIndex = -1;
 
 		public long writeMask;
-		private int signShift;
+		public final int signShift;
 
 		public LongAccess(InternalInformation name, int accessIndex, boolean prev) {
 			super();
@@ -141,7 +172,15 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 		}
 
 		public long getDataLong() {
-			final int accessIndex = getAccessIndex();
+			return getDataLong(offset);
+		}
+
+		/**
+		 * @return the value at the given offset, without changing
+		 *         {@link #offset}
+		 */
+		public long getDataLong(int offset) {
+			final int accessIndex = this.accessIndex + offset;
 			final long rawVal;
 			if (prev) {
 				rawVal = storage_prev[accessIndex];
@@ -171,10 +210,22 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 		}
 
 		public void setDataLong(long data, int deltaCycle, int epsCycle) {
-			final long current = storage[getAccessIndex()] & writeMask;
-			storage[getAccessIndex()] = current | ((data & mask) << shift);
+			setDataLong(offset, data, deltaCycle, epsCycle);
+		}
+
+		/**
+		 * Sets the value at the given offset, without changing {@link #offset}
+		 */
+		public void setDataLong(int offset, long data, int deltaCycle, int epsCycle) {
+			final int accessIndex = this.accessIndex + offset;
+			final long val = storage[accessIndex];
+			final long newVal = (val & writeMask) | ((data & mask) << shift);
+			storage[accessIndex] = newVal;
+			if (newVal != val) {
+				markChanged(accessIndex);
+			}
 			if (ii.isPred) {
-				setLastUpdate(deltaCycle, epsCycle);
+				deltaUpdates[accessIndex] = ((long) deltaCycle << 16l) | (epsCycle & 0xFFFF);
 			}
 		}
 
@@ -183,15 +234,22 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 		}
 
 		public void setOffset(int... off) {
-			offset = 0;
-			if (off.length == 0)
-				return;
+			offset = offsetOf(off);
+		}
+
+		/**
+		 * @return the offset of an array index, without changing
+		 *         {@link #offset}
+		 */
+		public int offsetOf(int... off) {
+			int offset = 0;
 			final int lastIndex = dims.length - 1;
 			int rowSize = 1;
-			for (int i = lastIndex; i >= 0; i--) {
+			for (int i = off.length == 0 ? -1 : lastIndex; i >= 0; i--) {
 				offset += rowSize * off[i];
 				rowSize *= dims[i];
 			}
+			return offset;
 		}
 
 		public void fillDataLong(int arrayPos, int[] writeIndex, long a, int deltaCycle, int epsCycle) {
@@ -259,16 +317,128 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 	public long storage_prev[];
 	private final LongAccess[] full;
 	private final FastFrame[] frames;
+	/**
+	 * The instructions of all frames in a single array, shared by the
+	 * {@link FastFrame}s
+	 */
+	public final FlatProgram program;
+	/**
+	 * Counts the frame executions and compiles hot frames, see
+	 * {@link Feature#tieredThreshold}
+	 */
+	TieredCompiler tiered;
+	/**
+	 * Records and compiles the frames that are executed, see
+	 * {@link Feature#traceThreshold}
+	 */
+	TraceCompiler trace;
+	/**
+	 * The constant frames that have been evaluated by
+	 * {@link #initConstants()} and are no longer executed
+	 */
+	final boolean[] folded;
+	/**
+	 * The guard of each block of frames that start with the same predicates
+	 * and edge, indexed by the first frame of the block
+	 */
+	private final FrameGuard[] guards;
 	private final Map<String, Integer> accessIdxMap = new TreeMap<>();
 	private final Map<String, Integer> varIdxMap = new TreeMap<>();
 	private int deltaCycle;
 	private boolean disabledRegOutputlogic;
 	private final VariableInformation varInfo[];
+	private final ExecutableModel model;
+	/**
+	 * When <code>true</code>, frames that are marked as sensitive are only
+	 * executed when they are dirty
+	 */
+	private boolean eventDriven;
+	/**
+	 * Frames that only need to be executed when one of their inputs changed
+	 */
+	private boolean[] sensitive;
+	private boolean[] dirty;
+	/**
+	 * The storage indices that a frame may write to
+	 */
+	private int[][] frameWrites;
+	/**
+	 * The sensitive frames that read or write a storage index
+	 */
+	private int[][] storageReaders, storageWriters;
+	/**
+	 * The value of each storage index as it was last propagated
+	 */
+	private long[] seen;
+	private ParallelScheduler parallel;
+	/**
+	 * The shadow access indices of the registers that need to be copied, the
+	 * target index of each and whether it is already queued
+	 */
+	private final int[] regQueue, regTarget;
+	private final boolean[] regQueued;
+	private int regQueueSize;
+	/**
+	 * The storage indices that changed during this delta cycle and need to be
+	 * copied to {@link #storage_prev}
+	 */
+	private final int[] changed;
+	private final boolean[] changedQueued;
+	private int changedSize;
+	/**
+	 * The clock partition of each frame, or -1 if the frame has to be
+	 * executed in every delta cycle
+	 */
+	private int[] framePartition;
+	/**
+	 * The clock internal and edge of each partition, and whether that edge
+	 * occurred in the current delta cycle
+	 */
+	private int[] partitionClock;
+	private boolean[] partitionRising, partitionActive;
+	private boolean disableEdge;
+	/**
+	 * The worklist of the epsilon cycles after the first one.
+	 * <code>null</code> when the worklist can not be used for this model.
+	 */
+	private final EpsilonWorklist worklist;
+	private final EpsilonWorklist.IndexRange storageRange = new EpsilonWorklist.IndexRange() {
+		@Override
+		public void addRange(Set<Integer> indices, int internalId) {
+			FastSimpleInterpreter.this.addRange(indices, internalId);
+		}
+	};
+	/**
+	 * The frames that depend on a register in a fully synchronous model, see
+	 * {@link ExecutableModel#getSynchronousClock()}. <code>null</code> when
+	 * the model is not fully synchronous.
+	 */
+	private int[] registerCone;
+	/**
+	 * The internal of the clock of a fully synchronous model
+	 */
+	private int syncClock;
+	/**
+	 * <code>true</code> when the last {@link #run()} reached a fixpoint and
+	 * no storage index has been changed since. The next delta cycle can then
+	 * not change anything either.
+	 */
+	private boolean idle;
+	/**
+	 * Whether a frame invokes a function, which may have side effects even
+	 * when no value changes
+	 */
+	private final boolean invokesFunctions;
 
 	public FastSimpleInterpreter(ExecutableModel model, boolean disableEdge, boolean disabledRegOutputlogic) {
+		this(model, disableEdge, disabledRegOutputlogic, DEFAULT_FRAMES);
+	}
+
+	public FastSimpleInterpreter(ExecutableModel model, boolean disableEdge, boolean disabledRegOutputlogic, IFrameFactory frameFactory) {
 		this.disabledRegOutputlogic = disabledRegOutputlogic;
 		final Frame[] frames = model.frames;
 		this.frames = new FastFrame[frames.length];
+		this.folded = new boolean[frames.length];
 		this.full = new LongAccess[model.variables.length];
 		final Map<String, Integer> index = new LinkedHashMap<>();
 		int currentIdx = 0;
@@ -291,10 +461,298 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 		this.storage = new long[storageSize];
 		this.storage_prev = new long[storageSize];
 		deltaUpdates = new long[storageSize];
+		this.regQueue = new int[storageSize];
+		this.regTarget = new int[storageSize];
+		this.regQueued = new boolean[storageSize];
+		this.changed = new int[storageSize];
+		this.changedQueued = new boolean[storageSize];
+		this.program = new FlatProgram(frames);
 		for (int i = 0; i < frames.length; i++) {
-			this.frames[i] = new FastFrame(this, frames[i], disableEdge);
+			this.frames[i] = frameFactory.createFrame(this, frames[i], disableEdge);
 		}
+		this.guards = FrameGuard.createGuards(frames, internals, internals_prev);
+		this.invokesFunctions = invokesFunctions(frames);
 		this.varInfo = model.variables;
+		this.model = model;
+		this.disableEdge = disableEdge;
+		createPartitions();
+		this.worklist = EpsilonWorklist.create(model.frames, storage.length, storageRange);
+		createSynchronousSchedule();
+	}
+
+	/**
+	 * Groups the frames that start with an edge on a clock by that clock and
+	 * edge. When the edge did not occur, the frame would return right at the
+	 * edge check, so {@link #run()} can skip the whole partition. This only
+	 * works for clocks that are not written by any frame, as their value can
+	 * not change within a delta cycle.
+	 */
+	private void createPartitions() {
+		final Frame[] frames = model.frames;
+		final Set<Integer> written = new HashSet<>();
+		for (final Frame f : frames) {
+			for (final int outputId : f.outputIds) {
+				addRange(written, outputId);
+				final LongAccess access = internals[outputId];
+				if (access.ii.isShadowReg) {
+					// The register copy writes the whole target variable
+					int size = 1;
+					for (final int d : access.ii.info.dimensions) {
+						size *= d;
+					}
+					for (int i = 0; i < size; i++) {
+						written.add(access.targetAccessIndex + i);
+					}
+				}
+			}
+			for (final FastInstruction fi : f.instructions) {
+				if (fi.inst == Instruction.writeInternal) {
+					addRange(written, fi.arg1);
+				}
+			}
+		}
+		final Map<Integer, Integer> partitions = new LinkedHashMap<>();
+		framePartition = new int[frames.length];
+		for (int i = 0; i < frames.length; i++) {
+			framePartition[i] = -1;
+			final FastInstruction edge = frames[i].leadingEdge();
+			if (edge == null) {
+				continue;
+			}
+			final LongAccess clock = internals[edge.arg1];
+			if ((clock.ii.info.dimensions.length != 0) || clock.isDynamicBit || written.contains(clock.getAccessIndex())) {
+				continue;
+			}
+			final int key = (edge.arg1 << 1) | (edge.inst == Instruction.isRisingEdge ? 1 : 0);
+			Integer partition = partitions.get(key);
+			if (partition == null) {
+				partition = partitions.size();
+				partitions.put(key, partition);
+			}
+			framePartition[i] = partition;
+		}
+		partitionClock = new int[partitions.size()];
+		partitionRising = new boolean[partitions.size()];
+		partitionActive = new boolean[partitions.size()];
+		for (final Entry<Integer, Integer> e : partitions.entrySet()) {
+			partitionClock[e.getValue()] = e.getKey() >> 1;
+			partitionRising[e.getValue()] = (e.getKey() & 1) == 1;
+		}
+	}
+
+	private static boolean invokesFunctions(Frame[] frames) {
+		for (final Frame f : frames) {
+			for (final FastInstruction fi : f.instructions) {
+				if (fi.inst == Instruction.invokeFunction)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Decides which clock partitions have to be executed in this delta cycle
+	 */
+	private void updatePartitions() {
+		for (int p = 0; p < partitionClock.length; p++) {
+			if (disableEdge) {
+				partitionActive[p] = true;
+			} else {
+				final long prev = internals_prev[partitionClock[p]].getDataLong();
+				final long curr = internals[partitionClock[p]].getDataLong();
+				if (partitionRising[p]) {
+					partitionActive[p] = (prev == 0) && (curr == 1);
+				} else {
+					partitionActive[p] = (prev == 1) && (curr == 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the sensitivity lists for the {@link Feature#eventDriven} mode. A
+	 * frame is sensitive when its outputs are a pure function of the internals
+	 * it reads. That is it does not involve edges, predicates, registers or
+	 * dynamic array and bit indices, and it is the only frame that writes
+	 * its outputs.
+	 */
+	private void createSensitivity() {
+		final Frame[] frames = model.frames;
+		final Set<Integer> volatileInternals = new HashSet<>();
+		final int[] writerCount = new int[storage.length];
+		frameWrites = new int[frames.length][];
+		for (int i = 0; i < frames.length; i++) {
+			final Frame f = frames[i];
+			boolean dynamic = false;
+			for (final FastInstruction fi : f.instructions) {
+				switch (fi.inst) {
+				case writeInternal:
+				case pushAddIndex:
+					dynamic = true;
+					break;
+				default:
+				}
+			}
+			if (dynamic) {
+				for (final FastInstruction fi : f.instructions) {
+					volatileInternals.add(fi.arg1);
+				}
+				for (final int outputId : f.outputIds) {
+					volatileInternals.add(outputId);
+				}
+			}
+			frameWrites[i] = EpsilonWorklist.writtenIndices(f, storageRange);
+			for (final int idx : frameWrites[i]) {
+				writerCount[idx]++;
+			}
+		}
+		for (int i = 0; i < internals.length; i++) {
+			if (internals[i].isDynamicBit) {
+				volatileInternals.add(i);
+			}
+		}
+		sensitive = new boolean[frames.length];
+		final List<List<Integer>> readers = new ArrayList<>();
+		final List<List<Integer>> writers = new ArrayList<>();
+		for (int i = 0; i < storage.length; i++) {
+			readers.add(new ArrayList<Integer>());
+			writers.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < frames.length; i++) {
+			final Frame f = frames[i];
+			if (!isSensitive(f, volatileInternals, writerCount, frameWrites[i])) {
+				continue;
+			}
+			sensitive[i] = true;
+			final Set<Integer> read = new LinkedHashSet<>();
+			for (final int dep : f.internalDependencies) {
+				addRange(read, dep);
+			}
+			for (final FastInstruction fi : f.instructions) {
+				if (fi.inst == Instruction.loadInternal) {
+					addRange(read, fi.arg1);
+				}
+			}
+			for (final int idx : read) {
+				readers.get(idx).add(i);
+			}
+			for (final int idx : frameWrites[i]) {
+				writers.get(idx).add(i);
+			}
+		}
+		storageReaders = new int[storage.length][];
+		storageWriters = new int[storage.length][];
+		for (int i = 0; i < storage.length; i++) {
+			storageReaders[i] = toArray(readers.get(i));
+			storageWriters[i] = toArray(writers.get(i));
+		}
+		dirty = new boolean[frames.length];
+		seen = new long[storage.length];
+	}
+
+	private boolean isSensitive(Frame f, Set<Integer> volatileInternals, int[] writerCount, int[] written) {
+		if ((f.edgeNegDepRes != -1) || (f.edgePosDepRes != -1) || (f.predNegDepRes.length != 0) || (f.predPosDepRes.length != 0))
+			return false;
+		for (final FastInstruction fi : f.instructions) {
+			switch (fi.inst) {
+			case isFallingEdge:
+			case isRisingEdge:
+			case posPredicate:
+			case negPredicate:
+			case writeInternal:
+			case pushAddIndex:
+			case invokeFunction:
+				return false;
+			case loadInternal:
+				if (volatileInternals.contains(fi.arg1))
+					return false;
+				break;
+			default:
+			}
+		}
+		for (final int outputId : f.outputIds) {
+			final InternalInformation ii = internals[outputId].ii;
+			if (ii.isPred || ii.isShadowReg || volatileInternals.contains(outputId))
+				return false;
+		}
+		for (final int dep : f.internalDependencies) {
+			if (volatileInternals.contains(dep))
+				return false;
+		}
+		for (final int idx : written) {
+			if (writerCount[idx] != 1)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Collects the frames that have to be executed after the registers of a
+	 * fully synchronous model have been copied. This is the same set that
+	 * the worklist would schedule if every register changed.
+	 */
+	private void createSynchronousSchedule() {
+		if (worklist == null)
+			return;
+		final FastInstruction clock = model.getSynchronousClock();
+		if (clock == null)
+			return;
+		for (final LongAccess access : internals) {
+			if (!access.ii.isShadowReg) {
+				continue;
+			}
+			int size = 1;
+			for (final int d : access.ii.info.dimensions) {
+				size *= d;
+			}
+			for (int i = 0; i < size; i++) {
+				worklist.schedule(access.targetAccessIndex + i);
+			}
+		}
+		registerCone = worklist.toSortedArray();
+		worklist.clear();
+		syncClock = clock.arg1;
+	}
+
+	/**
+	 * Adds all storage indices of the variable that the internal belongs to
+	 */
+	void addRange(Set<Integer> indices, int internalId) {
+		final LongAccess access = internals[internalId];
+		final int start = accessIdxMap.get(access.ii.baseName(false, true));
+		int size = 1;
+		for (final int d : access.ii.info.dimensions) {
+			size *= d;
+		}
+		for (int i = start; i < (start + size); i++) {
+			indices.add(i);
+		}
+	}
+
+	private static int[] toArray(Collection<Integer> values) {
+		final int[] res = new int[values.size()];
+		int pos = 0;
+		for (final Integer v : values) {
+			res[pos++] = v;
+		}
+		return res;
+	}
+
+	/**
+	 * Marks all sensitive readers of a storage index as dirty if its value
+	 * changed since the last time
+	 *
+	 * @return <code>true</code> if the value changed
+	 */
+	private boolean propagate(int storageIdx) {
+		final long value = storage[storageIdx];
+		if (seen[storageIdx] == value)
+			return false;
+		seen[storageIdx] = value;
+		for (final int reader : storageReaders[storageIdx]) {
+			dirty[reader] = true;
+		}
+		return true;
 	}
 
 	private int createVarIndex(ExecutableModel model) {
@@ -343,30 +801,222 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 		}
 	}
 
+	/**
+	 * Queues the register updates of an executed frame
+	 *
+	 * @return <code>true</code> if the frame updated a register
+	 */
+	public boolean queueRegUpdates(FastFrame ef) {
+		return queueRegUpdates(ef.regUpdates, ef.regUpdateCount);
+	}
+
+	/**
+	 * Queues register updates that have been collected as pairs of the shadow
+	 * and the target storage index
+	 *
+	 * @return <code>true</code> if there was at least one update
+	 */
+	public boolean queueRegUpdates(int[] updates, int count) {
+		if (count == 0)
+			return false;
+		for (int i = 0; i < count; i += 2) {
+			final int shadow = updates[i];
+			if (!regQueued[shadow]) {
+				regQueued[shadow] = true;
+				regTarget[shadow] = updates[i + 1];
+				regQueue[regQueueSize++] = shadow;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records that a storage index has been written in this delta cycle. Code
+	 * that writes {@link #storage} directly has to call this, otherwise
+	 * {@link #storage_prev} will not pick up the change.
+	 *
+	 * @param storageIdx
+	 *            the index that has been written
+	 */
+	public void markChanged(int storageIdx) {
+		idle = false;
+		if (parallel != null)
+			return;
+		if (!changedQueued[storageIdx]) {
+			changedQueued[storageIdx] = true;
+			changed[changedSize++] = storageIdx;
+		}
+	}
+
 	@Override
 	public void run() {
-		boolean regUpdated = false;
 		this.deltaCycle++;
+		if (idle)
+			return;
+		updatePartitions();
+		if (tiered != null) {
+			tiered.install(frames);
+		}
+		if ((registerCone != null) && (parallel == null) && (trace == null) && !eventDriven && !disableEdge && !disabledRegOutputlogic) {
+			runSynchronous();
+		} else {
+			runEpsilonCycles();
+		}
+		final boolean wrote = changedSize != 0;
+		if (parallel != null) {
+			System.arraycopy(storage, 0, storage_prev, 0, storage.length);
+		} else {
+			for (int i = 0; i < changedSize; i++) {
+				final int idx = changed[i];
+				changedQueued[idx] = false;
+				storage_prev[idx] = storage[idx];
+			}
+			changedSize = 0;
+		}
+		// Without edges a register is written on every cycle where the clock
+		// is high. A frame that reads an index that a later frame writes only
+		// sees the new value in the next delta cycle, so the model is only
+		// settled when it is ordered or nothing was written.
+		idle = (parallel == null) && !disableEdge && !disabledRegOutputlogic && !invokesFunctions && ((worklist != null) || !wrote);
+	}
+
+	/**
+	 * Executes the frames until no register changes anymore
+	 */
+	private void runEpsilonCycles() {
+		boolean regUpdated = false;
 		int epsCycle = 0;
-		final List<RegUpdater> updatedRegs = new ArrayList<>();
 		do {
 			epsCycle++;
 			regUpdated = false;
-			for (final FastFrame ef : frames) {
-				final boolean execute = ef.execute(deltaCycle, epsCycle);
-				if (execute && !ef.regUpdates.isEmpty()) {
-					updatedRegs.addAll(ef.regUpdates);
-					regUpdated = true;
+			if (parallel != null) {
+				regUpdated = parallel.execute(deltaCycle, epsCycle);
+			} else {
+				int first = 0;
+				if ((trace != null) && !eventDriven) {
+					first = trace.execute(deltaCycle, epsCycle);
+					regUpdated = regQueueSize != 0;
+				}
+				for (int i = first; i < frames.length; i++) {
+					final FrameGuard guard = guards[i];
+					if ((guard != null) && (trace == null) && !guard.passes(deltaCycle, epsCycle, disableEdge)) {
+						i = guard.end - 1;
+						continue;
+					}
+					if (folded[i]) {
+						continue;
+					}
+					final int partition = framePartition[i];
+					if ((partition != -1) && !partitionActive[partition]) {
+						continue;
+					}
+					if ((epsCycle > 1) && (worklist != null) && !worklist.scheduled[i]) {
+						continue;
+					}
+					final FastFrame ef = frames[i];
+					if (eventDriven) {
+						if (sensitive[i]) {
+							if (!dirty[i]) {
+								continue;
+							}
+							dirty[i] = false;
+						}
+					}
+					final boolean execute = ef.execute(deltaCycle, epsCycle);
+					if (tiered != null) {
+						tiered.executed(i);
+					}
+					if (trace != null) {
+						trace.executed(i, execute);
+					}
+					if (eventDriven) {
+						for (final int idx : frameWrites[i]) {
+							propagate(idx);
+						}
+					}
+					if (execute && queueRegUpdates(ef)) {
+						regUpdated = true;
+					}
 				}
 			}
 			if (regUpdated) {
-				for (final RegUpdater ea : updatedRegs) {
-					storage[ea.accessIdx] = storage[ea.shadowAccessIdx];
+				if (worklist != null) {
+					worklist.clear();
 				}
-				updatedRegs.clear();
+				for (int i = 0; i < regQueueSize; i++) {
+					final int shadow = regQueue[i];
+					final int target = regTarget[shadow];
+					regQueued[shadow] = false;
+					if ((worklist != null) && (storage[target] != storage[shadow])) {
+						worklist.schedule(target);
+					}
+					storage[target] = storage[shadow];
+					markChanged(target);
+					if (eventDriven) {
+						propagate(target);
+					}
+				}
+				regQueueSize = 0;
 			}
 		} while (regUpdated && !disabledRegOutputlogic);
-		System.arraycopy(storage, 0, storage_prev, 0, storage.length);
+	}
+
+	/**
+	 * The single pass schedule of a fully synchronous model. All frames are
+	 * executed once, the registers are copied and then only the frames in
+	 * {@link #registerCone} are executed again. The clock edge is marked as
+	 * consumed after the first pass, so no register can be written in the
+	 * second pass.
+	 */
+	private void runSynchronous() {
+		for (int i = 0; i < frames.length; i++) {
+			final FrameGuard guard = guards[i];
+			if ((guard != null) && !guard.passes(deltaCycle, 1, disableEdge)) {
+				i = guard.end - 1;
+				continue;
+			}
+			if (folded[i]) {
+				continue;
+			}
+			final int partition = framePartition[i];
+			if ((partition != -1) && !partitionActive[partition]) {
+				continue;
+			}
+			final FastFrame ef = frames[i];
+			final boolean execute = ef.execute(deltaCycle, 1);
+			if (tiered != null) {
+				tiered.executed(i);
+			}
+			if (execute) {
+				queueRegUpdates(ef);
+			}
+		}
+		if (regQueueSize == 0)
+			return;
+		internals[syncClock].setLastUpdate(deltaCycle, 1);
+		boolean regChanged = false;
+		for (int i = 0; i < regQueueSize; i++) {
+			final int shadow = regQueue[i];
+			final int target = regTarget[shadow];
+			regQueued[shadow] = false;
+			if (storage[target] != storage[shadow]) {
+				storage[target] = storage[shadow];
+				markChanged(target);
+				regChanged = true;
+			}
+		}
+		regQueueSize = 0;
+		if (!regChanged)
+			return;
+		for (final int i : registerCone) {
+			if (folded[i]) {
+				continue;
+			}
+			frames[i].execute(deltaCycle, 2);
+			if (tiered != null) {
+				tiered.executed(i);
+			}
+		}
 	}
 
 	@Override
@@ -380,7 +1030,84 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 		if (arrayIdx != null) {
 			acc.setOffset(arrayIdx);
 		}
-		acc.setDataLong(value, deltaCycle, 0);
+		writeInput(acc, acc.offset, value);
+	}
+
+	@Override
+	public void runClocks(int clockIdx, int cycles) {
+		final LongAccess clock = full[clockIdx];
+		for (int i = 0; i < cycles; i++) {
+			writeInput(clock, 0, 1);
+			run();
+			writeInput(clock, 0, 0);
+			run();
+		}
+	}
+
+	@Override
+	public void run(int deltaCycles, SignalGenerator... generators) {
+		final LongAccess[] accesses = new LongAccess[generators.length];
+		for (int g = 0; g < generators.length; g++) {
+			accesses[g] = full[generators[g].varIdx];
+		}
+		for (int i = 0; i < deltaCycles; i++) {
+			for (int g = 0; g < generators.length; g++) {
+				writeInput(accesses[g], 0, generators[g].valueAt(deltaCycle + 1));
+			}
+			run();
+		}
+	}
+
+	private void writeInput(LongAccess acc, int offset, long value) {
+		acc.setDataLong(offset, value, deltaCycle, 0);
+		if (eventDriven) {
+			inputWritten(acc.accessIndex + offset);
+		}
+	}
+
+	private void inputWritten(int storageIdx) {
+		if (propagate(storageIdx)) {
+			// The sole writer has to restore the value if the input was
+			// actually an output
+			for (final int writer : storageWriters[storageIdx]) {
+				dirty[writer] = true;
+			}
+		}
+	}
+
+	/**
+	 * Resolves a variable, or one entry of an array variable, to a
+	 * {@link SignalHandle}
+	 */
+	public SignalHandle getHandle(String name, int... arrayIdx) {
+		return getHandle(getIndex(name), arrayIdx);
+	}
+
+	/**
+	 * Resolves a variable, or one entry of an array variable, to a
+	 * {@link SignalHandle}
+	 */
+	public SignalHandle getHandle(int idx, int... arrayIdx) {
+		final LongAccess acc = full[idx];
+		final int storageIdx = (acc.getAccessIndex() - acc.offset) + acc.offsetOf(arrayIdx);
+		return new SignalHandle(idx, varInfo[idx], storageIdx);
+	}
+
+	public long read(SignalHandle handle) {
+		return handle.read(storage);
+	}
+
+	public void write(SignalHandle handle, long value) {
+		final int storageIdx = handle.storageIdx;
+		final long val = storage[storageIdx];
+		final long newVal = value & handle.mask;
+		storage[storageIdx] = newVal;
+		if (newVal != val) {
+			markChanged(storageIdx);
+		}
+		if (eventDriven) {
+			inputWritten(storageIdx);
+		}
 	}
 
 	@Override
@@ -406,12 +1133,42 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 	}
 
 	@Override
-	public String getName(int idx) {
-		for (final Entry<String, Integer> e : varIdxMap.entrySet()) {
-			if (e.getValue() == idx)
-				return e.getKey();
+	public void setInputs(int[] idx, long[] values) {
+		for (int i = 0; i < idx.length; i++) {
+			writeInput(full[idx[i]], 0, values[i]);
+		}
+	}
+
+	@Override
+	public void readOutputs(int[] idx, long[] dst) {
+		for (int i = 0; i < idx.length; i++) {
+			dst[i] = full[idx[i]].getDataLong(0);
+		}
+	}
+
+	@Override
+	public void getArray(int idx, long[] dst) {
+		final LongAccess acc = full[idx];
+		final int size = BulkAccesses.checkSize(varInfo[idx].dimensions, dst.length);
+		for (int i = 0; i < size; i++) {
+			dst[i] = acc.getDataLong(i);
 		}
-		throw new IllegalArgumentException("No such index:" + idx);
+	}
+
+	@Override
+	public void setArray(int idx, long[] values) {
+		final LongAccess acc = full[idx];
+		final int size = BulkAccesses.checkSize(varInfo[idx].dimensions, values.length);
+		for (int i = 0; i < size; i++) {
+			writeInput(acc, i, values[i]);
+		}
+	}
+
+	@Override
+	public String getName(int idx) {
+		if ((idx < 0) || (idx >= varInfo.length))
+			throw new IllegalArgumentException("No such index:" + idx);
+		return varInfo[idx].name;
 	}
 
 	@Override
@@ -430,24 +1187,113 @@ public class FastSimpleInterpreter implements IHDLInterpreter {
 		}
 	}
 
+	/**
+	 * Evaluates the frames that {@link ExecutableModel#getConstantFrames()}
+	 * reports once and removes them from the schedule
+	 */
 	@Override
 	public void initConstants() {
-
+		idle = false;
+		final boolean[] constant = model.getConstantFrames();
+		for (int i = 0; i < frames.length; i++) {
+			if (!constant[i] || folded[i]) {
+				continue;
+			}
+			frames[i].execute(deltaCycle, 0);
+			folded[i] = true;
+			if (trace != null) {
+				trace.reset();
+			}
+			if (eventDriven) {
+				for (final int idx : frameWrites[i]) {
+					propagate(idx);
+				}
+			}
+		}
 	}
 
 	@Override
 	public void close() throws Exception {
+		if (parallel != null) {
+			parallel.close();
+			parallel = null;
+		}
+		if (tiered != null) {
+			tiered.close();
+			tiered = null;
+		}
 	}
 
 	@Override
 	public void setFeature(Feature feature, Object value) {
+		idle = false;
 		switch (feature) {
 		case disableOutputRegs:
-			disabledRegOutputlogic = (boolean) value;
+			disabledRegOutputlogic = feature.isEnabled(value);
 			break;
 		case disableEdges:
+			disableEdge = feature.isEnabled(value);
 			for (final FastFrame fastFrame : frames) {
-				fastFrame.disableEdge = (boolean) value;
+				fastFrame.disableEdge = disableEdge;
+			}
+			if (trace != null) {
+				trace.reset();
+			}
+			break;
+		case parallel:
+			final int threads = feature.intValue(value);
+			if (parallel != null) {
+				parallel.close();
+				parallel = null;
+				// Changes have not been tracked while running in parallel
+				for (int i = 0; i < storage.length; i++) {
+					markChanged(i);
+				}
+			}
+			if (feature.isEnabled(value)) {
+				if (eventDriven)
+					throw new IllegalArgumentException("The parallel execution can not be combined with eventDriven");
+				parallel = new ParallelScheduler(this, model.frames, frames, threads);
+				// The parallel execution copies the whole storage
+				for (int i = 0; i < changedSize; i++) {
+					changedQueued[changed[i]] = false;
+				}
+				changedSize = 0;
+			}
+			break;
+		case eventDriven:
+			if (feature.isEnabled(value) && (parallel != null))
+				throw new IllegalArgumentException("The eventDriven mode can not be combined with the parallel execution");
+			eventDriven = feature.isEnabled(value);
+			if (eventDriven) {
+				if (sensitive == null) {
+					createSensitivity();
+				}
+				Arrays.fill(dirty, true);
+				System.arraycopy(storage, 0, seen, 0, storage.length);
+			}
+			break;
+		case tieredThreshold:
+			if (feature.isEnabled(value)) {
+				if (tiered == null) {
+					tiered = new TieredCompiler(this, model.frames, feature.intValue(value));
+				} else {
+					tiered.setThreshold(feature.intValue(value));
+				}
+			} else if (tiered != null) {
+				tiered.close();
+				tiered = null;
+			}
+			break;
+		case traceThreshold:
+			if (feature.isEnabled(value)) {
+				if (trace == null) {
+					trace = new TraceCompiler(this, model.frames, frames, folded, feature.intValue(value));
+				} else {
+					trace.setThreshold(feature.intValue(value));
+				}
+			} else {
+				trace = null;
 			}
 			break;
 
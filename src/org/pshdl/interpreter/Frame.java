@@ -40,15 +40,20 @@ public class Frame implements Serializable {
 		 */
 		private static final long serialVersionUID = -322363811192724107L;
 		public final Instruction inst;
-		public final int arg1, arg2;
+		public final int arg1, arg2, arg3;
 		public final boolean popA;
 		public final boolean popB;
 
 		public FastInstruction(Instruction inst, int arg1, int arg2) {
+			this(inst, arg1, arg2, 0);
+		}
+
+		public FastInstruction(Instruction inst, int arg1, int arg2, int arg3) {
 			super();
 			this.inst = inst;
 			this.arg1 = arg1;
 			this.arg2 = arg2;
+			this.arg3 = arg3;
 			popA = inst.pop > 0;
 			popB = inst.pop > 1;
 		}
@@ -67,6 +72,8 @@ public class Frame implements Serializable {
 				return "negPredicate[" + em.internals[arg1] + "]";
 			if ((em != null) && (inst == Instruction.invokeFunction))
 				return "invokeFunction[" + em.functions[arg1].signature() + "]";
+			if (inst.argCount >= 3)
+				return inst.name() + "[" + inst.args[0] + "=" + arg1 + "," + inst.args[1] + "=" + arg2 + "," + inst.args[2] + "=" + arg3 + "]";
 			if (inst.argCount >= 2)
 				return inst.name() + "[" + inst.args[0] + "=" + arg1 + "," + inst.args[1] + "=" + arg2 + "]";
 			if (inst.argCount >= 1)
@@ -80,6 +87,7 @@ public class Frame implements Serializable {
 			int result = 1;
 			result = (prime * result) + arg1;
 			result = (prime * result) + arg2;
+			result = (prime * result) + arg3;
 			result = (prime * result) + ((inst == null) ? 0 : inst.hashCode());
 			result = (prime * result) + (popA ? 1231 : 1237);
 			result = (prime * result) + (popB ? 1231 : 1237);
@@ -99,6 +107,8 @@ public class Frame implements Serializable {
 				return false;
 			if (arg2 != other.arg2)
 				return false;
+			if (arg3 != other.arg3)
+				return false;
 			if (inst != other.inst)
 				return false;
 			if (popA != other.popA)
@@ -163,6 +173,27 @@ public class Frame implements Serializable {
 		this.isFuncStatement = isFuncStatement;
 	}
 
+	/**
+	 * @return the first edge of the frame if it is only preceded by
+	 *         predicates, <code>null</code> otherwise
+	 */
+	public FastInstruction leadingEdge() {
+		for (final FastInstruction fi : instructions) {
+			switch (fi.inst) {
+			case noop:
+			case posPredicate:
+			case negPredicate:
+				break;
+			case isRisingEdge:
+			case isFallingEdge:
+				return fi;
+			default:
+				return null;
+			}
+		}
+		return null;
+	}
+
 	protected int[] selfOrEmpty(int[] predPosDepRes) {
 		return predPosDepRes != null ? predPosDepRes : new int[0];
 	}
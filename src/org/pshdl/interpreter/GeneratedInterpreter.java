@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2014 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pshdl.interpreter.VariableInformation.Type;
+
+/**
+ * The runtime of the interpreters that are generated by the
+ * {@link org.pshdl.interpreter.utils.JavaSourceGenerator}. It has the same
+ * storage layout and the same delta and eps cycle semantics as the
+ * {@link FastSimpleInterpreter}, but the frames are provided as straight line
+ * code by the generated subclass. No {@link ExecutableModel} is needed at
+ * runtime.
+ */
+public abstract class GeneratedInterpreter implements IHDLInterpreter {
+
+	protected final long[] storage, storage_prev, deltaUpdates;
+	private final int[] changed;
+	private final boolean[] changedQueued;
+	private int changedSize;
+
+	private final int[] regQueue, regTarget;
+	private final boolean[] regQueued;
+	private int regQueueSize;
+	/**
+	 * Set by {@link #addRegUpdate(int, int)} when a frame has written a
+	 * register in the current eps cycle
+	 */
+	protected boolean regUpdated;
+
+	protected boolean disableEdge;
+	protected boolean disabledRegOutputlogic;
+	/**
+	 * The frames that have been evaluated by {@link #initConstants()} and are
+	 * no longer executed
+	 */
+	protected final boolean[] folded;
+	protected int deltaCycle;
+
+	private final VariableInformation[] varInfo;
+	private final Map<String, Integer> varIdxMap = new HashMap<>();
+	private final int[] varIndex, varOffset, varSignShift;
+	private final int[][] varDims;
+	private final long[] varMask;
+
+	protected GeneratedInterpreter(VariableInformation[] varInfo, int frameCount) {
+		this.varInfo = varInfo;
+		this.varIndex = new int[varInfo.length];
+		this.varOffset = new int[varInfo.length];
+		this.varSignShift = new int[varInfo.length];
+		this.varMask = new long[varInfo.length];
+		this.varDims = new int[varInfo.length][];
+		// The same layout as FastSimpleInterpreter.createVarIndex
+		int currentIdx = 0;
+		for (int i = 0; i < varInfo.length; i++) {
+			final VariableInformation vi = varInfo[i];
+			varIdxMap.put(vi.name, i);
+			varIndex[i] = currentIdx;
+			int size = 1;
+			for (final int d : vi.dimensions) {
+				size *= d;
+			}
+			currentIdx += size;
+			if (vi.isRegister) {
+				currentIdx += size;
+			}
+			varMask[i] = vi.width == 64 ? 0xFFFFFFFFFFFFFFFFL : (1l << vi.width) - 1;
+			varSignShift[i] = vi.type == Type.INT ? 64 - vi.width : 0;
+			varDims[i] = vi.dimensions.clone();
+			if (varDims[i].length > 0) {
+				varDims[i][varDims[i].length - 1] = 1;
+			}
+		}
+		this.storage = new long[currentIdx];
+		this.storage_prev = new long[currentIdx];
+		this.deltaUpdates = new long[currentIdx];
+		this.changed = new int[currentIdx];
+		this.changedQueued = new boolean[currentIdx];
+		this.regQueue = new int[currentIdx];
+		this.regTarget = new int[currentIdx];
+		this.regQueued = new boolean[currentIdx];
+		this.folded = new boolean[frameCount];
+	}
+
+	/**
+	 * Executes all frames once in the order of the model
+	 */
+	protected abstract void executeFrames(int deltaCycle, int epsCycle);
+
+	/**
+	 * Executes the constant frames and marks them as {@link #folded}
+	 */
+	protected abstract void executeConstantFrames(int deltaCycle);
+
+	@Override
+	public void run() {
+		this.deltaCycle++;
+		int epsCycle = 0;
+		do {
+			epsCycle++;
+			regUpdated = false;
+			executeFrames(deltaCycle, epsCycle);
+			if (regUpdated) {
+				for (int i = 0; i < regQueueSize; i++) {
+					final int shadow = regQueue[i];
+					final int target = regTarget[shadow];
+					regQueued[shadow] = false;
+					storage[target] = storage[shadow];
+					markChanged(target);
+				}
+				regQueueSize = 0;
+			}
+		} while (regUpdated && !disabledRegOutputlogic);
+		for (int i = 0; i < changedSize; i++) {
+			final int idx = changed[i];
+			changedQueued[idx] = false;
+			storage_prev[idx] = storage[idx];
+		}
+		changedSize = 0;
+	}
+
+	protected final void markChanged(int storageIdx) {
+		if (!changedQueued[storageIdx]) {
+			changedQueued[storageIdx] = true;
+			changed[changedSize++] = storageIdx;
+		}
+	}
+
+	protected final void write(int storageIdx, long writeMask, long mask, int shift, long data) {
+		final long val = storage[storageIdx];
+		final long newVal = (val & writeMask) | ((data & mask) << shift);
+		storage[storageIdx] = newVal;
+		if (newVal != val) {
+			markChanged(storageIdx);
+		}
+	}
+
+	protected final void addRegUpdate(int shadow, int target) {
+		regUpdated = true;
+		if (!regQueued[shadow]) {
+			regQueued[shadow] = true;
+			regTarget[shadow] = target;
+			regQueue[regQueueSize++] = shadow;
+		}
+	}
+
+	protected final void setLastUpdate(int storageIdx, int deltaCycle, int epsCycle) {
+		deltaUpdates[storageIdx] = ((long) deltaCycle << 16l) | (epsCycle & 0xFFFF);
+	}
+
+	protected final boolean isFresh(int storageIdx, int deltaCycle, int epsCycle) {
+		final long raw = deltaUpdates[storageIdx];
+		return ((raw >>> 16l) == deltaCycle) && ((raw & 0xFFFF) == epsCycle);
+	}
+
+	/**
+	 * Checks for an edge and marks it as handled, the same as the edge
+	 * instructions of a FastFrame
+	 *
+	 * @return <code>true</code> if the edge occurred and the frame should
+	 *         continue
+	 */
+	protected final boolean edge(int storageIdx, long curr, long prev, long prevValue, long currValue, int deltaCycle, int epsCycle) {
+		final long local = deltaUpdates[storageIdx];
+		final long dc = local >>> 16l;
+		if ((dc > deltaCycle) || ((dc == deltaCycle) && ((local & 0xFFFF) != epsCycle)))
+			return false;
+		if (!disableEdge) {
+			if ((prev != prevValue) || (curr != currValue))
+				return false;
+		} else {
+			if (curr != currValue)
+				return false;
+		}
+		setLastUpdate(storageIdx, deltaCycle, epsCycle);
+		return true;
+	}
+
+	/**
+	 * The same as the pow of a FastFrame
+	 */
+	protected static long pow(long a, long n) {
+		long x = 1;
+		long nValue = n;
+		while (nValue > 0) {
+			if ((nValue % 2) == 0) {
+				x = x * x;
+			} else {
+				x = a * x * x;
+			}
+			nValue /= 2;
+		}
+		return x;
+	}
+
+	private int accessIndex(int idx, int... arrayIdx) {
+		if (arrayIdx != null) {
+			// The same as LongAccess.setOffset
+			int offset = 0;
+			final int[] dims = varDims[idx];
+			int rowSize = 1;
+			for (int i = arrayIdx.length == 0 ? -1 : dims.length - 1; i >= 0; i--) {
+				offset += rowSize * arrayIdx[i];
+				rowSize *= dims[i];
+			}
+			varOffset[idx] = offset;
+		}
+		return varIndex[idx] + varOffset[idx];
+	}
+
+	@Override
+	public void setInput(String name, long value, int... arrayIdx) {
+		setInput(getIndex(name), value, arrayIdx);
+	}
+
+	@Override
+	public void setInput(int idx, long value, int... arrayIdx) {
+		final int storageIdx = accessIndex(idx, arrayIdx);
+		write(storageIdx, 0, varMask[idx], 0, value);
+		if (varInfo[idx].name.startsWith(InternalInformation.PRED_PREFIX)) {
+			setLastUpdate(storageIdx, deltaCycle, 0);
+		}
+	}
+
+	@Override
+	public long getOutputLong(String name, int... arrayIdx) {
+		return getOutputLong(getIndex(name), arrayIdx);
+	}
+
+	@Override
+	public long getOutputLong(int idx, int... arrayIdx) {
+		final int signShift = varSignShift[idx];
+		return ((storage[accessIndex(idx, arrayIdx)] & varMask[idx]) << signShift) >> signShift;
+	}
+
+	@Override
+	public int getIndex(String name) {
+		final Integer integer = varIdxMap.get(name);
+		if (integer == null)
+			throw new IllegalArgumentException("Could not find a variable named:" + name + " valid names are:" + varIdxMap.keySet());
+		return integer;
+	}
+
+	@Override
+	public String getName(int idx) {
+		if ((idx < 0) || (idx >= varInfo.length))
+			throw new IllegalArgumentException("No such index:" + idx);
+		return varInfo[idx].name;
+	}
+
+	@Override
+	public long getDeltaCycle() {
+		return deltaCycle;
+	}
+
+	@Override
+	public VariableInformation[] getVariableInformation() {
+		return varInfo;
+	}
+
+	@Override
+	public void initConstants() {
+		executeConstantFrames(deltaCycle);
+	}
+
+	@Override
+	public void setFeature(Feature feature, Object value) {
+		switch (feature) {
+		case disableOutputRegs:
+			disabledRegOutputlogic = (boolean) value;
+			break;
+		case disableEdges:
+			disableEdge = (boolean) value;
+			break;
+		default:
+			if (feature.isEnabled(value))
+				throw new IllegalArgumentException("Feature not supported");
+		}
+	}
+
+	@Override
+	public void close() throws Exception {
+	}
+}
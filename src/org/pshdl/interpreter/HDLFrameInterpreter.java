@@ -27,13 +27,14 @@
 package org.pshdl.interpreter;
 
 import java.math.BigInteger;
-import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 
+import org.pshdl.interpreter.Frame.FastInstruction;
 import org.pshdl.interpreter.access.BigAccesses;
+import org.pshdl.interpreter.access.BulkAccesses;
 import org.pshdl.interpreter.access.EncapsulatedAccess;
 import org.pshdl.interpreter.access.EncapsulatedAccess.RegUpdater;
 import org.pshdl.interpreter.access.LongAccesses;
@@ -41,6 +42,9 @@ import org.pshdl.interpreter.frames.BigIntegerFrame;
 import org.pshdl.interpreter.frames.ExecutableFrame;
 import org.pshdl.interpreter.frames.IDebugListener;
 import org.pshdl.interpreter.frames.LongFrame;
+import org.pshdl.interpreter.frames.WideFrame;
+import org.pshdl.interpreter.utils.Instruction;
+import org.pshdl.interpreter.utils.WideMath;
 
 public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 	public static class HDLFrameInterpreterFactory implements IHDLInterpreterFactory<HDLFrameInterpreter> {
@@ -82,9 +86,16 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 	 */
 	public final long storage[], storage_prev[];
 	/**
-	 * The storage for internals that have a width &gt;=64;
+	 * The storage for internals that have a width &gt; 64. The value of an
+	 * accessIndex occupies {@link #wideLimbs} consecutive longs starting at
+	 * {@link #wideOffset}, least significant limb first.
 	 */
-	public final BigInteger big_storage[], big_storage_prev[];
+	public final long wide_storage[], wide_storage_prev[];
+	/**
+	 * The offset into {@link #wide_storage} and the number of limbs for each
+	 * accessIndex of a wide variable
+	 */
+	public final int wideOffset[], wideLimbs[];
 
 	/**
 	 * The {@link EncapsulatedAccess} for each accessIndex
@@ -122,7 +133,28 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 	 * The frames that get executed
 	 */
 	private final ExecutableFrame frames[];
+	/**
+	 * The constant frames that have been evaluated by
+	 * {@link #initConstants()} and are no longer executed
+	 */
+	private final boolean folded[];
 	private final IDebugListener listener;
+	/**
+	 * The worklist of the epsilon cycles after the first one.
+	 * <code>null</code> when the worklist can not be used for this model.
+	 */
+	private final EpsilonWorklist worklist;
+	/**
+	 * <code>true</code> when the last {@link #run()} reached a fixpoint and
+	 * no accessIndex has been changed since. The next delta cycle can then
+	 * not change anything either.
+	 */
+	private boolean idle;
+	/**
+	 * Whether a frame invokes a function, which may have side effects even
+	 * when no value changes
+	 */
+	private final boolean invokesFunctions;
 
 	public HDLFrameInterpreter(ExecutableModel model, IDebugListener listener) {
 		this(model, listener, false);
@@ -138,22 +170,63 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 		createInternals(model);
 		this.storage = new long[storageSize];
 		this.storage_prev = new long[storageSize];
-		this.big_storage = new BigInteger[storageSize];
-		this.big_storage_prev = new BigInteger[storageSize];
-		for (int i = 0; i < big_storage.length; i++) {
-			big_storage[i] = BigInteger.ZERO;
-			big_storage_prev[i] = BigInteger.ZERO;
-		}
+		this.wideOffset = new int[storageSize];
+		this.wideLimbs = new int[storageSize];
+		final int wideSize = createWideIndex(model);
+		this.wide_storage = new long[wideSize];
+		this.wide_storage_prev = new long[wideSize];
 		deltaUpdates = new long[storageSize];
+		this.updatedRegs = new int[storageSize * 4];
+		this.regQueued = new boolean[storageSize];
+		this.bigRegQueued = new boolean[storageSize];
+		this.changed = new int[storageSize];
+		this.bigChanged = new int[storageSize];
+		this.changedQueued = new boolean[storageSize];
+		this.bigChangedQueued = new boolean[storageSize];
 		final Frame[] frames = model.frames;
 		this.frames = new ExecutableFrame[frames.length];
+		this.folded = new boolean[frames.length];
 		for (int i = 0; i < frames.length; i++) {
-			if (forceBigInteger || (frames[i].maxDataWidth > 64)) {
+			if (forceBigInteger) {
 				this.frames[i] = new BigIntegerFrame(listener, this, frames[i], internals, internals_prev);
+			} else if (frames[i].maxDataWidth > 64) {
+				this.frames[i] = new WideFrame(listener, this, frames[i], internals, internals_prev);
 			} else {
 				this.frames[i] = new LongFrame(listener, this, frames[i], internals, internals_prev);
 			}
 		}
+		this.worklist = EpsilonWorklist.create(frames, storageSize, new EpsilonWorklist.IndexRange() {
+			@Override
+			public void addRange(Set<Integer> indices, int internalId) {
+				HDLFrameInterpreter.this.addRange(indices, internalId);
+			}
+		});
+		this.invokesFunctions = invokesFunctions(frames);
+	}
+
+	private static boolean invokesFunctions(Frame[] frames) {
+		for (final Frame f : frames) {
+			for (final FastInstruction fi : f.instructions) {
+				if (fi.inst == Instruction.invokeFunction)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds all accessIndices of the variable that the internal belongs to
+	 */
+	private void addRange(Set<Integer> indices, int internalId) {
+		final InternalInformation ii = internals[internalId].ii;
+		final int start = accessIdxMap.get(ii.baseName(false, true)) & BIG_MASK;
+		int size = 1;
+		for (final int d : ii.info.dimensions) {
+			size *= d;
+		}
+		for (int i = start; i < (start + size); i++) {
+			indices.add(i);
+		}
 	}
 
 	private int createVarIndex(ExecutableModel model) {
@@ -188,6 +261,34 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 		return currentIdx;
 	}
 
+	private int createWideIndex(ExecutableModel model) {
+		int currentOffset = 0;
+		for (final VariableInformation vi : model.variables) {
+			if (vi.width <= 64) {
+				continue;
+			}
+			int size = 1;
+			for (final int d : vi.dimensions) {
+				size *= d;
+			}
+			final int limbs = WideMath.limbs(vi.width);
+			currentOffset = assignWide(accessIdxMap.get(vi.name) & BIG_MASK, size, limbs, currentOffset);
+			if (vi.isRegister) {
+				currentOffset = assignWide(accessIdxMap.get(vi.name + InternalInformation.REG_POSTFIX) & BIG_MASK, size, limbs, currentOffset);
+			}
+		}
+		return currentOffset;
+	}
+
+	private int assignWide(int accessIndex, int size, int limbs, int currentOffset) {
+		for (int i = 0; i < size; i++) {
+			wideOffset[accessIndex + i] = currentOffset;
+			wideLimbs[accessIndex + i] = limbs;
+			currentOffset += limbs;
+		}
+		return currentOffset;
+	}
+
 	private void createInternals(ExecutableModel model) {
 		for (int i = 0; i < model.internals.length; i++) {
 			final InternalInformation ii = model.internals[i];
@@ -267,6 +368,33 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 		acc.setDataLong(value, deltaCycle, 0);
 	}
 
+	@Override
+	public void runClocks(int clockIdx, int cycles) {
+		final EncapsulatedAccess clock = full[clockIdx];
+		clock.offset = 0;
+		for (int i = 0; i < cycles; i++) {
+			clock.setDataLong(1, deltaCycle, 0);
+			run();
+			clock.setDataLong(0, deltaCycle, 0);
+			run();
+		}
+	}
+
+	@Override
+	public void run(int deltaCycles, SignalGenerator... generators) {
+		final EncapsulatedAccess[] accesses = new EncapsulatedAccess[generators.length];
+		for (int g = 0; g < generators.length; g++) {
+			accesses[g] = full[generators[g].varIdx];
+			accesses[g].offset = 0;
+		}
+		for (int i = 0; i < deltaCycles; i++) {
+			for (int g = 0; g < generators.length; g++) {
+				accesses[g].setDataLong(generators[g].valueAt(deltaCycle + 1), deltaCycle, 0);
+			}
+			run();
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -306,6 +434,44 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 		return acc.getDataLong();
 	}
 
+	@Override
+	public void setInputs(int[] idx, long[] values) {
+		for (int i = 0; i < idx.length; i++) {
+			final EncapsulatedAccess acc = full[idx[i]];
+			acc.offset = 0;
+			acc.setDataLong(values[i], deltaCycle, 0);
+		}
+	}
+
+	@Override
+	public void readOutputs(int[] idx, long[] dst) {
+		for (int i = 0; i < idx.length; i++) {
+			final EncapsulatedAccess acc = full[idx[i]];
+			acc.offset = 0;
+			dst[i] = acc.getDataLong();
+		}
+	}
+
+	@Override
+	public void getArray(int idx, long[] dst) {
+		final EncapsulatedAccess acc = full[idx];
+		final int size = BulkAccesses.checkSize(model.variables[idx].dimensions, dst.length);
+		for (int i = 0; i < size; i++) {
+			acc.offset = i;
+			dst[i] = acc.getDataLong();
+		}
+	}
+
+	@Override
+	public void setArray(int idx, long[] values) {
+		final EncapsulatedAccess acc = full[idx];
+		final int size = BulkAccesses.checkSize(model.variables[idx].dimensions, values.length);
+		for (int i = 0; i < size; i++) {
+			acc.offset = i;
+			acc.setDataLong(values[i], deltaCycle, 0);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -338,7 +504,23 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 	 * SignedCastTest.main() cast (int<16>) -255 to (int<32>) : FFFFFF01
 	 * SignedCastTest.main() cast (uint<16>) 65535 to (int<32>) : 0000FFFF
 	 */
-	final private Set<RegUpdater> updatedRegs = new LinkedHashSet<>();
+	/**
+	 * Pairs of shadow and target access indices of the registers that need to
+	 * be copied. Big registers are marked with the {@link #BIG_MARKER}
+	 */
+	private final int[] updatedRegs;
+	private int updatedRegsSize;
+	/**
+	 * Whether a shadow access index is already queued
+	 */
+	private final boolean[] regQueued, bigRegQueued;
+	/**
+	 * The storage indices that changed during this delta cycle and need to be
+	 * copied to the prev storage
+	 */
+	private final int[] changed, bigChanged;
+	private final boolean[] changedQueued, bigChangedQueued;
+	private int changedSize, bigChangedSize;
 
 	/*
 	 * (non-Javadoc)
@@ -348,34 +530,104 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 	@Override
 	public void run() {
 		deltaCycle++;
+		if (idle)
+			return;
 		int epsCycle = 0;
 		do {
-			updatedRegs.clear();
+			updatedRegsSize = 0;
 			epsCycle++;
 			if (listener != null) {
 				listener.startCycle(deltaCycle, epsCycle, this);
 			}
-			for (final ExecutableFrame ef : frames) {
-				ef.execute(deltaCycle, epsCycle);
+			for (int i = 0; i < frames.length; i++) {
+				if (folded[i]) {
+					continue;
+				}
+				if ((epsCycle > 1) && (worklist != null) && !worklist.scheduled[i]) {
+					continue;
+				}
+				frames[i].execute(deltaCycle, epsCycle);
 			}
-			if (!updatedRegs.isEmpty()) {
+			if (updatedRegsSize != 0) {
 				if (listener != null) {
 					listener.copyingRegisterValues(this);
 				}
-				for (final RegUpdater ea : updatedRegs) {
-					if (ea.isBig) {
-						big_storage[ea.accessIdx & BIG_MASK] = big_storage[ea.shadowAccessIdx & BIG_MASK];
+				if (worklist != null) {
+					worklist.clear();
+				}
+				for (int i = 0; i < updatedRegsSize; i += 2) {
+					final int shadowAccessIdx = updatedRegs[i];
+					final int accessIdx = updatedRegs[i + 1];
+					if ((shadowAccessIdx & BIG_MARKER) == BIG_MARKER) {
+						final int shadowIdx = shadowAccessIdx & BIG_MASK;
+						final int targetIdx = accessIdx & BIG_MASK;
+						bigRegQueued[shadowIdx] = false;
+						final int limbs = wideLimbs[targetIdx];
+						final int shadowOff = wideOffset[shadowIdx];
+						final int targetOff = wideOffset[targetIdx];
+						if (!WideMath.equal(wide_storage, shadowOff, wide_storage, targetOff, limbs)) {
+							System.arraycopy(wide_storage, shadowOff, wide_storage, targetOff, limbs);
+							markBigChanged(targetIdx);
+							if (worklist != null) {
+								worklist.schedule(targetIdx);
+							}
+						}
 					} else {
-						storage[ea.accessIdx] = storage[ea.shadowAccessIdx];
+						regQueued[shadowAccessIdx] = false;
+						if ((worklist != null) && (storage[accessIdx] != storage[shadowAccessIdx])) {
+							worklist.schedule(accessIdx);
+						}
+						storage[accessIdx] = storage[shadowAccessIdx];
+						markChanged(accessIdx);
 					}
 				}
 			}
-		} while (!updatedRegs.isEmpty());
+		} while (updatedRegsSize != 0);
 		if (listener != null) {
 			listener.doneCycle(deltaCycle, this);
 		}
-		System.arraycopy(storage, 0, storage_prev, 0, storage.length);
-		System.arraycopy(big_storage, 0, big_storage_prev, 0, big_storage.length);
+		final boolean wrote = (changedSize != 0) || (bigChangedSize != 0);
+		for (int i = 0; i < changedSize; i++) {
+			final int idx = changed[i];
+			changedQueued[idx] = false;
+			storage_prev[idx] = storage[idx];
+		}
+		changedSize = 0;
+		for (int i = 0; i < bigChangedSize; i++) {
+			final int idx = bigChanged[i];
+			bigChangedQueued[idx] = false;
+			System.arraycopy(wide_storage, wideOffset[idx], wide_storage_prev, wideOffset[idx], wideLimbs[idx]);
+		}
+		bigChangedSize = 0;
+		// A frame that reads an index that a later frame writes only sees the
+		// new value in the next delta cycle, so the model is only settled
+		// when it is ordered or nothing was written
+		idle = (listener == null) && !invokesFunctions && ((worklist != null) || !wrote);
+	}
+
+	/**
+	 * Records that an index of {@link #storage} has been changed in this delta
+	 * cycle. Code that writes {@link #storage} directly has to call this,
+	 * otherwise {@link #storage_prev} will not pick up the change.
+	 */
+	public void markChanged(int accessIdx) {
+		idle = false;
+		if (!changedQueued[accessIdx]) {
+			changedQueued[accessIdx] = true;
+			changed[changedSize++] = accessIdx;
+		}
+	}
+
+	/**
+	 * Records that an index of {@link #wide_storage} has been changed in this
+	 * delta cycle.
+	 */
+	public void markBigChanged(int accessIdx) {
+		idle = false;
+		if (!bigChangedQueued[accessIdx]) {
+			bigChangedQueued[accessIdx] = true;
+			bigChanged[bigChangedSize++] = accessIdx;
+		}
 	}
 
 	@Override
@@ -390,11 +642,43 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 
 	@Override
 	public String getName(int idx) {
-		for (final Entry<String, Integer> e : varIdxMap.entrySet()) {
-			if (e.getValue() == idx)
-				return e.getKey();
+		if ((idx < 0) || (idx >= model.variables.length))
+			throw new IllegalArgumentException("No such index:" + idx);
+		return model.variables[idx].name;
+	}
+
+	/**
+	 * Resolves a variable, or one entry of an array variable, to a
+	 * {@link SignalHandle}. Only variables with a width of up to 64 bit are
+	 * supported.
+	 */
+	public SignalHandle getHandle(String name, int... arrayIdx) {
+		return getHandle(getIndex(name), arrayIdx);
+	}
+
+	/**
+	 * Resolves a variable, or one entry of an array variable, to a
+	 * {@link SignalHandle}. Only variables with a width of up to 64 bit are
+	 * supported.
+	 */
+	public SignalHandle getHandle(int idx, int... arrayIdx) {
+		final EncapsulatedAccess acc = full[idx];
+		final int storageIdx = (acc.getAccessIndex() - acc.offset) + acc.offsetOf(arrayIdx);
+		return new SignalHandle(idx, model.variables[idx], storageIdx);
+	}
+
+	public long read(SignalHandle handle) {
+		return handle.read(storage);
+	}
+
+	public void write(SignalHandle handle, long value) {
+		final int storageIdx = handle.storageIdx;
+		final long val = storage[storageIdx];
+		final long newVal = value & handle.mask;
+		storage[storageIdx] = newVal;
+		if (newVal != val) {
+			markChanged(storageIdx);
 		}
-		throw new IllegalArgumentException("No such index:" + idx);
 	}
 
 	@Override
@@ -403,13 +687,42 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 	}
 
 	public void addRegUpdate(RegUpdater regUpdater) {
-		updatedRegs.add(regUpdater);
+		addRegUpdate(regUpdater.shadowAccessIdx, regUpdater.accessIdx, regUpdater.isBig);
+	}
+
+	/**
+	 * Queues the copy of a shadow register to its target. Each shadow index is
+	 * only queued once per eps cycle.
+	 */
+	public void addRegUpdate(int shadowAccessIdx, int accessIdx, boolean isBig) {
+		if (isBig) {
+			if (bigRegQueued[shadowAccessIdx])
+				return;
+			bigRegQueued[shadowAccessIdx] = true;
+			updatedRegs[updatedRegsSize++] = shadowAccessIdx | BIG_MARKER;
+		} else {
+			if (regQueued[shadowAccessIdx])
+				return;
+			regQueued[shadowAccessIdx] = true;
+			updatedRegs[updatedRegsSize++] = shadowAccessIdx;
+		}
+		updatedRegs[updatedRegsSize++] = accessIdx;
 	}
 
+	/**
+	 * Evaluates the frames that {@link ExecutableModel#getConstantFrames()}
+	 * reports once and removes them from the schedule
+	 */
 	@Override
 	public void initConstants() {
-		// TODO Auto-generated method stub
-
+		idle = false;
+		final boolean[] constant = model.getConstantFrames();
+		for (int i = 0; i < frames.length; i++) {
+			if (constant[i] && !folded[i]) {
+				frames[i].execute(deltaCycle, 0);
+				folded[i] = true;
+			}
+		}
 	}
 
 	@Override
@@ -421,7 +734,8 @@ public final class HDLFrameInterpreter implements IHDLBigInterpreter {
 		switch (feature) {
 		case disableEdges:
 		case disableOutputRegs:
-			if ((boolean) value)
+		default:
+			if (feature.isEnabled(value))
 				throw new IllegalArgumentException("Feature not supported");
 		}
 	}
@@ -84,11 +84,41 @@ public interface IHDLBigInterpreter extends IHDLInterpreter {
 			return interpeter.getOutputLong(idx, arrayIdx);
 		}
 
+		@Override
+		public void setInputs(int[] idx, long[] values) {
+			interpeter.setInputs(idx, values);
+		}
+
+		@Override
+		public void readOutputs(int[] idx, long[] dst) {
+			interpeter.readOutputs(idx, dst);
+		}
+
+		@Override
+		public void getArray(int idx, long[] dst) {
+			interpeter.getArray(idx, dst);
+		}
+
+		@Override
+		public void setArray(int idx, long[] values) {
+			interpeter.setArray(idx, values);
+		}
+
 		@Override
 		public void run() {
 			interpeter.run();
 		}
 
+		@Override
+		public void runClocks(int clockIdx, int cycles) {
+			interpeter.runClocks(clockIdx, cycles);
+		}
+
+		@Override
+		public void run(int deltaCycles, SignalGenerator... generators) {
+			interpeter.run(deltaCycles, generators);
+		}
+
 		@Override
 		public void initConstants() {
 			interpeter.initConstants();
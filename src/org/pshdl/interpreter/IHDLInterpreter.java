@@ -26,10 +26,74 @@
  ******************************************************************************/
 package org.pshdl.interpreter;
 
+import org.pshdl.interpreter.access.BulkAccesses;
+
 public interface IHDLInterpreter extends AutoCloseable, Runnable {
 
 	public static enum Feature {
-		disableEdges, disableOutputRegs
+		disableEdges, disableOutputRegs,
+		/**
+		 * Only execute frames when one of the internals they depend on has
+		 * changed
+		 */
+		eventDriven,
+		/**
+		 * Execute the frames of each schedule stage on the given number of
+		 * threads. The value has to be an {@link Integer}, a value of 1 or
+		 * less executes the frames sequentially.
+		 */
+		parallel,
+		/**
+		 * Compile frames in the background once they have been executed the
+		 * given number of times. The value has to be an {@link Integer}, a
+		 * value of 1 compiles a frame after its first execution and a value of
+		 * 0 or less disables the tiered compilation.
+		 */
+		tieredThreshold,
+		/**
+		 * Compile the frames that are executed into a single trace once no
+		 * new frames have been executed for the given number of delta cycles
+		 * in a row. The value has to be an {@link Integer}, a value of 0 or
+		 * less disables the trace compilation.
+		 */
+		traceThreshold;
+
+		/**
+		 * Checks whether the given value turns this feature on
+		 *
+		 * @param value
+		 *            the value as passed to {@link IHDLInterpreter#setFeature}
+		 * @return <code>true</code> if the feature is enabled by this value
+		 * @throws IllegalArgumentException
+		 *             if the value is not of the type that this feature expects
+		 */
+		public boolean isEnabled(Object value) {
+			switch (this) {
+			case parallel:
+				return intValue(value) > 1;
+			case tieredThreshold:
+			case traceThreshold:
+				return intValue(value) > 0;
+			default:
+				if (!(value instanceof Boolean))
+					throw new IllegalArgumentException("The feature " + this + " expects a Boolean, but got:" + value);
+				return (Boolean) value;
+			}
+		}
+
+		/**
+		 * Returns the value of a feature that expects an {@link Integer}
+		 *
+		 * @param value
+		 *            the value as passed to {@link IHDLInterpreter#setFeature}
+		 * @throws IllegalArgumentException
+		 *             if the value is not an {@link Integer}
+		 */
+		public int intValue(Object value) {
+			if (!(value instanceof Integer))
+				throw new IllegalArgumentException("The feature " + this + " expects an Integer, but got:" + value);
+			return (Integer) value;
+		}
 	}
 
 	public abstract void setFeature(Feature feature, Object value);
@@ -46,9 +110,74 @@ public interface IHDLInterpreter extends AutoCloseable, Runnable {
 
 	public abstract long getOutputLong(int idx, int... arrayIdx);
 
+	/**
+	 * Sets each variable in idx to the value at the same position in values.
+	 * Arrays are written at their first entry, use
+	 * {@link #setArray(int, long[])} to write a whole array.
+	 */
+	public default void setInputs(int[] idx, long[] values) {
+		BulkAccesses.setInputs(this, idx, values);
+	}
+
+	/**
+	 * Reads each variable in idx into the same position in dst. Arrays are
+	 * read at their first entry, use {@link #getArray(int, long[])} to read a
+	 * whole array.
+	 */
+	public default void readOutputs(int[] idx, long[] dst) {
+		BulkAccesses.readOutputs(this, idx, dst);
+	}
+
+	/**
+	 * Reads all entries of an array variable into dst, in row major order.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if dst is shorter than the array
+	 */
+	public default void getArray(int idx, long[] dst) {
+		BulkAccesses.getArray(this, idx, dst);
+	}
+
+	/**
+	 * Writes all entries of an array variable from values, in row major
+	 * order.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if values is shorter than the array
+	 */
+	public default void setArray(int idx, long[] values) {
+		BulkAccesses.setArray(this, idx, values);
+	}
+
 	@Override
 	public abstract void run();
 
+	/**
+	 * Runs the given number of clock cycles. Each cycle sets the clock to 1,
+	 * runs a delta cycle, sets the clock to 0 and runs another delta cycle.
+	 *
+	 * @param clockIdx
+	 *            the index of the clock, see {@link #getIndex(String)}
+	 * @param cycles
+	 *            the number of rising edges
+	 */
+	public default void runClocks(int clockIdx, int cycles) {
+		SignalGenerator.runClocks(this, clockIdx, cycles);
+	}
+
+	/**
+	 * Runs the given number of delta cycles. Before each delta cycle, the
+	 * input of each generator is set to its value for that delta cycle.
+	 *
+	 * @param deltaCycles
+	 *            the number of delta cycles to run
+	 * @param generators
+	 *            the clocks and resets to drive
+	 */
+	public default void run(int deltaCycles, SignalGenerator... generators) {
+		SignalGenerator.run(this, deltaCycles, generators);
+	}
+
 	public abstract void initConstants();
 
 	public abstract long getDeltaCycle();
@@ -0,0 +1,612 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2014 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter;
+
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.pshdl.interpreter.VariableInformation.Type;
+import org.pshdl.interpreter.frames.BitSlicedFrame;
+import org.pshdl.interpreter.frames.LaneFrame;
+
+/**
+ * Simulates a number of independent copies (lanes) of the same
+ * {@link ExecutableModel} in lockstep. Each instruction is decoded once and
+ * then applied to all lanes. The storage is kept as <code>[index][lane]</code>
+ * so that the lanes of one index are next to each other. Every lane behaves
+ * exactly like a {@link FastSimpleInterpreter} that received the same inputs.
+ *
+ * The methods of {@link IHDLInterpreter} set the inputs of all lanes, and
+ * return the outputs of lane 0. Use {@link #setLaneInput(int, int, long, int...)}
+ * and {@link #getLaneOutputLong(int, int, int...)} to access individual lanes.
+ */
+public class LaneInterpreter implements IHDLInterpreter {
+
+	public static class LaneInterpreterFactory implements IHDLInterpreterFactory<LaneInterpreter> {
+
+		private final ExecutableModel model;
+		private final int lanes;
+		private final boolean disableEdge, disabledRegOutputlogic, bitSliced;
+
+		public LaneInterpreterFactory(ExecutableModel model, int lanes, boolean disableEdge, boolean disabledRegOutputlogic) {
+			this(model, lanes, disableEdge, disabledRegOutputlogic, false);
+		}
+
+		public LaneInterpreterFactory(ExecutableModel model, int lanes, boolean disableEdge, boolean disabledRegOutputlogic, boolean bitSliced) {
+			super();
+			this.model = model;
+			this.lanes = lanes;
+			this.disableEdge = disableEdge;
+			this.disabledRegOutputlogic = disabledRegOutputlogic;
+			this.bitSliced = bitSliced;
+		}
+
+		@Override
+		public LaneInterpreter newInstance() {
+			return new LaneInterpreter(model, lanes, disableEdge, disabledRegOutputlogic, bitSliced);
+		}
+
+	}
+
+	/**
+	 * The same as {@link FastSimpleInterpreter.LongAccess}, but the offset
+	 * and the dynamic bit position are kept per lane
+	 */
+	public class LaneAccess {
+		private final int accessIndex;
+		private final int[] dims;
+		public final InternalInformation ii;
+		public final long mask;
+		public final int[] offset;
+		public final boolean prev;
+		public final int[] shift;
+		public final boolean isDynamicBit;
+		public int targetAccessIndex = -1;
+		public final long[] writeMask;
+		public final int signShift;
+		/**
+		 * Whether the lanes of this internal are packed into {@link #bits}
+		 */
+		public final boolean isPacked;
+
+		public LaneAccess(InternalInformation name, int accessIndex, boolean prev) {
+			super();
+			if ((name.actualWidth != name.info.width) || (name.info.type != Type.INT)) {
+				signShift = 0;
+			} else {
+				signShift = 64 - name.actualWidth;
+			}
+			this.accessIndex = accessIndex;
+			this.prev = prev;
+			this.ii = name;
+			this.isDynamicBit = name.bitEnd == -1;
+			this.isPacked = packed[accessIndex];
+			this.offset = new int[lanes];
+			this.shift = new int[lanes];
+			this.writeMask = new long[lanes];
+			this.dims = name.info.dimensions.clone();
+			if (dims.length > 0) {
+				this.dims[dims.length - 1] = 1;
+			}
+			final int initialShift;
+			final long initialWriteMask;
+			if ((name.bitStart == InternalInformation.undefinedBit) && (name.bitEnd == InternalInformation.undefinedBit)) {
+				final int width = name.info.width;
+				if (width > 64)
+					throw new IllegalArgumentException("Unsupported bitWidth:" + width);
+				initialShift = 0;
+				if (width == 64) {
+					this.mask = 0xFFFFFFFFFFFFFFFFL;
+				} else {
+					this.mask = (1l << width) - 1;
+				}
+				initialWriteMask = 0;
+			} else if (name.bitEnd != name.bitStart) {
+				final int actualWidth = (name.bitStart - name.bitEnd) + 1;
+				if (actualWidth > 64)
+					throw new IllegalArgumentException("Unsupported bitWidth:" + actualWidth);
+				initialShift = name.bitEnd;
+				if (actualWidth == 64) {
+					this.mask = 0xFFFFFFFFFFFFFFFFL;
+					initialWriteMask = 0;
+				} else {
+					this.mask = (1l << actualWidth) - 1;
+					initialWriteMask = ~(mask << initialShift);
+				}
+			} else {
+				initialShift = name.bitStart;
+				this.mask = 1;
+				initialWriteMask = ~(mask << initialShift);
+			}
+			Arrays.fill(shift, initialShift);
+			Arrays.fill(writeMask, initialWriteMask);
+			if (name.fixedArray) {
+				for (int lane = 0; lane < lanes; lane++) {
+					setOffset(lane, name.arrayIdx);
+				}
+			}
+		}
+
+		public int getAccessIndex(int lane) {
+			return accessIndex + offset[lane];
+		}
+
+		public long getDataLong(int lane) {
+			final int accessIndex = getAccessIndex(lane);
+			final long rawVal;
+			if (isPacked) {
+				rawVal = ((prev ? bits_prev[accessIndex] : bits[accessIndex]) >>> lane) & 1;
+			} else if (prev) {
+				rawVal = storage_prev[accessIndex][lane];
+			} else {
+				rawVal = storage[accessIndex][lane];
+			}
+			return (((rawVal >> shift[lane]) & mask) << signShift) >> signShift;
+		}
+
+		public boolean isFresh(int lane, int deltaCycle, int epsCycle) {
+			final long raw = deltaUpdates[getAccessIndex(lane)][lane];
+			final boolean dc = (raw >>> 16l) == deltaCycle;
+			final boolean ec = (raw & 0xFFFF) == epsCycle;
+			return dc && ec;
+		}
+
+		public void setDataLong(int lane, long data, int deltaCycle, int epsCycle) {
+			if (isPacked) {
+				final int accessIndex = getAccessIndex(lane);
+				final long bit = 1l << lane;
+				if ((data & 1) != 0) {
+					bits[accessIndex] |= bit;
+				} else {
+					bits[accessIndex] &= ~bit;
+				}
+			} else {
+				final long[] row = storage[getAccessIndex(lane)];
+				final long current = row[lane] & writeMask[lane];
+				row[lane] = current | ((data & mask) << shift[lane]);
+			}
+			if (ii.isPred) {
+				setLastUpdate(lane, deltaCycle, epsCycle);
+			}
+		}
+
+		public void setLastUpdate(int lane, int deltaCycle, int epsCycle) {
+			deltaUpdates[getAccessIndex(lane)][lane] = ((long) deltaCycle << 16l) | (epsCycle & 0xFFFF);
+		}
+
+		public void setOffset(int lane, int... off) {
+			offset[lane] = 0;
+			if (off.length == 0)
+				return;
+			final int lastIndex = dims.length - 1;
+			int rowSize = 1;
+			int res = 0;
+			for (int i = lastIndex; i >= 0; i--) {
+				res += rowSize * off[i];
+				rowSize *= dims[i];
+			}
+			offset[lane] = res;
+		}
+
+		/**
+		 * The same as {@link #setOffset(int, int...)}, but with the indices of
+		 * all lanes in a matrix
+		 */
+		public void setOffset(int lane, int[][] writeIndex) {
+			offset[lane] = 0;
+			if (writeIndex.length == 0)
+				return;
+			final int lastIndex = dims.length - 1;
+			int rowSize = 1;
+			int res = 0;
+			for (int i = lastIndex; i >= 0; i--) {
+				res += rowSize * writeIndex[i][lane];
+				rowSize *= dims[i];
+			}
+			offset[lane] = res;
+		}
+
+		public void fillDataLong(int lane, int arrayPos, int[][] writeIndex, long a, int deltaCycle, int epsCycle) {
+			int offset = 0;
+			for (int i = 0; i < (arrayPos + 1); i++) {
+				final int o = writeIndex[i][lane];
+				offset += o * dims[i];
+			}
+			int fill = 1;
+			final int[] dims = ii.info.dimensions;
+			for (int i = arrayPos + 1; i < dims.length; i++) {
+				fill *= dims[i];
+			}
+			for (int i = offset; i < (offset + fill); i++) {
+				this.offset[lane] = i;
+				setDataLong(lane, a, deltaCycle, epsCycle);
+			}
+		}
+
+		public boolean skip(int lane, int deltaCycle, int epsCycle) {
+			final long local = deltaUpdates[getAccessIndex(lane)][lane];
+			final long dc = local >>> 16l;
+			if (dc < deltaCycle)
+				return false;
+			if ((dc == deltaCycle) && ((local & 0xFFFF) == epsCycle))
+				return false;
+			return true;
+		}
+
+		public void setBitOffset(int lane, int bitOffset) {
+			if (isDynamicBit) {
+				this.shift[lane] = bitOffset;
+				this.writeMask[lane] = ~(mask << bitOffset);
+			}
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder builder = new StringBuilder();
+			builder.append("LaneAccess [mask=").append(Long.toHexString(mask)).append(", name=").append(ii).append(", prev=").append(prev).append("]");
+			return builder.toString();
+		}
+	}
+
+	public final int lanes;
+	public final long[][] deltaUpdates;
+	public final LaneAccess internals[];
+	public final LaneAccess internals_prev[];
+	public final long[][] storage;
+	public final long[][] storage_prev;
+	/**
+	 * The packed storage of 1-bit variables in the bit-sliced mode. Bit n
+	 * holds the value of lane n.
+	 */
+	public final long[] bits, bits_prev;
+	/**
+	 * Whether a storage index is kept in {@link #bits}
+	 */
+	public final boolean[] packed;
+	private final LaneAccess[] full;
+	private final LaneFrame[] frames;
+	private final Map<String, Integer> accessIdxMap = new TreeMap<>();
+	private final Map<String, Integer> varIdxMap = new TreeMap<>();
+	private final VariableInformation varInfo[];
+	private int deltaCycle;
+	private boolean disabledRegOutputlogic;
+	/**
+	 * The lanes that still iterate in the current delta cycle
+	 */
+	private final boolean[] laneActive;
+	/**
+	 * The register updates of each lane
+	 */
+	private final int[][] regQueue;
+	private final int[] regQueueSize;
+	private final boolean[] regUpdated;
+
+	public LaneInterpreter(ExecutableModel model, int lanes, boolean disableEdge, boolean disabledRegOutputlogic) {
+		this(model, lanes, disableEdge, disabledRegOutputlogic, false);
+	}
+
+	/**
+	 * @param bitSliced
+	 *            if <code>true</code>, 1-bit variables are packed into one
+	 *            long for all lanes, and frames that only compute 1-bit
+	 *            values are evaluated for all lanes at once. This requires
+	 *            at most 64 lanes.
+	 */
+	public LaneInterpreter(ExecutableModel model, int lanes, boolean disableEdge, boolean disabledRegOutputlogic, boolean bitSliced) {
+		if (lanes < 1)
+			throw new IllegalArgumentException("At least one lane is required");
+		if (bitSliced && (lanes > 64))
+			throw new IllegalArgumentException("The bit-sliced mode supports at most 64 lanes");
+		this.lanes = lanes;
+		this.disabledRegOutputlogic = disabledRegOutputlogic;
+		this.varInfo = model.variables;
+		this.full = new LaneAccess[model.variables.length];
+		this.internals = new LaneAccess[model.internals.length];
+		this.internals_prev = new LaneAccess[model.internals.length];
+		final int storageSize = createVarIndex(model);
+		this.storage = new long[storageSize][lanes];
+		this.storage_prev = new long[storageSize][lanes];
+		this.deltaUpdates = new long[storageSize][lanes];
+		this.bits = new long[storageSize];
+		this.bits_prev = new long[storageSize];
+		this.packed = new boolean[storageSize];
+		if (bitSliced) {
+			findPacked(model);
+		}
+		createAccesses(model);
+		createInternals(model);
+		this.laneActive = new boolean[lanes];
+		this.regQueue = new int[lanes][8];
+		this.regQueueSize = new int[lanes];
+		this.regUpdated = new boolean[lanes];
+		this.frames = new LaneFrame[model.frames.length];
+		for (int i = 0; i < model.frames.length; i++) {
+			final Frame f = model.frames[i];
+			if (bitSliced && BitSlicedFrame.isSliceable(this, f)) {
+				this.frames[i] = new BitSlicedFrame(this, f, disableEdge);
+			} else {
+				this.frames[i] = new LaneFrame(this, f, disableEdge);
+			}
+		}
+	}
+
+	private int createVarIndex(ExecutableModel model) {
+		int currentIdx = 0;
+		for (int i = 0; i < model.variables.length; i++) {
+			final VariableInformation vi = model.variables[i];
+			varIdxMap.put(vi.name, i);
+			int accessIndex = currentIdx;
+			int size = 1;
+			for (final int d : vi.dimensions) {
+				size *= d;
+			}
+			currentIdx += size;
+			accessIdxMap.put(vi.name, accessIndex);
+			if (vi.isRegister) {
+				accessIndex = currentIdx;
+				accessIdxMap.put(vi.name + InternalInformation.REG_POSTFIX, accessIndex);
+				currentIdx += size;
+			}
+		}
+		return currentIdx;
+	}
+
+	/**
+	 * Marks the storage of all scalar 1-bit variables as packed, as long as
+	 * no internal accesses them with a dynamic or non-zero bit index
+	 */
+	private void findPacked(ExecutableModel model) {
+		for (final Entry<String, Integer> e : accessIdxMap.entrySet()) {
+			final VariableInformation vi = model.variables[varIdxMap.get(stripReg(e.getKey()))];
+			packed[e.getValue()] = (vi.width == 1) && (vi.dimensions.length == 0);
+		}
+		for (final InternalInformation ii : model.internals) {
+			final boolean fullAccess = (ii.bitStart == InternalInformation.undefinedBit) && (ii.bitEnd == InternalInformation.undefinedBit);
+			final boolean firstBit = (ii.bitStart == 0) && (ii.bitEnd == 0);
+			if (!fullAccess && !firstBit) {
+				packed[accessIdxMap.get(ii.baseName(false, true))] = false;
+			}
+		}
+	}
+
+	private static String stripReg(String name) {
+		if (name.endsWith(InternalInformation.REG_POSTFIX))
+			return name.substring(0, name.length() - InternalInformation.REG_POSTFIX.length());
+		return name;
+	}
+
+	private void createAccesses(ExecutableModel model) {
+		for (int i = 0; i < model.variables.length; i++) {
+			final VariableInformation vi = model.variables[i];
+			full[i] = new LaneAccess(new InternalInformation(vi.name, vi), accessIdxMap.get(vi.name), false);
+		}
+	}
+
+	private void createInternals(ExecutableModel model) {
+		for (int i = 0; i < model.internals.length; i++) {
+			final InternalInformation ii = model.internals[i];
+			final String baseName = ii.baseName(false, true);
+			final Integer accessIndex = accessIdxMap.get(baseName);
+			if (accessIndex == null)
+				throw new IllegalArgumentException("No idx for:" + baseName);
+			internals[i] = new LaneAccess(ii, accessIndex, false);
+			internals_prev[i] = new LaneAccess(ii, accessIndex, true);
+		}
+		for (final LaneAccess ea : internals) {
+			if (ea.ii.isShadowReg) {
+				final String baseName = ea.ii.baseName(false, false);
+				final Integer idx = accessIdxMap.get(baseName);
+				if (idx != null) {
+					ea.targetAccessIndex = idx;
+				} else {
+					ea.targetAccessIndex = ea.accessIndex;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues the copy of a shadow register to its target for a lane
+	 */
+	public void addRegUpdate(int lane, int shadowAccessIdx, int accessIdx) {
+		int[] queue = regQueue[lane];
+		final int size = regQueueSize[lane];
+		if ((size + 2) > queue.length) {
+			queue = Arrays.copyOf(queue, queue.length * 2);
+			regQueue[lane] = queue;
+		}
+		queue[size] = shadowAccessIdx;
+		queue[size + 1] = accessIdx;
+		regQueueSize[lane] = size + 2;
+		regUpdated[lane] = true;
+	}
+
+	@Override
+	public void run() {
+		this.deltaCycle++;
+		int epsCycle = 0;
+		Arrays.fill(laneActive, true);
+		boolean anyActive;
+		do {
+			epsCycle++;
+			for (final LaneFrame ef : frames) {
+				ef.execute(deltaCycle, epsCycle, laneActive);
+			}
+			anyActive = false;
+			for (int lane = 0; lane < lanes; lane++) {
+				if (!laneActive[lane]) {
+					continue;
+				}
+				final int[] queue = regQueue[lane];
+				final int size = regQueueSize[lane];
+				for (int i = 0; i < size; i += 2) {
+					final int shadow = queue[i];
+					final int target = queue[i + 1];
+					if (packed[target]) {
+						final long bit = 1l << lane;
+						bits[target] = (bits[target] & ~bit) | (bits[shadow] & bit);
+					} else {
+						storage[target][lane] = storage[shadow][lane];
+					}
+				}
+				regQueueSize[lane] = 0;
+				laneActive[lane] = regUpdated[lane] && !disabledRegOutputlogic;
+				regUpdated[lane] = false;
+				anyActive |= laneActive[lane];
+			}
+		} while (anyActive);
+		for (int i = 0; i < storage.length; i++) {
+			if (packed[i]) {
+				bits_prev[i] = bits[i];
+			} else {
+				System.arraycopy(storage[i], 0, storage_prev[i], 0, lanes);
+			}
+		}
+	}
+
+	/**
+	 * Sets the input of a single lane
+	 */
+	public void setLaneInput(int lane, int idx, long value, int... arrayIdx) {
+		final LaneAccess acc = full[idx];
+		if (arrayIdx != null) {
+			acc.setOffset(lane, arrayIdx);
+		}
+		acc.setDataLong(lane, value, deltaCycle, 0);
+	}
+
+	/**
+	 * Returns the output of a single lane
+	 */
+	public long getLaneOutputLong(int lane, int idx, int... arrayIdx) {
+		final LaneAccess acc = full[idx];
+		if (arrayIdx != null) {
+			acc.setOffset(lane, arrayIdx);
+		}
+		return acc.getDataLong(lane);
+	}
+
+	/**
+	 * Sets the input of all lanes
+	 */
+	@Override
+	public void setInput(String name, long value, int... arrayIdx) {
+		setInput(getIndex(name), value, arrayIdx);
+	}
+
+	/**
+	 * Sets the input of all lanes
+	 */
+	@Override
+	public void setInput(int idx, long value, int... arrayIdx) {
+		for (int lane = 0; lane < lanes; lane++) {
+			setLaneInput(lane, idx, value, arrayIdx);
+		}
+	}
+
+	@Override
+	public int getIndex(String name) {
+		final Integer integer = varIdxMap.get(name);
+		if (integer == null)
+			throw new IllegalArgumentException("Could not find a variable named:" + name + " valid names are:" + accessIdxMap.keySet());
+		return integer;
+	}
+
+	@Override
+	public String getName(int idx) {
+		return varInfo[idx].name;
+	}
+
+	/**
+	 * Returns the output of lane 0
+	 */
+	@Override
+	public long getOutputLong(String name, int... arrayIdx) {
+		return getLaneOutputLong(0, getIndex(name), arrayIdx);
+	}
+
+	/**
+	 * Returns the output of lane 0
+	 */
+	@Override
+	public long getOutputLong(int idx, int... arrayIdx) {
+		return getLaneOutputLong(0, idx, arrayIdx);
+	}
+
+	@Override
+	public long getDeltaCycle() {
+		return deltaCycle;
+	}
+
+	@Override
+	public void initConstants() {
+	}
+
+	@Override
+	public void close() throws Exception {
+	}
+
+	@Override
+	public void setFeature(Feature feature, Object value) {
+		switch (feature) {
+		case disableOutputRegs:
+			disabledRegOutputlogic = (boolean) value;
+			break;
+		case disableEdges:
+			for (final LaneFrame frame : frames) {
+				frame.disableEdge = (boolean) value;
+			}
+			break;
+		default:
+			if (feature.isEnabled(value))
+				throw new IllegalArgumentException("Feature not supported");
+		}
+	}
+
+	@Override
+	public VariableInformation[] getVariableInformation() {
+		return varInfo;
+	}
+
+	@Override
+	public String toString() {
+		try (final Formatter f = new Formatter()) {
+			f.format("Dump of deltaCycle %d%n", deltaCycle);
+			for (final LaneAccess la : internals) {
+				f.format("\t%20s:", la.ii.fullName);
+				for (int lane = 0; lane < lanes; lane++) {
+					f.format(" 0x%04x", la.getDataLong(lane));
+				}
+				f.format("%n");
+			}
+			return f.toString();
+		}
+	}
+}
@@ -265,6 +265,9 @@ public class NativeRunner implements IHDLInterpreter {
 				send("dr", "0");
 			}
 			break;
+		default:
+			if (feature.isEnabled(value))
+				throw new IllegalArgumentException("Feature not supported");
 		}
 	}
 
@@ -0,0 +1,317 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2014 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.frames.FastFrame;
+
+/**
+ * Executes the frames of a {@link FastSimpleInterpreter} in parallel. The
+ * frames are split into segments of the same {@link Frame#scheduleStage}.
+ * Within a segment, frames that access the same storage (one of them writing
+ * it), or that share an internal that has its array or bit index changed at
+ * runtime, are put into the same group. The frames of a group are executed in
+ * their original order, the groups of a segment run in parallel. Register
+ * updates are collected in the original frame order, so the result is the
+ * same as a sequential execution.
+ */
+public class ParallelScheduler implements AutoCloseable {
+
+	/**
+	 * Executes a number of groups one after another
+	 */
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] frameIds;
+
+		public Chunk(int[] frameIds) {
+			this.frameIds = frameIds;
+		}
+
+		@Override
+		protected void compute() {
+			for (final int id : frameIds) {
+				executed[id] = !fir.folded[id] && frames[id].execute(deltaCycle, epsCycle);
+			}
+		}
+	}
+
+	private class Segment extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int start, end;
+		private final Chunk[] chunks;
+
+		public Segment(int start, int end, Chunk[] chunks) {
+			this.start = start;
+			this.end = end;
+			this.chunks = chunks;
+		}
+
+		@Override
+		protected void compute() {
+			for (final Chunk chunk : chunks) {
+				chunk.reinitialize();
+			}
+			invokeAll(chunks);
+		}
+	}
+
+	/**
+	 * Segments with less instructions than this are executed on the calling
+	 * thread
+	 */
+	private static final int MIN_PARALLEL_WORK = 256;
+
+	private final FastSimpleInterpreter fir;
+	private final FastFrame[] frames;
+	private final boolean[] executed;
+	private final Segment[] segments;
+	private final ForkJoinPool pool;
+	private int deltaCycle, epsCycle;
+
+	public ParallelScheduler(FastSimpleInterpreter fir, Frame[] modelFrames, FastFrame[] frames, int threads) {
+		this.fir = fir;
+		this.frames = frames;
+		this.executed = new boolean[frames.length];
+		this.pool = new ForkJoinPool(threads);
+		final List<Segment> segments = new ArrayList<>();
+		int start = 0;
+		for (int i = 1; i <= modelFrames.length; i++) {
+			if ((i == modelFrames.length) || (modelFrames[i].scheduleStage != modelFrames[start].scheduleStage) || (modelFrames[i].scheduleStage == -1)) {
+				segments.add(createSegment(fir, modelFrames, start, i, threads));
+				start = i;
+			}
+		}
+		this.segments = segments.toArray(new Segment[segments.size()]);
+	}
+
+	private Segment createSegment(FastSimpleInterpreter fir, Frame[] modelFrames, int start, int end, int threads) {
+		final int size = end - start;
+		final int[] parent = new int[size];
+		for (int i = 0; i < size; i++) {
+			parent[i] = i;
+		}
+		final Map<Integer, Integer> writer = new LinkedHashMap<>();
+		final Map<Integer, List<Integer>> readers = new LinkedHashMap<>();
+		final Map<Integer, Integer> dynamicUser = new LinkedHashMap<>();
+		final Map<Integer, Integer> internalUser = new LinkedHashMap<>();
+		int work = 0;
+		for (int i = 0; i < size; i++) {
+			final Frame f = modelFrames[start + i];
+			work += f.instructions.length;
+			final Set<Integer> read = new LinkedHashSet<>();
+			final Set<Integer> written = new LinkedHashSet<>();
+			final Set<Integer> used = new LinkedHashSet<>();
+			boolean dynamic = false;
+			for (final int dep : f.internalDependencies) {
+				fir.addRange(read, dep);
+				used.add(dep);
+			}
+			for (final int outputId : f.outputIds) {
+				fir.addRange(written, outputId);
+				used.add(outputId);
+			}
+			for (final FastInstruction fi : f.instructions) {
+				switch (fi.inst) {
+				case loadInternal:
+				case posPredicate:
+				case negPredicate:
+				case isFallingEdge:
+				case isRisingEdge:
+					fir.addRange(read, fi.arg1);
+					used.add(fi.arg1);
+					if (fir.internals[fi.arg1].isDynamicBit) {
+						dynamic = true;
+					}
+					break;
+				case writeInternal:
+					fir.addRange(written, fi.arg1);
+					used.add(fi.arg1);
+					dynamic = true;
+					break;
+				case pushAddIndex:
+					dynamic = true;
+					break;
+				default:
+				}
+			}
+			for (final Integer idx : read) {
+				final Integer w = writer.get(idx);
+				if (w != null) {
+					union(parent, w, i);
+				} else {
+					List<Integer> list = readers.get(idx);
+					if (list == null) {
+						list = new ArrayList<>();
+						readers.put(idx, list);
+					}
+					list.add(i);
+				}
+			}
+			for (final Integer idx : written) {
+				final Integer w = writer.get(idx);
+				if (w != null) {
+					union(parent, w, i);
+				}
+				final List<Integer> list = readers.remove(idx);
+				if (list != null) {
+					for (final Integer r : list) {
+						union(parent, r, i);
+					}
+				}
+				writer.put(idx, i);
+			}
+			// Internals hold the current array and bit offset, so they can
+			// not be shared with frames that change them
+			for (final Integer internal : used) {
+				final Integer d = dynamicUser.get(internal);
+				if (d != null) {
+					union(parent, d, i);
+				}
+				if (dynamic) {
+					final Integer u = internalUser.get(internal);
+					if (u != null) {
+						union(parent, u, i);
+					}
+					dynamicUser.put(internal, i);
+				}
+				internalUser.put(internal, i);
+			}
+		}
+		final Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++) {
+			final int root = find(parent, i);
+			List<Integer> list = groups.get(root);
+			if (list == null) {
+				list = new ArrayList<>();
+				groups.put(root, list);
+			}
+			list.add(start + i);
+		}
+		if ((groups.size() < 2) || (work < MIN_PARALLEL_WORK))
+			return new Segment(start, end, null);
+		// Combine the groups into a few chunks of roughly the same amount of
+		// instructions
+		final int chunkCount = Math.min(groups.size(), threads * 4);
+		final List<List<Integer>> chunkFrames = new ArrayList<>();
+		final int[] chunkWork = new int[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			chunkFrames.add(new ArrayList<Integer>());
+		}
+		for (final List<Integer> group : groups.values()) {
+			int min = 0;
+			for (int i = 1; i < chunkCount; i++) {
+				if (chunkWork[i] < chunkWork[min]) {
+					min = i;
+				}
+			}
+			for (final Integer id : group) {
+				chunkWork[min] += modelFrames[id].instructions.length;
+			}
+			chunkFrames.get(min).addAll(group);
+		}
+		final Chunk[] chunks = new Chunk[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			final List<Integer> ids = chunkFrames.get(i);
+			final int[] idArray = new int[ids.size()];
+			for (int j = 0; j < idArray.length; j++) {
+				idArray[j] = ids.get(j);
+			}
+			// Within a chunk the frames of a group have to keep their order
+			Arrays.sort(idArray);
+			chunks[i] = new Chunk(idArray);
+		}
+		return new Segment(start, end, chunks);
+	}
+
+	private static int find(int[] parent, int i) {
+		int root = i;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		while (parent[i] != root) {
+			final int next = parent[i];
+			parent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	private static void union(int[] parent, int a, int b) {
+		final int ra = find(parent, a);
+		final int rb = find(parent, b);
+		if (ra != rb) {
+			parent[Math.max(ra, rb)] = Math.min(ra, rb);
+		}
+	}
+
+	/**
+	 * Executes all frames once. The register updates of all executed frames
+	 * are queued in frame order.
+	 *
+	 * @return <code>true</code> if at least one register was updated
+	 */
+	public boolean execute(int deltaCycle, int epsCycle) {
+		this.deltaCycle = deltaCycle;
+		this.epsCycle = epsCycle;
+		boolean regUpdated = false;
+		for (final Segment segment : segments) {
+			if (segment.chunks == null) {
+				for (int i = segment.start; i < segment.end; i++) {
+					executed[i] = !fir.folded[i] && frames[i].execute(deltaCycle, epsCycle);
+				}
+			} else {
+				segment.reinitialize();
+				pool.invoke(segment);
+			}
+			for (int i = segment.start; i < segment.end; i++) {
+				if (executed[i] && fir.queueRegUpdates(frames[i])) {
+					regUpdated = true;
+				}
+				if ((fir.tiered != null) && !fir.folded[i]) {
+					fir.tiered.executed(i);
+				}
+			}
+		}
+		return regUpdated;
+	}
+
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+}
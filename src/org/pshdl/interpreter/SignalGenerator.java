@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2014 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter;
+
+/**
+ * Describes the value of an input for each delta cycle. This allows an
+ * interpreter to drive clocks and resets by itself while it runs many delta
+ * cycles in {@link IHDLInterpreter#run(int, SignalGenerator...)}.
+ */
+public abstract class SignalGenerator {
+
+	/**
+	 * An empty array index, which selects the whole scalar variable without
+	 * allocating a varargs array
+	 */
+	private static final int[] NO_INDEX = new int[0];
+
+	/**
+	 * The index of the variable that is driven, see
+	 * {@link IHDLInterpreter#getIndex(String)}
+	 */
+	public final int varIdx;
+
+	protected SignalGenerator(int varIdx) {
+		this.varIdx = varIdx;
+	}
+
+	/**
+	 * @param deltaCycle
+	 *            the delta cycle that is about to be executed
+	 * @return the value of the input during that delta cycle
+	 */
+	public abstract long valueAt(long deltaCycle);
+
+	/**
+	 * Creates a clock that is 0 for the first half of its period and 1 for
+	 * the second half.
+	 *
+	 * @param varIdx
+	 *            the index of the clock
+	 * @param period
+	 *            the number of delta cycles of one clock period, at least 2
+	 * @param phase
+	 *            the number of delta cycles the clock is ahead
+	 */
+	public static SignalGenerator clock(int varIdx, final int period, final int phase) {
+		if (period < 2)
+			throw new IllegalArgumentException("The period of a clock has to be at least 2, but was:" + period);
+		return new SignalGenerator(varIdx) {
+			@Override
+			public long valueAt(long deltaCycle) {
+				final long pos = (deltaCycle + phase) % period;
+				return pos < (period / 2) ? 0 : 1;
+			}
+		};
+	}
+
+	/**
+	 * Creates a reset that is active during a range of delta cycles.
+	 *
+	 * @param varIdx
+	 *            the index of the reset
+	 * @param activeHigh
+	 *            if <code>true</code> the reset is 1 while it is active, 0
+	 *            otherwise
+	 * @param from
+	 *            the first delta cycle in which the reset is active
+	 * @param until
+	 *            the first delta cycle in which the reset is no longer active
+	 */
+	public static SignalGenerator reset(int varIdx, boolean activeHigh, final long from, final long until) {
+		final long active = activeHigh ? 1 : 0;
+		return new SignalGenerator(varIdx) {
+			@Override
+			public long valueAt(long deltaCycle) {
+				if ((deltaCycle >= from) && (deltaCycle < until))
+					return active;
+				return active ^ 1;
+			}
+		};
+	}
+
+	/**
+	 * The implementation of {@link IHDLInterpreter#runClocks(int, int)} for
+	 * interpreters that can only be driven through
+	 * {@link IHDLInterpreter#setInput(int, long, int...)}
+	 */
+	public static void runClocks(IHDLInterpreter interpreter, int clockIdx, int cycles) {
+		for (int i = 0; i < cycles; i++) {
+			interpreter.setInput(clockIdx, 1, NO_INDEX);
+			interpreter.run();
+			interpreter.setInput(clockIdx, 0, NO_INDEX);
+			interpreter.run();
+		}
+	}
+
+	/**
+	 * The implementation of {@link IHDLInterpreter#run(int, SignalGenerator...)}
+	 * for interpreters that can only be driven through
+	 * {@link IHDLInterpreter#setInput(int, long, int...)}
+	 */
+	public static void run(IHDLInterpreter interpreter, int deltaCycles, SignalGenerator... generators) {
+		long deltaCycle = interpreter.getDeltaCycle();
+		for (int i = 0; i < deltaCycles; i++) {
+			deltaCycle++;
+			for (final SignalGenerator generator : generators) {
+				interpreter.setInput(generator.varIdx, generator.valueAt(deltaCycle), NO_INDEX);
+			}
+			interpreter.run();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2014 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter;
+
+import org.pshdl.interpreter.VariableInformation.Type;
+
+/**
+ * A variable, or one entry of an array variable, that has been resolved to
+ * its storage index once. Reading and writing through a handle does not
+ * involve any lookup and does not change shared state like the offset of an
+ * access, so a handle can be used by a monitor next to the simulation.
+ * Handles are created by {@link FastSimpleInterpreter#getHandle(int, int...)}
+ * and {@link HDLFrameInterpreter#getHandle(int, int...)}.
+ */
+public final class SignalHandle {
+	/**
+	 * The index of the variable, see {@link IHDLInterpreter#getIndex(String)}
+	 */
+	public final int varIdx;
+	/**
+	 * The index into the storage of the interpreter
+	 */
+	public final int storageIdx;
+	public final long mask;
+	/**
+	 * The shift that sign extends the value of a signed variable, 0 for
+	 * unsigned variables
+	 */
+	public final int signShift;
+
+	public SignalHandle(int varIdx, VariableInformation info, int storageIdx) {
+		if (info.width > 64)
+			throw new IllegalArgumentException("Unsupported bitWidth:" + info.width);
+		this.varIdx = varIdx;
+		this.storageIdx = storageIdx;
+		if (info.width == 64) {
+			this.mask = 0xFFFFFFFFFFFFFFFFL;
+		} else {
+			this.mask = (1l << info.width) - 1;
+		}
+		if (info.type == Type.INT) {
+			this.signShift = 64 - info.width;
+		} else {
+			this.signShift = 0;
+		}
+	}
+
+	/**
+	 * @return the value of the signal in the given storage
+	 */
+	public long read(long[] storage) {
+		return ((storage[storageIdx] & mask) << signShift) >> signShift;
+	}
+
+	@Override
+	public String toString() {
+		return "SignalHandle [varIdx=" + varIdx + ", storageIdx=" + storageIdx + ", mask=" + Long.toHexString(mask) + ", signShift=" + signShift + "]";
+	}
+}
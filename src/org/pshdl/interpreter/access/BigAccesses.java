@@ -30,46 +30,116 @@ import java.math.BigInteger;
 
 import org.pshdl.interpreter.HDLFrameInterpreter;
 import org.pshdl.interpreter.InternalInformation;
+import org.pshdl.interpreter.VariableInformation.Type;
+import org.pshdl.interpreter.utils.WideMath;
 
 public class BigAccesses {
-	private static final class DirectBigAccess extends EncapsulatedAccess {
+	private static abstract class WideAccess extends EncapsulatedAccess {
 
-		private final HDLFrameInterpreter hdlFrameInterpreter;
+		protected final HDLFrameInterpreter hdlFrameInterpreter;
+		/**
+		 * Number of limbs of the variable
+		 */
+		protected final int limbs;
+		/**
+		 * Used to convert long and BigInteger values
+		 */
+		protected final long[] scratch;
+		protected final long[] single = new long[1];
 
-		public DirectBigAccess(HDLFrameInterpreter hdlFrameInterpreter, InternalInformation name, int accessIndex, boolean prev) {
+		public WideAccess(HDLFrameInterpreter hdlFrameInterpreter, InternalInformation name, int accessIndex, boolean prev) {
 			super(hdlFrameInterpreter, name, accessIndex, prev);
 			this.hdlFrameInterpreter = hdlFrameInterpreter;
+			this.limbs = WideMath.limbs(name.info.width);
+			this.scratch = new long[limbs + 1];
 		}
 
-		@Override
-		public void setDataBig(BigInteger data, int deltaCycle, int epsCycle) {
-			final int accessIndex = getAccessIndex();
-			final BigInteger val = this.hdlFrameInterpreter.big_storage[accessIndex];
-			this.hdlFrameInterpreter.big_storage[accessIndex] = data;
+		protected long[] data() {
+			if (prev)
+				return hdlFrameInterpreter.wide_storage_prev;
+			return hdlFrameInterpreter.wide_storage;
+		}
+
+		protected int dataOffset() {
+			return hdlFrameInterpreter.wideOffset[getAccessIndex()];
+		}
+
+		protected void written(boolean changed, int deltaCycle, int epsCycle) {
 			if (ii.isPred) {
 				setLastUpdate(deltaCycle, epsCycle);
 			}
-			if (!val.equals(data)) {
+			if (changed) {
+				hdlFrameInterpreter.markBigChanged(getAccessIndex());
 				generateRegupdate();
 			}
 		}
 
 		@Override
-		public void setDataLong(long dataIn, int deltaCycle, int epsCycle) {
-			final BigInteger data = BigInteger.valueOf(dataIn);
-			setDataBig(data, deltaCycle, epsCycle);
+		public void setDataLong(long data, int deltaCycle, int epsCycle) {
+			single[0] = data;
+			setDataWide(single, 0, 1, deltaCycle, epsCycle);
+		}
+
+		@Override
+		public void setDataBig(BigInteger data, int deltaCycle, int epsCycle) {
+			WideMath.fromBig(data, scratch, 0, scratch.length);
+			setDataWide(scratch, 0, scratch.length, deltaCycle, epsCycle);
 		}
 
 		@Override
 		public BigInteger getDataBig() {
-			if (prev)
-				return this.hdlFrameInterpreter.big_storage_prev[getAccessIndex()];
-			return this.hdlFrameInterpreter.big_storage[getAccessIndex()];
+			getDataWide(scratch, 0, scratch.length);
+			return WideMath.toBig(scratch, 0, scratch.length);
+		}
+	}
+
+	private static final class DirectBigAccess extends WideAccess {
+
+		private final int width;
+		private final boolean signed;
+		private final long topMask;
+
+		public DirectBigAccess(HDLFrameInterpreter hdlFrameInterpreter, InternalInformation name, int accessIndex, boolean prev) {
+			super(hdlFrameInterpreter, name, accessIndex, prev);
+			this.width = name.info.width;
+			this.signed = name.info.type == Type.INT;
+			this.topMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+		}
+
+		@Override
+		public void setDataWide(long[] src, int off, int n, int deltaCycle, int epsCycle) {
+			final long[] data = hdlFrameInterpreter.wide_storage;
+			final int dataOff = dataOffset();
+			final long fill = src[(off + n) - 1] >> 63;
+			boolean changed = false;
+			for (int i = 0; i < limbs; i++) {
+				long v = i < n ? src[off + i] : fill;
+				if (i == (limbs - 1)) {
+					v &= topMask;
+				}
+				if (data[dataOff + i] != v) {
+					data[dataOff + i] = v;
+					changed = true;
+				}
+			}
+			written(changed, deltaCycle, epsCycle);
+		}
+
+		@Override
+		public void getDataWide(long[] dst, int off, int n) {
+			final int copy = Math.min(limbs, n);
+			System.arraycopy(data(), dataOffset(), dst, off, copy);
+			for (int i = copy; i < n; i++) {
+				dst[off + i] = 0;
+			}
+			if (signed) {
+				WideMath.signExtend(dst, off, n, width);
+			}
 		}
 
 		@Override
 		public long getDataLong() {
-			return getDataBig().longValue();
+			return data()[dataOffset()];
 		}
 
 		@Override
@@ -85,54 +155,53 @@ public class BigAccesses {
 
 	}
 
-	private static final class SingleBigAccess extends EncapsulatedAccess {
+	private static final class SingleBigAccess extends WideAccess {
 
-		private final HDLFrameInterpreter hdlFrameInterpreter;
 		private int bit;
 		private final boolean isDynamicBit;
 
 		public SingleBigAccess(HDLFrameInterpreter hdlFrameInterpreter, InternalInformation name, int accessIndex, boolean prev) {
 			super(hdlFrameInterpreter, name, accessIndex, prev);
-			this.hdlFrameInterpreter = hdlFrameInterpreter;
 			this.bit = name.bitEnd == InternalInformation.undefinedBit ? 0 : name.bitEnd;
 			isDynamicBit = name.bitEnd == -1;
 		}
 
 		@Override
-		public void setDataBig(BigInteger data, int deltaCycle, int epsCycle) {
-			final int accessIndex = getAccessIndex();
-			final BigInteger val = this.hdlFrameInterpreter.big_storage[accessIndex];
-			BigInteger newVal;
-			if (BigInteger.ZERO.equals(data.and(BigInteger.ONE))) {
-				newVal = val.clearBit(bit);
-			} else {
-				newVal = val.setBit(bit);
-			}
-			this.hdlFrameInterpreter.big_storage[accessIndex] = newVal;
-			if (ii.isPred) {
-				setLastUpdate(deltaCycle, epsCycle);
-			}
-			if (!val.equals(newVal)) {
-				generateRegupdate();
+		public void setDataWide(long[] src, int off, int n, int deltaCycle, int epsCycle) {
+			boolean changed = false;
+			final int limb = bit >>> 6;
+			if (limb < limbs) {
+				final long[] data = hdlFrameInterpreter.wide_storage;
+				final int idx = dataOffset() + limb;
+				final long val = data[idx];
+				final long newVal;
+				if ((src[off] & 1) == 0) {
+					newVal = val & ~(1L << (bit & 63));
+				} else {
+					newVal = val | (1L << (bit & 63));
+				}
+				data[idx] = newVal;
+				changed = val != newVal;
 			}
+			written(changed, deltaCycle, epsCycle);
 		}
 
 		@Override
-		public void setDataLong(long dataIn, int deltaCycle, int epsCycle) {
-			final BigInteger data = BigInteger.valueOf(dataIn);
-			setDataBig(data, deltaCycle, epsCycle);
+		public void getDataWide(long[] dst, int off, int n) {
+			WideMath.setLong(dst, off, n, getDataLong());
 		}
 
 		@Override
-		public BigInteger getDataBig() {
-			if (prev)
-				return this.hdlFrameInterpreter.big_storage_prev[getAccessIndex()].testBit(bit) ? BigInteger.ONE : BigInteger.ZERO;
-			return this.hdlFrameInterpreter.big_storage[getAccessIndex()].testBit(bit) ? BigInteger.ONE : BigInteger.ZERO;
+		public long getDataLong() {
+			final int limb = bit >>> 6;
+			if (limb >= limbs)
+				return 0;
+			return (data()[dataOffset() + limb] >>> (bit & 63)) & 1;
 		}
 
 		@Override
-		public long getDataLong() {
-			return getDataBig().longValue();
+		public BigInteger getDataBig() {
+			return getDataLong() == 0 ? BigInteger.ZERO : BigInteger.ONE;
 		}
 
 		@Override
@@ -150,58 +219,91 @@ public class BigAccesses {
 		}
 	}
 
-	private static final class RangeBigAccess extends EncapsulatedAccess {
-		private final HDLFrameInterpreter hdlFrameInterpreter;
-		private final BigInteger writeMask;
-		private final BigInteger mask;
+	private static final class RangeBigAccess extends WideAccess {
+		private final int actualWidth;
 		private int shift;
 		private final boolean isDynamicBit;
 
 		public RangeBigAccess(HDLFrameInterpreter hdlFrameInterpreter, InternalInformation name, int accessIndex, boolean prev) {
 			super(hdlFrameInterpreter, name, accessIndex, prev);
-			this.hdlFrameInterpreter = hdlFrameInterpreter;
-			this.mask = BigInteger.ONE.shiftLeft(name.actualWidth).subtract(BigInteger.ONE);
+			this.actualWidth = name.actualWidth;
 			this.shift = name.bitEnd;
 			this.isDynamicBit = name.bitEnd == -1;
-			this.writeMask = BigInteger.ZERO.setBit(name.actualWidth);
 		}
 
-		@Override
-		public void setDataBig(BigInteger data, int deltaCycle, int epsCycle) {
-			final int accessIndex = getAccessIndex();
-			final BigInteger initial = this.hdlFrameInterpreter.big_storage[accessIndex];
-			final BigInteger current = initial.and(writeMask);
-			final BigInteger newVal = current.or(data.and(mask).shiftLeft(shift));
-			this.hdlFrameInterpreter.big_storage[accessIndex] = newVal;
-			if (ii.isPred) {
-				setLastUpdate(deltaCycle, epsCycle);
+		/**
+		 * Returns the 64 bits of the variable that start at pos
+		 */
+		private long extract(long[] data, int dataOff, int pos) {
+			final int limb = pos >>> 6;
+			final int bit = pos & 63;
+			if (limb >= limbs)
+				return 0;
+			long res = data[dataOff + limb] >>> bit;
+			if ((bit != 0) && ((limb + 1) < limbs)) {
+				res |= data[dataOff + limb + 1] << (64 - bit);
 			}
-			if (!initial.equals(newVal)) {
-				generateRegupdate();
+			return res;
+		}
+
+		/**
+		 * Replaces the w bits of the variable that start at pos
+		 *
+		 * @return <code>true</code> if that changed the value
+		 */
+		private boolean deposit(long[] data, int dataOff, int pos, int w, long value) {
+			final int limb = pos >>> 6;
+			final int bit = pos & 63;
+			if (limb >= limbs)
+				return false;
+			final long mask = w == 64 ? -1L : (1L << w) - 1;
+			final long val = data[dataOff + limb];
+			final long newVal = (val & ~(mask << bit)) | ((value & mask) << bit);
+			data[dataOff + limb] = newVal;
+			boolean changed = val != newVal;
+			if (((bit + w) > 64) && ((limb + 1) < limbs)) {
+				final long upper = data[dataOff + limb + 1];
+				final long newUpper = (upper & ~(mask >>> (64 - bit))) | ((value & mask) >>> (64 - bit));
+				data[dataOff + limb + 1] = newUpper;
+				changed |= upper != newUpper;
 			}
+			return changed;
 		}
 
 		@Override
-		public void setDataLong(long dataIn, int deltaCycle, int epsCycle) {
-			final BigInteger data = BigInteger.valueOf(dataIn);
-			setDataBig(data, deltaCycle, epsCycle);
+		public void setDataWide(long[] src, int off, int n, int deltaCycle, int epsCycle) {
+			final long[] data = hdlFrameInterpreter.wide_storage;
+			final int dataOff = dataOffset();
+			final long fill = src[(off + n) - 1] >> 63;
+			boolean changed = false;
+			for (int i = 0; (i * 64) < actualWidth; i++) {
+				final long v = i < n ? src[off + i] : fill;
+				changed |= deposit(data, dataOff, shift + (i * 64), Math.min(64, actualWidth - (i * 64)), v);
+			}
+			written(changed, deltaCycle, epsCycle);
 		}
 
 		@Override
-		public BigInteger getDataBig() {
-			if (prev)
-				return (this.hdlFrameInterpreter.big_storage_prev[getAccessIndex()].shiftRight(shift)).and(mask);
-			return (this.hdlFrameInterpreter.big_storage[getAccessIndex()].shiftRight(shift)).and(mask);
+		public void getDataWide(long[] dst, int off, int n) {
+			final long[] data = data();
+			final int dataOff = dataOffset();
+			for (int i = 0; i < n; i++) {
+				dst[off + i] = (i * 64) < actualWidth ? extract(data, dataOff, shift + (i * 64)) : 0;
+			}
+			WideMath.maskLow(dst, off, n, actualWidth);
 		}
 
 		@Override
 		public long getDataLong() {
-			return getDataBig().longValue();
+			final long res = extract(data(), dataOffset(), shift);
+			if (actualWidth >= 64)
+				return res;
+			return res & ((1L << actualWidth) - 1);
 		}
 
 		@Override
 		public String toString() {
-			return "RangeBigAccess [writeMask=" + writeMask + ", mask=" + mask + ", shift=" + shift + "]";
+			return "RangeBigAccess [actualWidth=" + actualWidth + ", shift=" + shift + "]";
 		}
 
 		@Override
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.access;
+
+import java.util.Arrays;
+
+import org.pshdl.interpreter.IHDLInterpreter;
+
+/**
+ * The implementations of the bulk methods of {@link IHDLInterpreter} for
+ * interpreters that can only be accessed one value at a time. Arrays are
+ * accessed in row major order, that is the last index changes fastest.
+ */
+public class BulkAccesses {
+
+	/**
+	 * An empty array index, which selects the whole scalar variable without
+	 * allocating a varargs array
+	 */
+	private static final int[] NO_INDEX = new int[0];
+
+	/**
+	 * The array indices that {@link #getArray(IHDLInterpreter, int, long[])}
+	 * and {@link #setArray(IHDLInterpreter, int, long[])} iterate with, by
+	 * number of dimensions, so that they don't allocate on every call
+	 */
+	private static final ThreadLocal<int[][]> ARRAY_INDICES = new ThreadLocal<int[][]>() {
+		@Override
+		protected int[][] initialValue() {
+			return new int[4][];
+		}
+	};
+
+	public static void setInputs(IHDLInterpreter interpreter, int[] idx, long[] values) {
+		for (int i = 0; i < idx.length; i++) {
+			interpreter.setInput(idx[i], values[i], NO_INDEX);
+		}
+	}
+
+	public static void readOutputs(IHDLInterpreter interpreter, int[] idx, long[] dst) {
+		for (int i = 0; i < idx.length; i++) {
+			dst[i] = interpreter.getOutputLong(idx[i], NO_INDEX);
+		}
+	}
+
+	public static void getArray(IHDLInterpreter interpreter, int idx, long[] dst) {
+		final int[] dims = interpreter.getVariableInformation()[idx].dimensions;
+		final int size = checkSize(dims, dst.length);
+		final int[] arrayIdx = arrayIndex(dims.length);
+		for (int i = 0; i < size; i++) {
+			dst[i] = interpreter.getOutputLong(idx, arrayIdx);
+			increment(arrayIdx, dims);
+		}
+	}
+
+	public static void setArray(IHDLInterpreter interpreter, int idx, long[] values) {
+		final int[] dims = interpreter.getVariableInformation()[idx].dimensions;
+		final int size = checkSize(dims, values.length);
+		final int[] arrayIdx = arrayIndex(dims.length);
+		for (int i = 0; i < size; i++) {
+			interpreter.setInput(idx, values[i], arrayIdx);
+			increment(arrayIdx, dims);
+		}
+	}
+
+	/**
+	 * @return the number of entries of an array with the given dimensions
+	 * @throws IllegalArgumentException
+	 *             if the array does not fit into the given length
+	 */
+	public static int checkSize(int[] dims, int length) {
+		int size = 1;
+		for (final int d : dims) {
+			size *= d;
+		}
+		if (length < size)
+			throw new IllegalArgumentException("The array has " + size + " entries, but only " + length + " fit");
+		return size;
+	}
+
+	/**
+	 * @return an array index of the given number of dimensions that points to
+	 *         the first entry
+	 */
+	private static int[] arrayIndex(int dimensions) {
+		int[][] indices = ARRAY_INDICES.get();
+		if (dimensions >= indices.length) {
+			indices = Arrays.copyOf(indices, dimensions + 1);
+			ARRAY_INDICES.set(indices);
+		}
+		final int[] res = indices[dimensions];
+		if (res == null) {
+			indices[dimensions] = new int[dimensions];
+			return indices[dimensions];
+		}
+		Arrays.fill(res, 0);
+		return res;
+	}
+
+	private static void increment(int[] arrayIdx, int[] dims) {
+		for (int d = dims.length - 1; d >= 0; d--) {
+			if (++arrayIdx[d] < dims[d])
+				return;
+			arrayIdx[d] = 0;
+		}
+	}
+}
@@ -30,6 +30,7 @@ import java.math.BigInteger;
 
 import org.pshdl.interpreter.HDLFrameInterpreter;
 import org.pshdl.interpreter.InternalInformation;
+import org.pshdl.interpreter.utils.WideMath;
 
 public abstract class EncapsulatedAccess {
 	protected final HDLFrameInterpreter intr;
@@ -133,15 +134,21 @@ public abstract class EncapsulatedAccess {
 	}
 
 	public void setOffset(int... off) {
-		offset = 0;
-		if (off.length == 0)
-			return;
+		offset = offsetOf(off);
+	}
+
+	/**
+	 * @return the offset of an array index, without changing {@link #offset}
+	 */
+	public int offsetOf(int... off) {
+		int offset = 0;
 		final int lastIndex = dims.length - 1;
 		int rowSize = 1;
-		for (int i = lastIndex; i >= 0; i--) {
+		for (int i = off.length == 0 ? -1 : lastIndex; i >= 0; i--) {
 			offset += rowSize * off[i];
 			rowSize *= dims[i];
 		}
+		return offset;
 	}
 
 	/**
@@ -161,7 +168,7 @@ public abstract class EncapsulatedAccess {
 
 	public void generateRegupdate() {
 		if (targetAccessIndex != -1) {
-			intr.addRegUpdate(new RegUpdater(accessIndex + offset, targetAccessIndex + offset));
+			intr.addRegUpdate(accessIndex + offset, targetAccessIndex + offset, ii.info.width > 64);
 		}
 	}
 
@@ -177,6 +184,22 @@ public abstract class EncapsulatedAccess {
 
 	public abstract void setDataBig(BigInteger data, int deltaCycle, int epsCycle);
 
+	/**
+	 * Loads the value into n limbs of dst, see {@link WideMath}. The default
+	 * implementation sign extends {@link #getDataLong()}.
+	 */
+	public void getDataWide(long[] dst, int off, int n) {
+		WideMath.setLong(dst, off, n, getDataLong());
+	}
+
+	/**
+	 * Stores the value that is held in n limbs of src, see {@link WideMath}.
+	 * The default implementation only uses the lowest limb.
+	 */
+	public void setDataWide(long[] src, int off, int n, int deltaCycle, int epsCycle) {
+		setDataLong(src[off], deltaCycle, epsCycle);
+	}
+
 	public void fillDataBig(int arrayPos, int[] writeIndex, BigInteger a, int deltaCycle, int epsCycle) {
 		int offset = 0;
 		for (int i = 0; i < (arrayPos + 1); i++) {
@@ -211,6 +234,23 @@ public abstract class EncapsulatedAccess {
 		}
 	}
 
+	public void fillDataWide(int arrayPos, int[] writeIndex, long[] a, int off, int n, int deltaCycle, int epsCycle) {
+		int offset = 0;
+		for (int i = 0; i < (arrayPos + 1); i++) {
+			final int o = writeIndex[i];
+			offset += o * dims[i];
+		}
+		int fill = 1;
+		final int[] dims = ii.info.dimensions;
+		for (int i = arrayPos + 1; i < dims.length; i++) {
+			fill *= dims[i];
+		}
+		for (int i = offset; i < (offset + fill); i++) {
+			this.offset = i;
+			setDataWide(a, off, n, deltaCycle, epsCycle);
+		}
+	}
+
 	abstract public void setBitOffset(int bitOffset);
 
 }
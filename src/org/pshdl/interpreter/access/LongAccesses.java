@@ -95,6 +95,7 @@ public class LongAccesses {
 				setLastUpdate(deltaCycle, epsCycle);
 			}
 			if (newVal != val) {
+				intr.markChanged(accessIndex);
 				generateRegupdate();
 			}
 		}
@@ -110,6 +111,7 @@ public class LongAccesses {
 				setLastUpdate(deltaCycle, epsCycle);
 			}
 			if (newVal != val) {
+				intr.markChanged(accessIndex);
 				generateRegupdate();
 			}
 		}
@@ -98,26 +98,16 @@ public final class BigIntegerFrame extends ExecutableFrame {
 				break;
 			}
 			case cast_int: {
-				final int targetWidth = f.arg1;
-				final int currWidth = f.arg2;
-				if (targetWidth >= currWidth) {
-					// Do nothing
+				// Same semantics as the LongFrame, re-interpret the lower bits
+				// as int and sign extend them
+				final int width = Math.min(f.arg1, f.arg2);
+				if (width <= 0) {
 					stack[++stackPos] = a;
 				} else {
-					final BigInteger mask = BigInteger.ONE.shiftLeft(targetWidth - 1).subtract(BigInteger.ONE);
-					// System.out.println("BigIntegerFrame.execute() cast int<"
-					// + currWidth + "> to int<" + targetWidth +
-					// "> masking with:" + mask.toString(16));
-					BigInteger t = a;
-					t = t.and(mask);
-					if (a.testBit(targetWidth - 1)) { // MSB is set
-						if (t.signum() > 0) {
-							t = t.negate();
-						}
-					} else {
-						if (t.signum() < 0) {
-							t = t.negate();
-						}
+					final BigInteger range = BigInteger.ONE.shiftLeft(width);
+					BigInteger t = a.and(range.subtract(BigInteger.ONE));
+					if (t.testBit(width - 1)) {
+						t = t.subtract(range);
 					}
 					stack[++stackPos] = t;
 				}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.math.BigInteger;
+
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.LaneInterpreter;
+import org.pshdl.interpreter.LaneInterpreter.LaneAccess;
+import org.pshdl.interpreter.utils.Instruction;
+
+/**
+ * Evaluates a frame that only computes 1-bit values for up to 64 lanes at
+ * once. Every stack entry is a long where bit n is the value of lane n, so
+ * that a single machine operation evaluates all lanes. Only frames that are
+ * accepted by {@link #isSliceable(LaneInterpreter, Frame)} can be executed
+ * this way, all others are executed by a regular {@link LaneFrame}.
+ */
+public class BitSlicedFrame extends LaneFrame {
+
+	private final long[] stack;
+	private final FastInstruction[] instructions;
+	private final BigInteger[] constants;
+	private final LaneInterpreter intr;
+	private final LaneAccess[] internals;
+	private final int lanes;
+
+	public BitSlicedFrame(LaneInterpreter intr, Frame f, boolean disableEdge) {
+		super(intr, f, disableEdge);
+		this.intr = intr;
+		this.lanes = intr.lanes;
+		this.internals = intr.internals;
+		this.instructions = f.instructions;
+		this.constants = f.constants;
+		this.stack = new long[Math.max(1, f.maxStackDepth)];
+	}
+
+	/**
+	 * Checks whether all values computed by a frame are 0 or 1 for every lane
+	 * and whether all internals it accesses are packed
+	 */
+	public static boolean isSliceable(LaneInterpreter intr, Frame f) {
+		int depth = 0;
+		for (final FastInstruction fi : f.instructions) {
+			switch (fi.inst) {
+			case noop:
+			case const0:
+			case const1:
+			case logiAnd:
+			case logiOr:
+			case logiNeg:
+			case eq:
+			case not_eq:
+				break;
+			case loadConstant: {
+				final BigInteger value = f.constants[fi.arg1];
+				if (!BigInteger.ZERO.equals(value) && !BigInteger.ONE.equals(value))
+					return false;
+				break;
+			}
+			case and:
+			case or:
+			case xor:
+				// A signed 63 bit result turns a 1 into -1
+				if (fi.arg1 == ((63 << 1) | 1))
+					return false;
+				break;
+			case bit_neg:
+				if (fi.arg1 != (1 << 1))
+					return false;
+				break;
+			case loadInternal:
+			case posPredicate:
+			case negPredicate:
+				if (!isBit(intr.internals[fi.arg1]))
+					return false;
+				break;
+			default:
+				return false;
+			}
+			depth -= fi.inst.pop;
+			if (depth < 0)
+				return false;
+			depth += fi.inst.push;
+		}
+		if ((f.outputIds.length > 0) && (depth == 0))
+			return false;
+		for (final int outputId : f.outputIds) {
+			if (!isBit(intr.internals[outputId]))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isBit(LaneAccess access) {
+		return access.isPacked && !access.isDynamicBit && (access.signShift == 0) && (access.mask == 1) && (access.shift[0] == 0);
+	}
+
+	/**
+	 * The same as fixOp, but for values that are either 0 or 1
+	 */
+	private static long fixBits(long value, int witdhWithType) {
+		final int width = witdhWithType >> 1;
+		if ((witdhWithType & 1) == 1)
+			return value;
+		if ((width == 0) || (width == 64))
+			return 0;
+		return value;
+	}
+
+	@Override
+	public void execute(int deltaCycle, int epsCycle, boolean[] laneActive) {
+		long active = 0;
+		for (int l = 0; l < lanes; l++) {
+			if (laneActive[l]) {
+				active |= 1l << l;
+			}
+		}
+		if (active == 0)
+			return;
+		final long[] bits = intr.bits;
+		int stackPos = -1;
+		long a = 0;
+		long b = 0;
+		for (final FastInstruction fi : instructions) {
+			if (fi.popA) {
+				a = stack[stackPos--];
+			}
+			if (fi.popB) {
+				b = stack[stackPos--];
+			}
+			switch (fi.inst) {
+			case noop:
+				break;
+			case const0:
+				stack[++stackPos] = 0;
+				break;
+			case const1:
+				stack[++stackPos] = -1;
+				break;
+			case loadConstant:
+				stack[++stackPos] = constants[fi.arg1].signum() == 0 ? 0 : -1;
+				break;
+			case loadInternal:
+				stack[++stackPos] = bits[internals[fi.arg1].getAccessIndex(0)];
+				break;
+			case and:
+				stack[++stackPos] = fixBits(b & a, fi.arg1);
+				break;
+			case or:
+				stack[++stackPos] = fixBits(b | a, fi.arg1);
+				break;
+			case xor:
+				stack[++stackPos] = fixBits(b ^ a, fi.arg1);
+				break;
+			case bit_neg:
+			case logiNeg:
+				stack[++stackPos] = ~a;
+				break;
+			case logiAnd:
+				stack[++stackPos] = b & a;
+				break;
+			case logiOr:
+				stack[++stackPos] = b | a;
+				break;
+			case eq:
+				stack[++stackPos] = ~(b ^ a);
+				break;
+			case not_eq:
+				stack[++stackPos] = b ^ a;
+				break;
+			case posPredicate:
+			case negPredicate: {
+				final LaneAccess access = internals[fi.arg1];
+				final long value = bits[access.getAccessIndex(0)];
+				long pass = fi.inst == Instruction.posPredicate ? value : ~value;
+				pass &= active;
+				for (int l = 0; l < lanes; l++) {
+					final long bit = 1l << l;
+					if (((pass & bit) != 0) && !access.isFresh(l, deltaCycle, epsCycle)) {
+						pass &= ~bit;
+					}
+				}
+				active = pass;
+				if (active == 0)
+					return;
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unsupported instruction:" + fi.inst);
+			}
+		}
+		final long value = stack[0];
+		for (final LaneAccess access : outputAccess) {
+			final int idx = access.getAccessIndex(0);
+			bits[idx] = (bits[idx] & ~active) | (value & active);
+			if (access.ii.isPred || access.ii.isShadowReg) {
+				for (int l = 0; l < lanes; l++) {
+					if ((active & (1l << l)) != 0) {
+						if (access.ii.isPred) {
+							access.setLastUpdate(l, deltaCycle, epsCycle);
+						}
+						if (access.ii.isShadowReg) {
+							intr.addRegUpdate(l, idx, access.targetAccessIndex);
+						}
+					}
+				}
+			}
+		}
+	}
+}
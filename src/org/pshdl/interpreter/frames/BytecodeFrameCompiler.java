@@ -0,0 +1,643 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import static org.pshdl.interpreter.utils.ClassFileWriter.*;
+
+import java.lang.reflect.Constructor;
+import java.math.BigInteger;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.pshdl.interpreter.ExecutableModel;
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.FastSimpleInterpreter.IFrameFactory;
+import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.IHDLInterpreterFactory;
+import org.pshdl.interpreter.utils.ClassFileWriter;
+import org.pshdl.interpreter.utils.ClassFileWriter.Code;
+import org.pshdl.interpreter.utils.ClassFileWriter.Label;
+
+/**
+ * Compiles each {@link Frame} into a JVM class that extends
+ * {@link CompiledFrame}. The operand stack is mapped onto local variables,
+ * constants and the index of scalar internals are baked into the code, so the
+ * JIT can treat every frame as straight line code. Frames that use dynamic
+ * array or bit indices, or instructions that are not supported, are executed
+ * by a regular {@link FastFrame}.
+ */
+public class BytecodeFrameCompiler implements IFrameFactory {
+
+	public static class BytecodeFactory implements IHDLInterpreterFactory<FastSimpleInterpreter> {
+
+		private final ExecutableModel model;
+		private final boolean disableEdge, disabledRegOutputlogic;
+		private final BytecodeFrameCompiler compiler = new BytecodeFrameCompiler();
+
+		public BytecodeFactory(ExecutableModel model, boolean disableEdge, boolean disabledRegOutputlogic) {
+			super();
+			this.model = model;
+			this.disableEdge = disableEdge;
+			this.disabledRegOutputlogic = disabledRegOutputlogic;
+		}
+
+		@Override
+		public FastSimpleInterpreter newInstance() {
+			return new FastSimpleInterpreter(model, disableEdge, disabledRegOutputlogic, compiler);
+		}
+
+	}
+
+	static class FrameLoader extends ClassLoader {
+		public FrameLoader() {
+			super(CompiledFrame.class.getClassLoader());
+		}
+
+		public Class<?> define(String name, byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+
+	static final String PACKAGE = "org/pshdl/interpreter/frames/compiled/";
+	private static final String STORAGE = "[J";
+	/**
+	 * The last bit of a value in {@link FastSimpleInterpreter#deltaUpdates}
+	 * that holds the epsilon cycle
+	 */
+	private static final int EPS_BITS = 16;
+	private static final String LONG_ACCESS = descriptor(LongAccess.class);
+	private static final String LONG_ACCESSES = "[" + LONG_ACCESS;
+	static final int MAX_STACK = 16;
+	/**
+	 * The local that holds the storage array, followed by two slots for each
+	 * stack position
+	 */
+	static final int STORAGE_SLOT = 3, FIRST_SLOT = 4;
+
+	private final FrameLoader loader = new FrameLoader();
+	private final Map<Frame, Constructor<? extends FastFrame>> compiled = new IdentityHashMap<>();
+	private int classCounter;
+
+	@Override
+	public FastFrame createFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge) {
+		final Constructor<? extends FastFrame> constructor = getConstructor(fir, f);
+		if (constructor == null)
+			return new FastFrame(fir, f, disableEdge);
+		try {
+			return constructor.newInstance(fir, f, disableEdge);
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private synchronized Constructor<? extends FastFrame> getConstructor(FastSimpleInterpreter fir, Frame f) {
+		if (compiled.containsKey(f))
+			return compiled.get(f);
+		Constructor<? extends FastFrame> res = null;
+		final String className = PACKAGE + "Frame" + f.uniqueID + "_" + (classCounter++);
+		final byte[] bytes = compile(fir, f, className);
+		if (bytes != null) {
+			try {
+				final Class<?> clazz = loader.define(className.replace('/', '.'), bytes);
+				res = clazz.asSubclass(FastFrame.class).getConstructor(FastSimpleInterpreter.class, Frame.class, boolean.class);
+			} catch (final LinkageError | NoSuchMethodException e) {
+				res = null;
+			}
+		}
+		compiled.put(f, res);
+		return res;
+	}
+
+	/**
+	 * Checks whether a frame can be compiled
+	 */
+	static boolean isCompilable(FastSimpleInterpreter fir, Frame f) {
+		int depth = 0;
+		for (final FastInstruction fi : f.instructions) {
+			switch (fi.inst) {
+			case pushAddIndex:
+			case writeInternal:
+			case invokeFunction:
+			case loadConstantString:
+				return false;
+			case bitAccessSingle:
+				if (fi.arg1 == -1)
+					return false;
+				break;
+			case loadInternal:
+			case isFallingEdge:
+			case isRisingEdge:
+			case posPredicate:
+			case negPredicate:
+				if (fir.internals[fi.arg1].isDynamicBit)
+					return false;
+				break;
+			default:
+			}
+			depth -= fi.inst.pop;
+			if (depth < 0)
+				return false;
+			depth += fi.inst.push;
+		}
+		for (final int outputId : f.outputIds) {
+			if (fir.internals[outputId].isDynamicBit)
+				return false;
+		}
+		if ((f.outputIds.length > 0) && (depth == 0))
+			return false;
+		return true;
+	}
+
+	private static boolean isScalar(LongAccess access) {
+		return access.ii.info.dimensions.length == 0;
+	}
+
+	/**
+	 * Generates the class file for the given frame
+	 *
+	 * @return the class file, or <code>null</code> if the frame can not be
+	 *         compiled
+	 */
+	public static byte[] compile(FastSimpleInterpreter fir, Frame f, String className) {
+		if (!isCompilable(fir, f))
+			return null;
+		try {
+			final String superName = internalName(CompiledFrame.class);
+			final ClassFileWriter cw = new ClassFileWriter(ACC_PUBLIC | ACC_FINAL, className, superName);
+			final String ctorDesc = "(" + descriptor(FastSimpleInterpreter.class) + descriptor(Frame.class) + "Z)V";
+			final Code init = cw.method(ACC_PUBLIC, "<init>", ctorDesc);
+			init.local(ALOAD, 0).local(ALOAD, 1).local(ALOAD, 2).local(ILOAD, 3);
+			init.invoke(INVOKESPECIAL, superName, "<init>", ctorDesc);
+			init.op(RETURN);
+			init.finish(4);
+			final Code c = cw.method(ACC_PUBLIC, "execute", "(II)Z");
+			emitExecute(fir, f, className, c);
+			return cw.toByteArray();
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static int slot(int pos) {
+		return FIRST_SLOT + (pos * 2);
+	}
+
+	static int maxDepth(Frame f) {
+		int maxDepth = 0, depth = 0;
+		for (final FastInstruction fi : f.instructions) {
+			depth += fi.inst.push - fi.inst.pop;
+			maxDepth = Math.max(maxDepth, depth);
+		}
+		return maxDepth;
+	}
+
+	/**
+	 * Loads the storage array of the given {@link CompiledFrame} or
+	 * {@link CompiledTrace} subclass into {@link #STORAGE_SLOT}
+	 */
+	static void loadStorage(Code c, String className) {
+		c.local(ALOAD, 0).field(GETFIELD, className, "storage", STORAGE).local(ASTORE, STORAGE_SLOT);
+	}
+
+	private static void emitExecute(FastSimpleInterpreter fir, Frame f, String className, Code c) {
+		c.newLocal(1 + (maxDepth(f) * 2));
+		loadStorage(c, className);
+		boolean hasShadow = false;
+		for (final int outputId : f.outputIds) {
+			hasShadow |= fir.internals[outputId].ii.isShadowReg;
+		}
+		if (hasShadow) {
+			c.local(ALOAD, 0).invoke(INVOKEVIRTUAL, className, "clearRegUpdates", "()V");
+		}
+		final Label returnFalse = c.newLabel();
+		emitFrame(fir, f, className, c, returnFalse);
+		c.op(ICONST_1).op(IRETURN);
+		c.mark(returnFalse).op(ICONST_0).op(IRETURN);
+		c.finish(MAX_STACK);
+	}
+
+	/**
+	 * Emits the guards, the computation and the output writes of a frame. The
+	 * storage array has to be in {@link #STORAGE_SLOT}, the delta and epsilon
+	 * cycle in the locals 1 and 2, and at least {@link #maxDepth(Frame)} stack
+	 * slots have to be allocated. Register updates are added to the
+	 * {@link CompiledFrame} or {@link CompiledTrace} the code is emitted into.
+	 *
+	 * @param skip
+	 *            the label that is jumped to when a guard fails
+	 */
+	static void emitFrame(FastSimpleInterpreter fir, Frame f, String className, Code c, Label skip) {
+		final int storage = STORAGE_SLOT;
+		int sp = 0;
+		int a = -1, b = -1;
+		for (final FastInstruction fi : f.instructions) {
+			if (fi.popA) {
+				a = slot(--sp);
+			}
+			if (fi.popB) {
+				b = slot(--sp);
+			}
+			final int res = slot(sp);
+			switch (fi.inst) {
+			case noop:
+				continue;
+			case and:
+				binary(c, b, a, LAND, fi.arg1);
+				break;
+			case or:
+				binary(c, b, a, LOR, fi.arg1);
+				break;
+			case xor:
+				binary(c, b, a, LXOR, fi.arg1);
+				break;
+			case plus:
+				binary(c, b, a, LADD, fi.arg1);
+				break;
+			case minus:
+				binary(c, b, a, LSUB, fi.arg1);
+				break;
+			case mul:
+				binary(c, b, a, LMUL, fi.arg1);
+				break;
+			case div:
+				binary(c, b, a, LDIV, fi.arg1);
+				break;
+			case mod:
+				binary(c, b, a, LREM, fi.arg1);
+				break;
+			case pow:
+				c.local(LLOAD, b).local(LLOAD, a);
+				c.invoke(INVOKESTATIC, internalName(FastFrame.class), "pow", "(JJ)J");
+				fixOp(c, fi.arg1);
+				break;
+			case sll:
+				c.local(LLOAD, b).local(LLOAD, a).op(L2I).op(LSHL);
+				fixOp(c, fi.arg1);
+				break;
+			case sra:
+				c.local(LLOAD, b).local(LLOAD, a).op(L2I).op(LSHR);
+				fixOp(c, fi.arg1);
+				break;
+			case srl:
+				c.local(LLOAD, b).local(LLOAD, a).op(L2I).op(LUSHR);
+				fixOp(c, fi.arg1);
+				break;
+			case arith_neg:
+				c.local(LLOAD, a).op(LNEG);
+				fixOp(c, fi.arg1);
+				break;
+			case bit_neg:
+				c.local(LLOAD, a).pushLong(-1).op(LXOR);
+				fixOp(c, fi.arg1);
+				break;
+			case bitAccessSingle:
+				c.local(LLOAD, a).pushInt(fi.arg1).op(LSHR).pushLong(1).op(LAND);
+				break;
+			case bitAccessSingleRange:
+				c.local(LLOAD, a).pushInt(fi.arg2).op(LSHR).pushLong((1l << ((fi.arg1 - fi.arg2) + 1)) - 1).op(LAND);
+				break;
+			case cast_int: {
+				final int shift = 64 - Math.min(fi.arg1, fi.arg2);
+				c.local(LLOAD, a).pushInt(shift).op(LSHL).pushInt(shift).op(LSHR);
+				break;
+			}
+			case cast_uint:
+				c.local(LLOAD, a);
+				if (fi.arg1 != 64) {
+					c.pushLong((1l << (fi.arg1)) - 1).op(LAND);
+				}
+				break;
+			case concat:
+				c.local(LLOAD, b).pushInt(fi.arg2).op(LSHL).local(LLOAD, a).op(LOR);
+				break;
+			case const0:
+				c.pushLong(0);
+				break;
+			case const1:
+				c.pushLong(1);
+				break;
+			case const2:
+				c.pushLong(2);
+				break;
+			case constAll1:
+				if (fi.arg1 == 64) {
+					c.pushLong(0xFFFFFFFFFFFFFFFFl);
+				} else {
+					c.pushLong((1l << fi.arg1) - 1);
+				}
+				break;
+			case loadConstant: {
+				final BigInteger bi = f.constants[fi.arg1];
+				c.pushLong(bi.longValue());
+				break;
+			}
+			case eq:
+				compare(c, b, a, IFEQ);
+				break;
+			case not_eq:
+				compare(c, b, a, IFNE);
+				break;
+			case greater:
+				compare(c, b, a, IFGT);
+				break;
+			case greater_eq:
+				compare(c, b, a, IFGE);
+				break;
+			case less:
+				compare(c, b, a, IFLT);
+				break;
+			case less_eq:
+				compare(c, b, a, IFLE);
+				break;
+			case logiAnd: {
+				final Label isFalse = c.newLabel(), end = c.newLabel();
+				c.local(LLOAD, a).pushLong(0).op(LCMP).jump(IFEQ, isFalse);
+				c.local(LLOAD, b).pushLong(0).op(LCMP).jump(IFEQ, isFalse);
+				c.pushLong(1).jump(GOTO, end);
+				c.mark(isFalse).pushLong(0);
+				c.mark(end);
+				break;
+			}
+			case logiOr: {
+				final Label isTrue = c.newLabel(), end = c.newLabel();
+				c.local(LLOAD, a).pushLong(0).op(LCMP).jump(IFNE, isTrue);
+				c.local(LLOAD, b).pushLong(0).op(LCMP).jump(IFNE, isTrue);
+				c.pushLong(0).jump(GOTO, end);
+				c.mark(isTrue).pushLong(1);
+				c.mark(end);
+				break;
+			}
+			case logiNeg: {
+				final Label isTrue = c.newLabel(), end = c.newLabel();
+				c.local(LLOAD, a).pushLong(0).op(LCMP).jump(IFEQ, isTrue);
+				c.pushLong(0).jump(GOTO, end);
+				c.mark(isTrue).pushLong(1);
+				c.mark(end);
+				break;
+			}
+			case loadInternal:
+				loadInternal(fir, c, className, storage, fi.arg1);
+				break;
+			case isRisingEdge:
+				edge(fir, c, className, fi.arg1, 0, 1, skip);
+				continue;
+			case isFallingEdge:
+				edge(fir, c, className, fi.arg1, 1, 0, skip);
+				continue;
+			case posPredicate:
+				predicate(fir, c, className, fi.arg1, true, skip);
+				continue;
+			case negPredicate:
+				predicate(fir, c, className, fi.arg1, false, skip);
+				continue;
+			default:
+				throw new IllegalArgumentException("Unsupported instruction:" + fi.inst);
+			}
+			c.local(LSTORE, res);
+			sp++;
+		}
+		for (int i = 0; i < f.outputIds.length; i++) {
+			final LongAccess access = fir.internals[f.outputIds[i]];
+			if (isScalar(access)) {
+				final int idx = access.getAccessIndex();
+				final Label unchanged = c.newLabel(), written = c.newLabel();
+				// The same as LongAccess.setDataLong: old, new
+				c.local(ALOAD, storage).pushInt(idx).op(LALOAD).op(DUP2).pushLong(access.writeMask).op(LAND);
+				c.local(LLOAD, slot(0)).pushLong(access.mask).op(LAND);
+				if (access.shift != 0) {
+					c.pushInt(access.shift).op(LSHL);
+				}
+				c.op(LOR);
+				// new, old, new -> new
+				c.op(DUP2_X2).op(LCMP).jump(IFEQ, unchanged);
+				// new, storage, idx -> storage, idx, new
+				c.local(ALOAD, storage).pushInt(idx).op(DUP2_X2).op(POP2).op(LASTORE);
+				c.local(ALOAD, 0).field(GETFIELD, className, "fir", descriptor(FastSimpleInterpreter.class)).pushInt(idx);
+				c.invoke(INVOKEVIRTUAL, internalName(FastSimpleInterpreter.class), "markChanged", "(I)V");
+				c.jump(GOTO, written);
+				c.mark(unchanged).op(POP2);
+				c.mark(written);
+				if (access.ii.isPred) {
+					c.local(ALOAD, 0).field(GETFIELD, className, "deltaUpdates", STORAGE).pushInt(idx);
+					stamp(c);
+					c.op(LASTORE);
+				}
+			} else {
+				internal(c, className, "internals", f.outputIds[i]);
+				c.local(LLOAD, slot(0)).local(ILOAD, 1).local(ILOAD, 2);
+				c.invoke(INVOKEVIRTUAL, internalName(LongAccess.class), "setDataLong", "(JII)V");
+			}
+			if (access.ii.isShadowReg) {
+				c.local(ALOAD, 0).pushInt(f.outputIds[i]).invoke(INVOKEVIRTUAL, className, "addRegUpdate", "(I)V");
+			}
+		}
+	}
+
+	/**
+	 * Emits only the guards of a frame, in the order in which the frame
+	 * evaluates them. This is only equivalent to the frame if all guards come
+	 * before any other instruction, see {@link #hasLeadingGuards(Frame)}.
+	 *
+	 * @param skip
+	 *            the label that is jumped to when a guard fails
+	 */
+	static void emitGuards(FastSimpleInterpreter fir, Frame f, String className, Code c, Label skip) {
+		for (final FastInstruction fi : f.instructions) {
+			switch (fi.inst) {
+			case isRisingEdge:
+				edge(fir, c, className, fi.arg1, 0, 1, skip);
+				break;
+			case isFallingEdge:
+				edge(fir, c, className, fi.arg1, 1, 0, skip);
+				break;
+			case posPredicate:
+				predicate(fir, c, className, fi.arg1, true, skip);
+				break;
+			case negPredicate:
+				predicate(fir, c, className, fi.arg1, false, skip);
+				break;
+			default:
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a frame has at least one guard and all of its guards
+	 * come before any other instruction
+	 */
+	static boolean hasLeadingGuards(Frame f) {
+		boolean guards = true;
+		int count = 0;
+		for (final FastInstruction fi : f.instructions) {
+			switch (fi.inst) {
+			case isRisingEdge:
+			case isFallingEdge:
+			case posPredicate:
+			case negPredicate:
+				if (!guards)
+					return false;
+				count++;
+				break;
+			default:
+				guards = false;
+			}
+		}
+		return count > 0;
+	}
+
+	private static void binary(Code c, int b, int a, int opcode, int widthWithType) {
+		c.local(LLOAD, b).local(LLOAD, a).op(opcode);
+		fixOp(c, widthWithType);
+	}
+
+	/**
+	 * The same as {@link FastFrame}'s fixOp, but with the width known at
+	 * compile time
+	 */
+	private static void fixOp(Code c, int widthWithType) {
+		final int width = widthWithType >> 1;
+		if ((widthWithType & 1) == 1) {
+			c.pushInt(width).op(LSHL).pushInt(width).op(LSHR);
+		} else {
+			c.pushLong((1l << width) - 1).op(LAND);
+		}
+	}
+
+	private static void compare(Code c, int b, int a, int opcode) {
+		final Label isTrue = c.newLabel(), end = c.newLabel();
+		c.local(LLOAD, b).local(LLOAD, a).op(LCMP).jump(opcode, isTrue);
+		c.pushLong(0).jump(GOTO, end);
+		c.mark(isTrue).pushLong(1);
+		c.mark(end);
+	}
+
+	private static void loadInternal(FastSimpleInterpreter fir, Code c, String className, int storage, int off) {
+		final LongAccess access = fir.internals[off];
+		if (!isScalar(access)) {
+			internal(c, className, "internals", off);
+			c.invoke(INVOKEVIRTUAL, internalName(LongAccess.class), "getDataLong", "()J");
+			return;
+		}
+		c.local(ALOAD, storage).pushInt(access.getAccessIndex()).op(LALOAD);
+		extract(c, access);
+	}
+
+	/**
+	 * Pushes the {@link LongAccess} of an internal from the given array field
+	 */
+	private static void internal(Code c, String className, String field, int off) {
+		c.local(ALOAD, 0).field(GETFIELD, className, field, LONG_ACCESSES).pushInt(off).op(AALOAD);
+	}
+
+	/**
+	 * Turns the raw storage value on the stack into the value of the given
+	 * access, the same as {@link LongAccess#getDataLong()}
+	 */
+	private static void extract(Code c, LongAccess access) {
+		if (access.shift != 0) {
+			c.pushInt(access.shift).op(LSHR);
+		}
+		if (access.mask != 0xFFFFFFFFFFFFFFFFl) {
+			c.pushLong(access.mask).op(LAND);
+		}
+		if (access.signShift != 0) {
+			c.pushInt(access.signShift).op(LSHL).pushInt(access.signShift).op(LSHR);
+		}
+	}
+
+	/**
+	 * Pushes the value that {@link LongAccess#setLastUpdate(int, int)} stores
+	 * for the delta and epsilon cycle in the locals 1 and 2
+	 */
+	private static void stamp(Code c) {
+		c.local(ILOAD, 1).op(I2L).pushInt(EPS_BITS).op(LSHL);
+		c.local(ILOAD, 2).pushInt(0xFFFF).op(IAND).op(I2L).op(LOR);
+	}
+
+	/**
+	 * The same as {@link CompiledAccesses#edge}, inlined for scalar internals
+	 */
+	private static void edge(FastSimpleInterpreter fir, Code c, String className, int off, long prev, long curr, Label returnFalse) {
+		final LongAccess access = fir.internals[off];
+		if (!isScalar(access)) {
+			internal(c, className, "internals", off);
+			internal(c, className, "internals_prev", off);
+			c.local(ALOAD, 0).field(GETFIELD, className, "disableEdge", "Z");
+			c.pushLong(prev).pushLong(curr).local(ILOAD, 1).local(ILOAD, 2);
+			c.invoke(INVOKESTATIC, internalName(CompiledAccesses.class), "edge", "(" + LONG_ACCESS + LONG_ACCESS + "ZJJII)Z");
+			c.jump(IFEQ, returnFalse);
+			return;
+		}
+		final int idx = access.getAccessIndex();
+		final Label notSkipped = c.newLabel(), edgeChecked = c.newLabel();
+		// LongAccess.skip: updated in an earlier delta cycle, or in this epsilon cycle
+		c.local(ALOAD, 0).field(GETFIELD, className, "deltaUpdates", STORAGE).pushInt(idx).op(LALOAD);
+		c.pushInt(EPS_BITS).op(LUSHR).local(ILOAD, 1).op(I2L).op(LCMP).jump(IFLT, notSkipped);
+		c.local(ALOAD, 0).field(GETFIELD, className, "deltaUpdates", STORAGE).pushInt(idx).op(LALOAD);
+		stamp(c);
+		c.op(LCMP).jump(IFNE, returnFalse);
+		c.mark(notSkipped);
+		c.local(ALOAD, STORAGE_SLOT).pushInt(idx).op(LALOAD);
+		extract(c, access);
+		c.pushLong(curr).op(LCMP).jump(IFNE, returnFalse);
+		c.local(ALOAD, 0).field(GETFIELD, className, "disableEdge", "Z").jump(IFNE, edgeChecked);
+		final LongAccess prevAccess = fir.internals_prev[off];
+		c.local(ALOAD, 0).field(GETFIELD, className, "storage_prev", STORAGE).pushInt(prevAccess.getAccessIndex()).op(LALOAD);
+		extract(c, prevAccess);
+		c.pushLong(prev).op(LCMP).jump(IFNE, returnFalse);
+		c.mark(edgeChecked);
+		c.local(ALOAD, 0).field(GETFIELD, className, "deltaUpdates", STORAGE).pushInt(idx);
+		stamp(c);
+		c.op(LASTORE);
+	}
+
+	/**
+	 * The same as {@link CompiledAccesses#predicate}, inlined for scalar
+	 * internals
+	 */
+	private static void predicate(FastSimpleInterpreter fir, Code c, String className, int off, boolean positive, Label returnFalse) {
+		final LongAccess access = fir.internals[off];
+		if (!isScalar(access)) {
+			internal(c, className, "internals", off);
+			c.pushInt(positive ? 1 : 0).local(ILOAD, 1).local(ILOAD, 2);
+			c.invoke(INVOKESTATIC, internalName(CompiledAccesses.class), "predicate", "(" + LONG_ACCESS + "ZII)Z");
+			c.jump(IFEQ, returnFalse);
+			return;
+		}
+		final int idx = access.getAccessIndex();
+		// LongAccess.isFresh: updated in this epsilon cycle
+		c.local(ALOAD, 0).field(GETFIELD, className, "deltaUpdates", STORAGE).pushInt(idx).op(LALOAD);
+		stamp(c);
+		c.op(LCMP).jump(IFNE, returnFalse);
+		c.local(ALOAD, STORAGE_SLOT).pushInt(idx).op(LALOAD);
+		extract(c, access);
+		c.pushLong(0).op(LCMP).jump(positive ? IFEQ : IFNE, returnFalse);
+	}
+}
@@ -0,0 +1,459 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.utils.Instruction;
+
+/**
+ * Executes a {@link Frame} as a tree of pre-bound nodes. Each operation of
+ * the frame is turned into a node that holds its operands, the constants,
+ * masks and {@link LongAccess} it needs as final fields. Executing the frame
+ * is then a chain of direct calls without any opcode dispatch, which the JIT
+ * can inline per frame.
+ */
+public final class ClosureFrame extends FastFrame {
+
+	/**
+	 * A node that computes a value
+	 */
+	public static abstract class Node {
+		public abstract long eval();
+	}
+
+	/**
+	 * A node that decides whether the frame continues, that is an edge or a
+	 * predicate. The current {@link FastFrame#disableEdge} of the frame is
+	 * passed in, as it can be changed after the frame has been built.
+	 */
+	public static abstract class Guard {
+		public abstract boolean test(int deltaCycle, int epsCycle, boolean disableEdge);
+	}
+
+	private final Guard[] guards;
+	private final Node result;
+
+	private ClosureFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge, Guard[] guards, Node result) {
+		super(fir, f, disableEdge);
+		this.guards = guards;
+		this.result = result;
+	}
+
+	@Override
+	public boolean execute(int deltaCycle, int epsCycle) {
+		regUpdateCount = 0;
+		for (final Guard guard : guards) {
+			if (!guard.test(deltaCycle, epsCycle, disableEdge))
+				return false;
+		}
+		if (result == null)
+			return true;
+		final long value = result.eval();
+		for (final LongAccess longAccess : outputAccess) {
+			longAccess.setDataLong(value, deltaCycle, epsCycle);
+			if (longAccess.ii.isShadowReg) {
+				addRegUpdate(longAccess);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Builds the node tree for a frame.
+	 *
+	 * @return the frame, or <code>null</code> if the frame uses dynamic array
+	 *         or bit indices, or instructions that are not supported
+	 */
+	public static ClosureFrame create(FastSimpleInterpreter fir, Frame f, boolean disableEdge) {
+		final Node[] stack = new Node[f.maxStackDepth + 1];
+		final Guard[] guards = new Guard[f.instructions.length];
+		int depth = 0, guardCount = 0;
+		for (final FastInstruction fi : f.instructions) {
+			if (depth < fi.inst.pop)
+				return null;
+			switch (fi.inst) {
+			case noop:
+				break;
+			case pushAddIndex:
+			case writeInternal:
+			case invokeFunction:
+			case loadConstantString:
+				return null;
+			case isFallingEdge:
+			case isRisingEdge:
+			case posPredicate:
+			case negPredicate:
+				// Guards have to be decided before anything is evaluated
+				if ((depth != 0) || fir.internals[fi.arg1].isDynamicBit)
+					return null;
+				guards[guardCount++] = guard(fir, fi);
+				break;
+			case loadInternal: {
+				final LongAccess access = fir.internals[fi.arg1];
+				if (access.isDynamicBit)
+					return null;
+				stack[depth++] = new Node() {
+					@Override
+					public long eval() {
+						return access.getDataLong();
+					}
+				};
+				break;
+			}
+			case loadConstant:
+				stack[depth++] = constant(f.constants[fi.arg1].longValue());
+				break;
+			case const0:
+				stack[depth++] = constant(0);
+				break;
+			case const1:
+				stack[depth++] = constant(1);
+				break;
+			case const2:
+				stack[depth++] = constant(2);
+				break;
+			case constAll1:
+				stack[depth++] = constant(fi.arg1 == 64 ? 0xFFFFFFFFFFFFFFFFl : (1l << fi.arg1) - 1);
+				break;
+			default:
+				final Node node;
+				if (fi.inst.pop == 2) {
+					final Node a = stack[--depth];
+					final Node b = stack[--depth];
+					node = binary(fi, b, a);
+				} else {
+					node = unary(fi, stack[--depth]);
+				}
+				if (node == null)
+					return null;
+				stack[depth++] = node;
+			}
+		}
+		for (final int outputId : f.outputIds) {
+			if (fir.internals[outputId].isDynamicBit)
+				return null;
+		}
+		final Node result;
+		if (f.outputIds.length > 0) {
+			if (depth != 1)
+				return null;
+			result = stack[0];
+		} else {
+			if (depth != 0)
+				return null;
+			result = null;
+		}
+		final Guard[] resGuards = new Guard[guardCount];
+		System.arraycopy(guards, 0, resGuards, 0, guardCount);
+		return new ClosureFrame(fir, f, disableEdge, resGuards, result);
+	}
+
+	private static Node constant(final long value) {
+		return new Node() {
+			@Override
+			public long eval() {
+				return value;
+			}
+		};
+	}
+
+	private static Guard guard(FastSimpleInterpreter fir, FastInstruction fi) {
+		final LongAccess access = fir.internals[fi.arg1];
+		final LongAccess prevAcc = fir.internals_prev[fi.arg1];
+		switch (fi.inst) {
+		case isFallingEdge:
+		case isRisingEdge:
+			final long prevValue = fi.inst == Instruction.isRisingEdge ? 0 : 1;
+			final long currValue = 1 - prevValue;
+			return new Guard() {
+				@Override
+				public boolean test(int deltaCycle, int epsCycle, boolean disableEdge) {
+					if (access.skip(deltaCycle, epsCycle))
+						return false;
+					final long curr = access.getDataLong();
+					if (!disableEdge) {
+						prevAcc.offset = access.offset;
+						final long prev = prevAcc.getDataLong();
+						if ((prev != prevValue) || (curr != currValue))
+							return false;
+					} else {
+						if (curr != currValue)
+							return false;
+					}
+					access.setLastUpdate(deltaCycle, epsCycle);
+					return true;
+				}
+			};
+		case posPredicate:
+			return new Guard() {
+				@Override
+				public boolean test(int deltaCycle, int epsCycle, boolean disableEdge) {
+					return access.isFresh(deltaCycle, epsCycle) && (access.getDataLong() != 0);
+				}
+			};
+		default:
+			return new Guard() {
+				@Override
+				public boolean test(int deltaCycle, int epsCycle, boolean disableEdge) {
+					return access.isFresh(deltaCycle, epsCycle) && (access.getDataLong() == 0);
+				}
+			};
+		}
+	}
+
+	private static Node unary(FastInstruction fi, final Node a) {
+		final int arg1 = fi.arg1;
+		switch (fi.inst) {
+		case arith_neg:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(-a.eval(), arg1);
+				}
+			};
+		case bit_neg:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(~a.eval(), arg1);
+				}
+			};
+		case logiNeg:
+			return new Node() {
+				@Override
+				public long eval() {
+					return a.eval() == 0 ? 1 : 0;
+				}
+			};
+		case bitAccessSingle:
+			if (arg1 == -1)
+				return null;
+			return new Node() {
+				@Override
+				public long eval() {
+					return (a.eval() >> arg1) & 1;
+				}
+			};
+		case bitAccessSingleRange: {
+			final int lowBit = fi.arg2;
+			final long mask = (1l << ((arg1 - lowBit) + 1)) - 1;
+			return new Node() {
+				@Override
+				public long eval() {
+					return (a.eval() >> lowBit) & mask;
+				}
+			};
+		}
+		case cast_int: {
+			final int shift = 64 - Math.min(arg1, fi.arg2);
+			return new Node() {
+				@Override
+				public long eval() {
+					return (a.eval() << shift) >> shift;
+				}
+			};
+		}
+		case cast_uint: {
+			if (arg1 == 64)
+				return a;
+			final long mask = (1l << arg1) - 1;
+			return new Node() {
+				@Override
+				public long eval() {
+					return a.eval() & mask;
+				}
+			};
+		}
+		default:
+			return null;
+		}
+	}
+
+	private static Node binary(FastInstruction fi, final Node b, final Node a) {
+		final int arg1 = fi.arg1;
+		switch (fi.inst) {
+		case and:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() & a.eval(), arg1);
+				}
+			};
+		case or:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() | a.eval(), arg1);
+				}
+			};
+		case xor:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() ^ a.eval(), arg1);
+				}
+			};
+		case plus:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() + a.eval(), arg1);
+				}
+			};
+		case minus:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() - a.eval(), arg1);
+				}
+			};
+		case mul:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() * a.eval(), arg1);
+				}
+			};
+		case div:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() / a.eval(), arg1);
+				}
+			};
+		case mod:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() % a.eval(), arg1);
+				}
+			};
+		case pow:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(pow(b.eval(), a.eval()), arg1);
+				}
+			};
+		case sll:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() << a.eval(), arg1);
+				}
+			};
+		case sra:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() >> a.eval(), arg1);
+				}
+			};
+		case srl:
+			return new Node() {
+				@Override
+				public long eval() {
+					return fixOp(b.eval() >>> a.eval(), arg1);
+				}
+			};
+		case concat: {
+			final int shift = fi.arg2;
+			return new Node() {
+				@Override
+				public long eval() {
+					return (b.eval() << shift) | a.eval();
+				}
+			};
+		}
+		case eq:
+			return new Node() {
+				@Override
+				public long eval() {
+					return b.eval() == a.eval() ? 1 : 0;
+				}
+			};
+		case not_eq:
+			return new Node() {
+				@Override
+				public long eval() {
+					return b.eval() != a.eval() ? 1 : 0;
+				}
+			};
+		case greater:
+			return new Node() {
+				@Override
+				public long eval() {
+					return b.eval() > a.eval() ? 1 : 0;
+				}
+			};
+		case greater_eq:
+			return new Node() {
+				@Override
+				public long eval() {
+					return b.eval() >= a.eval() ? 1 : 0;
+				}
+			};
+		case less:
+			return new Node() {
+				@Override
+				public long eval() {
+					return b.eval() < a.eval() ? 1 : 0;
+				}
+			};
+		case less_eq:
+			return new Node() {
+				@Override
+				public long eval() {
+					return b.eval() <= a.eval() ? 1 : 0;
+				}
+			};
+		case logiAnd:
+			return new Node() {
+				@Override
+				public long eval() {
+					final long l = b.eval();
+					final long r = a.eval();
+					return ((l != 0) && (r != 0)) ? 1 : 0;
+				}
+			};
+		case logiOr:
+			return new Node() {
+				@Override
+				public long eval() {
+					final long l = b.eval();
+					final long r = a.eval();
+					return ((l != 0) || (r != 0)) ? 1 : 0;
+				}
+			};
+		default:
+			return null;
+		}
+	}
+}
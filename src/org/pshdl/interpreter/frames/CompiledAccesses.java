@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess;
+
+/**
+ * The checks that the code generated by the {@link BytecodeFrameCompiler}
+ * and the {@link TraceCompiler} calls for array internals. Scalar internals
+ * are checked inline.
+ */
+public class CompiledAccesses {
+
+	/**
+	 * Checks for an edge on the given internal and marks it as handled.
+	 *
+	 * @return <code>true</code> if the edge occurred and the frame should
+	 *         continue
+	 */
+	public static boolean edge(LongAccess access, LongAccess prevAcc, boolean disableEdge, long prevValue, long currValue, int deltaCycle, int epsCycle) {
+		if (access.skip(deltaCycle, epsCycle))
+			return false;
+		final long curr = access.getDataLong();
+		if (!disableEdge) {
+			prevAcc.offset = access.offset;
+			final long prev = prevAcc.getDataLong();
+			if ((prev != prevValue) || (curr != currValue))
+				return false;
+		} else {
+			if (curr != currValue)
+				return false;
+		}
+		access.setLastUpdate(deltaCycle, epsCycle);
+		return true;
+	}
+
+	/**
+	 * Checks whether the given predicate has been evaluated in this cycle and
+	 * has the expected value
+	 *
+	 * @return <code>true</code> if the frame should continue
+	 */
+	public static boolean predicate(LongAccess access, boolean positive, int deltaCycle, int epsCycle) {
+		if (!access.isFresh(deltaCycle, epsCycle))
+			return false;
+		return (access.getDataLong() != 0) == positive;
+	}
+}
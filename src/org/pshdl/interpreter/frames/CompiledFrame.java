@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.Frame;
+
+/**
+ * The base class of all frames that are generated by the
+ * {@link BytecodeFrameCompiler}. The generated classes override
+ * {@link #execute(int, int)} and access scalar internals through
+ * {@link #storage}, {@link #storage_prev} and {@link #deltaUpdates} directly.
+ * Array internals are accessed through {@link CompiledAccesses}.
+ */
+public abstract class CompiledFrame extends FastFrame {
+
+	protected final long[] storage, storage_prev, deltaUpdates;
+	protected final FastSimpleInterpreter fir;
+
+	protected CompiledFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge) {
+		super(fir, f, disableEdge);
+		this.storage = fir.storage;
+		this.storage_prev = fir.storage_prev;
+		this.deltaUpdates = fir.deltaUpdates;
+		this.fir = fir;
+	}
+
+	@Override
+	public abstract boolean execute(int deltaCycle, int epsCycle);
+
+	protected final void clearRegUpdates() {
+		regUpdateCount = 0;
+	}
+
+	protected final void addRegUpdate(int off) {
+		addRegUpdate(internals[off]);
+	}
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.util.Arrays;
+
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess;
+
+/**
+ * The base class of the traces that are generated by the
+ * {@link TraceCompiler}. A trace executes an epsilon cycle for all frames in
+ * one go. The inlined frames access the internals the same way as a
+ * {@link CompiledFrame}. Their register updates are collected in the trace
+ * and handed to the interpreter by {@link #flush()}.
+ */
+public abstract class CompiledTrace {
+
+	protected final long[] storage, storage_prev, deltaUpdates;
+	protected final LongAccess[] internals, internals_prev;
+	protected final FastSimpleInterpreter fir;
+	protected final FastFrame[] frames;
+	protected final boolean disableEdge;
+	private int[] regUpdates = new int[8];
+	private int regUpdateCount;
+
+	protected CompiledTrace(FastSimpleInterpreter fir, FastFrame[] frames, boolean disableEdge) {
+		this.storage = fir.storage;
+		this.storage_prev = fir.storage_prev;
+		this.deltaUpdates = fir.deltaUpdates;
+		this.internals = fir.internals;
+		this.internals_prev = fir.internals_prev;
+		this.fir = fir;
+		this.frames = frames;
+		this.disableEdge = disableEdge;
+	}
+
+	/**
+	 * Executes an epsilon cycle
+	 *
+	 * @return the number of frames if the whole trace has been executed, or
+	 *         the index of the frame where the regular execution has to
+	 *         continue because the frame is not part of the trace
+	 */
+	public abstract int run(int deltaCycle, int epsCycle);
+
+	protected final void addRegUpdate(int off) {
+		final LongAccess access = internals[off];
+		if ((regUpdateCount + 2) > regUpdates.length) {
+			regUpdates = Arrays.copyOf(regUpdates, regUpdates.length * 2);
+		}
+		regUpdates[regUpdateCount++] = access.getAccessIndex();
+		regUpdates[regUpdateCount++] = access.targetAccessIndex + access.offset;
+	}
+
+	/**
+	 * Hands the collected register updates to the interpreter
+	 */
+	protected final void flush() {
+		fir.queueRegUpdates(regUpdates, regUpdateCount);
+		regUpdateCount = 0;
+	}
+
+	/**
+	 * Executes a frame that has not been inlined into the trace
+	 */
+	protected final void call(int frameIdx, int deltaCycle, int epsCycle) {
+		flush();
+		final FastFrame ef = frames[frameIdx];
+		if (ef.execute(deltaCycle, epsCycle)) {
+			fir.queueRegUpdates(ef);
+		}
+	}
+}
@@ -26,35 +26,48 @@
  ******************************************************************************/
 package org.pshdl.interpreter.frames;
 
-import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.List;
+import static org.pshdl.interpreter.frames.FlatProgram.*;
+
+import java.util.Arrays;
 
 import org.pshdl.interpreter.FastSimpleInterpreter;
 import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess;
-import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess.RegUpdater;
 import org.pshdl.interpreter.Frame;
-import org.pshdl.interpreter.Frame.FastInstruction;
 
 public class FastFrame {
 
-	private final long stack[], constants[];
-	public List<RegUpdater> regUpdates = new ArrayList<>();
-	private int arrayPos = -1, bitPos = -1;
-	private final int[] writeIndex = new int[8], bitIndex = new int[8];
-	private final FastInstruction[] instructions;
-	private final LongAccess[] internals, internals_prev;
+	private final long stack[];
+	/**
+	 * The shared constants and code of the {@link FlatProgram} this frame is
+	 * part of
+	 */
+	private final long constants[];
+	private final int[] code;
+	private final int start, end;
+	/**
+	 * Pairs of shadow and target access indices of the registers that have
+	 * been written by the last execution
+	 */
+	public int[] regUpdates = new int[8];
+	public int regUpdateCount;
+	protected int arrayPos = -1, bitPos = -1;
+	protected final int[] writeIndex = new int[8], bitIndex = new int[8];
+	protected final LongAccess[] internals, internals_prev;
 	public final LongAccess[] outputAccess;
 	public boolean disableEdge;
 
 	public FastFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge) {
 		this.stack = new long[f.maxStackDepth];
-		this.constants = new long[f.constants.length];
-		this.instructions = f.instructions;
-		for (int i = 0; i < f.constants.length; i++) {
-			final BigInteger bi = f.constants[i];
-			constants[i] = bi.longValue();
+		FlatProgram program = fir.program;
+		int idx = program != null ? program.indexOf(f) : -1;
+		if (idx == -1) {
+			program = new FlatProgram(f);
+			idx = 0;
 		}
+		this.code = program.code;
+		this.constants = program.constants;
+		this.start = program.start(idx);
+		this.end = program.end(idx);
 		this.internals = fir.internals;
 		this.internals_prev = fir.internals_prev;
 		this.outputAccess = new LongAccess[f.outputIds.length];
@@ -70,28 +83,30 @@ public class FastFrame {
 		bitPos = -1;
 		long a = 0;
 		long b = 0;
-		regUpdates.clear();
-		for (final FastInstruction fi : instructions) {
-			if (fi.popA) {
+		regUpdateCount = 0;
+		final int[] code = this.code;
+		for (int pc = start; pc < end; pc += FlatProgram.STRIDE) {
+			final int word = code[pc];
+			if ((word & POP_A) != 0) {
 				a = stack[stackPos--];
 			}
-			if (fi.popB) {
+			if ((word & POP_B) != 0) {
 				b = stack[stackPos--];
 			}
-			switch (fi.inst) {
+			switch (word & OPCODE_MASK) {
 			case noop:
 				break;
 			case and:
-				stack[++stackPos] = fixOp(b & a, fi.arg1);
+				stack[++stackPos] = fixOp(b & a, code[pc + 1]);
 				break;
 			case arith_neg:
-				stack[++stackPos] = fixOp(-a, fi.arg1);
+				stack[++stackPos] = fixOp(-a, code[pc + 1]);
 				break;
 			case bit_neg:
-				stack[++stackPos] = fixOp(~a, fi.arg1);
+				stack[++stackPos] = fixOp(~a, code[pc + 1]);
 				break;
 			case bitAccessSingle:
-				int bit = fi.arg1;
+				int bit = code[pc + 1];
 				if (bit == -1) {
 					bit = bitIndex[bitPos];
 					bitPos = -1;
@@ -101,8 +116,8 @@ public class FastFrame {
 				stack[++stackPos] = t;
 				break;
 			case bitAccessSingleRange:
-				final int highBit = fi.arg1;
-				final int lowBit = fi.arg2;
+				final int highBit = code[pc + 1];
+				final int lowBit = code[pc + 2];
 				long t2 = a >> lowBit;
 				t2 &= (1l << ((highBit - lowBit) + 1)) - 1;
 				stack[++stackPos] = t2;
@@ -114,21 +129,21 @@ public class FastFrame {
 				// value is 0xA (-6 int<4>)
 				// cast to int<3> result should be 0xE (-2)
 				// Resize sign correctly to correct size
-				final int shift = 64 - Math.min(fi.arg1, fi.arg2);
+				final int shift = 64 - Math.min(code[pc + 1], code[pc + 2]);
 				stack[++stackPos] = ((a << shift) >> shift);
 				break;
 			case cast_uint:
 				// There is nothing special about uints, so we just mask
 				// them
-				if (fi.arg1 != 64) {
-					final long mask = (1l << (fi.arg1)) - 1;
+				if (code[pc + 1] != 64) {
+					final long mask = (1l << (code[pc + 1])) - 1;
 					stack[++stackPos] = a & mask;
 				} else {
 					stack[++stackPos] = a;
 				}
 				break;
 			case concat:
-				stack[++stackPos] = (b << fi.arg2) | a;
+				stack[++stackPos] = (b << code[pc + 2]) | a;
 				break;
 			case const0:
 				stack[++stackPos] = 0;
@@ -140,7 +155,7 @@ public class FastFrame {
 				stack[++stackPos] = 2;
 				break;
 			case constAll1:
-				final int width = fi.arg1;
+				final int width = code[pc + 1];
 				if (width == 64) {
 					stack[++stackPos] = 0xFFFFFFFFFFFFFFFFl;
 				} else {
@@ -148,7 +163,7 @@ public class FastFrame {
 				}
 				break;
 			case div:
-				stack[++stackPos] = fixOp(b / a, fi.arg1);
+				stack[++stackPos] = fixOp(b / a, code[pc + 1]);
 				break;
 			case eq:
 				stack[++stackPos] = b == a ? 1 : 0;
@@ -166,10 +181,10 @@ public class FastFrame {
 				stack[++stackPos] = b <= a ? 1 : 0;
 				break;
 			case loadConstant:
-				stack[++stackPos] = constants[fi.arg1];
+				stack[++stackPos] = constants[code[pc + 1]];
 				break;
 			case loadInternal:
-				stack[++stackPos] = getInternal(fi.arg1, arrayPos).getDataLong();
+				stack[++stackPos] = getInternal(code[pc + 1], arrayPos).getDataLong();
 				arrayPos = -1;
 				break;
 			case logiAnd:
@@ -182,40 +197,40 @@ public class FastFrame {
 				stack[++stackPos] = a == 0 ? 1 : 0;
 				break;
 			case minus:
-				stack[++stackPos] = fixOp(b - a, fi.arg1);
+				stack[++stackPos] = fixOp(b - a, code[pc + 1]);
 				break;
 			case mul:
-				stack[++stackPos] = fixOp(b * a, fi.arg1);
+				stack[++stackPos] = fixOp(b * a, code[pc + 1]);
 				break;
 			case mod:
-				stack[++stackPos] = fixOp(b % a, fi.arg1);
+				stack[++stackPos] = fixOp(b % a, code[pc + 1]);
 				break;
 			case pow:
-				stack[++stackPos] = fixOp(pow(b, a), fi.arg1);
+				stack[++stackPos] = fixOp(pow(b, a), code[pc + 1]);
 				break;
 			case not_eq:
 				stack[++stackPos] = b != a ? 1 : 0;
 				break;
 			case or:
-				stack[++stackPos] = fixOp(b | a, fi.arg1);
+				stack[++stackPos] = fixOp(b | a, code[pc + 1]);
 				break;
 			case plus:
-				stack[++stackPos] = fixOp(b + a, fi.arg1);
+				stack[++stackPos] = fixOp(b + a, code[pc + 1]);
 				break;
 			case sll:
-				stack[++stackPos] = fixOp(b << a, fi.arg1);
+				stack[++stackPos] = fixOp(b << a, code[pc + 1]);
 				break;
 			case sra:
-				stack[++stackPos] = fixOp(b >> a, fi.arg1);
+				stack[++stackPos] = fixOp(b >> a, code[pc + 1]);
 				break;
 			case srl:
-				stack[++stackPos] = fixOp(b >>> a, fi.arg1);
+				stack[++stackPos] = fixOp(b >>> a, code[pc + 1]);
 				break;
 			case xor:
-				stack[++stackPos] = fixOp(b ^ a, fi.arg1);
+				stack[++stackPos] = fixOp(b ^ a, code[pc + 1]);
 				break;
 			case isFallingEdge: {
-				final int off = fi.arg1;
+				final int off = code[pc + 1];
 				final LongAccess access = getInternal(off, arrayPos);
 				arrayPos = -1;
 				if (access.skip(deltaCycle, epsCycle))
@@ -235,7 +250,7 @@ public class FastFrame {
 				break;
 			}
 			case isRisingEdge: {
-				final int off = fi.arg1;
+				final int off = code[pc + 1];
 				final LongAccess access = getInternal(off, arrayPos);
 				arrayPos = -1;
 				if (access.skip(deltaCycle, epsCycle))
@@ -255,7 +270,7 @@ public class FastFrame {
 				break;
 			}
 			case posPredicate: {
-				final int off = fi.arg1;
+				final int off = code[pc + 1];
 				final LongAccess access = getInternal(off, arrayPos);
 				arrayPos = -1;
 				// If data is not from this deltaCycle it was not
@@ -267,7 +282,7 @@ public class FastFrame {
 				break;
 			}
 			case negPredicate: {
-				final int off = fi.arg1;
+				final int off = code[pc + 1];
 				final LongAccess access = getInternal(off, arrayPos);
 				arrayPos = -1;
 				// If data is not from this deltaCycle it was not
@@ -279,21 +294,67 @@ public class FastFrame {
 				break;
 			}
 			case pushAddIndex:
-				if (fi.arg2 == 0) {
+				if (code[pc + 2] == 0) {
 					writeIndex[++arrayPos] = (int) a;
 				} else {
 					bitIndex[++bitPos] = (int) a;
 				}
 				break;
 			case writeInternal:
-				final int off = fi.arg1;
+				final int off = code[pc + 1];
 				final LongAccess access = getInternal(off, -1);
 				access.fillDataLong(arrayPos, writeIndex, a, deltaCycle, epsCycle);
 				if (access.ii.isShadowReg) {
-					regUpdates.add(access.getRegUpdater());
+					addRegUpdate(access);
 				}
 				arrayPos = -1;
 				break;
+			case loadInternalEqConst:
+				stack[++stackPos] = getInternal(code[pc + 1], arrayPos).getDataLong() == constants[code[pc + 2]] ? 1 : 0;
+				arrayPos = -1;
+				break;
+			case loadInternalNotEqConst:
+				stack[++stackPos] = getInternal(code[pc + 1], arrayPos).getDataLong() != constants[code[pc + 2]] ? 1 : 0;
+				arrayPos = -1;
+				break;
+			case loadInternalCastUintWrite: {
+				long value = getInternal(code[pc + 1], arrayPos).getDataLong();
+				arrayPos = -1;
+				if (code[pc + 2] != 64) {
+					value &= (1l << (code[pc + 2])) - 1;
+				}
+				// Keep the stack slot as the separate instructions would leave
+				// it, the outputs are taken from stack[0]
+				stack[stackPos + 1] = value;
+				final LongAccess target = getInternal(code[pc + 3], -1);
+				target.fillDataLong(-1, writeIndex, value, deltaCycle, epsCycle);
+				if (target.ii.isShadowReg) {
+					addRegUpdate(target);
+				}
+				break;
+			}
+			case posPredicate2: {
+				final LongAccess first = getInternal(code[pc + 1], arrayPos);
+				arrayPos = -1;
+				if (!first.isFresh(deltaCycle, epsCycle) || (first.getDataLong() == 0))
+					return false;
+				final LongAccess second = getInternal(code[pc + 2], -1);
+				if (!second.isFresh(deltaCycle, epsCycle) || (second.getDataLong() == 0))
+					return false;
+				break;
+			}
+			case plus1:
+				stack[++stackPos] = fixOp(a + 1, code[pc + 1]);
+				break;
+			case minus1:
+				stack[++stackPos] = fixOp(a - 1, code[pc + 1]);
+				break;
+			case eq0:
+				stack[++stackPos] = a == 0 ? 1 : 0;
+				break;
+			case not_eq0:
+				stack[++stackPos] = a != 0 ? 1 : 0;
+				break;
 			}
 
 		}
@@ -306,13 +367,21 @@ public class FastFrame {
 			}
 			longAccess.setDataLong(stack[0], deltaCycle, epsCycle);
 			if (longAccess.ii.isShadowReg) {
-				regUpdates.add(longAccess.getRegUpdater());
+				addRegUpdate(longAccess);
 			}
 		}
 		return true;
 	}
 
-	private long pow(long a, long n) {
+	protected final void addRegUpdate(LongAccess access) {
+		if ((regUpdateCount + 2) > regUpdates.length) {
+			regUpdates = Arrays.copyOf(regUpdates, regUpdates.length * 2);
+		}
+		regUpdates[regUpdateCount++] = access.getAccessIndex();
+		regUpdates[regUpdateCount++] = access.targetAccessIndex + access.offset;
+	}
+
+	protected static long pow(long a, long n) {
 		long x = 1;
 		long nValue = n;
 		while (nValue > 0) {
@@ -326,7 +395,7 @@ public class FastFrame {
 		return x;
 	}
 
-	private long fixOp(long value, int witdhWithType) {
+	protected static long fixOp(long value, int witdhWithType) {
 		final int width = witdhWithType >> 1;
 		if ((witdhWithType & 1) == 1)
 			return ((value << width) >> width);
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.lang.reflect.Field;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.utils.Instruction;
+import org.pshdl.interpreter.utils.InstructionFusion;
+
+/**
+ * The instructions of all frames of a model encoded into a single int array.
+ * Each instruction occupies {@link #STRIDE} ints: the opcode together with
+ * the {@link #POP_A} and {@link #POP_B} flags, followed by its three
+ * arguments. The instructions of a frame start at {@link #start(int)}, the
+ * fused instruction stream of {@link InstructionFusion} is encoded. The
+ * constants of all frames are collected in {@link #constants} and the
+ * constant indices of the instructions are relocated accordingly.
+ */
+public final class FlatProgram {
+
+	public static final int STRIDE = 4;
+	public static final int OPCODE_MASK = 0x3F;
+	public static final int POP_A = 0x40;
+	public static final int POP_B = 0x80;
+
+	// The opcodes are the ordinals of the Instruction, see
+	// ExecutableFrame.main
+	public static final int noop = 0;
+	public static final int bitAccessSingle = 1;
+	public static final int bitAccessSingleRange = 2;
+	public static final int cast_int = 3;
+	public static final int cast_uint = 4;
+	public static final int loadConstant = 5;
+	public static final int loadConstantString = 6;
+	public static final int loadInternal = 7;
+	public static final int invokeFunction = 8;
+	public static final int concat = 9;
+	public static final int const0 = 10;
+	public static final int const1 = 11;
+	public static final int const2 = 12;
+	public static final int constAll1 = 13;
+	public static final int isFallingEdge = 14;
+	public static final int isRisingEdge = 15;
+	public static final int posPredicate = 16;
+	public static final int negPredicate = 17;
+	public static final int and = 18;
+	public static final int or = 19;
+	public static final int xor = 20;
+	public static final int div = 21;
+	public static final int minus = 22;
+	public static final int mul = 23;
+	public static final int plus = 24;
+	public static final int mod = 25;
+	public static final int pow = 26;
+	public static final int eq = 27;
+	public static final int greater = 28;
+	public static final int greater_eq = 29;
+	public static final int less = 30;
+	public static final int less_eq = 31;
+	public static final int not_eq = 32;
+	public static final int logiOr = 33;
+	public static final int logiAnd = 34;
+	public static final int logiNeg = 35;
+	public static final int arith_neg = 36;
+	public static final int bit_neg = 37;
+	public static final int sll = 38;
+	public static final int sra = 39;
+	public static final int srl = 40;
+	public static final int pushAddIndex = 41;
+	public static final int writeInternal = 42;
+	public static final int loadInternalEqConst = 43;
+	public static final int loadInternalNotEqConst = 44;
+	public static final int loadInternalCastUintWrite = 45;
+	public static final int posPredicate2 = 46;
+	public static final int plus1 = 47;
+	public static final int minus1 = 48;
+	public static final int eq0 = 49;
+	public static final int not_eq0 = 50;
+
+	static {
+		try {
+			for (final Instruction i : Instruction.values()) {
+				final Field field = FlatProgram.class.getField(i.name());
+				if (field.getInt(null) != i.ordinal())
+					throw new IllegalStateException("Opcode of " + i + " does not match its ordinal");
+			}
+		} catch (final ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public final int[] code;
+	public final long[] constants;
+	private final int[] start;
+	private final Map<Frame, Integer> index = new IdentityHashMap<>();
+
+	public FlatProgram(Frame... frames) {
+		final FastInstruction[][] fused = new FastInstruction[frames.length][];
+		int codeSize = 0, constSize = 0;
+		for (int i = 0; i < frames.length; i++) {
+			fused[i] = InstructionFusion.fuse(frames[i].instructions);
+			codeSize += fused[i].length * STRIDE;
+			constSize += frames[i].constants.length;
+		}
+		this.code = new int[codeSize];
+		this.constants = new long[constSize];
+		this.start = new int[frames.length + 1];
+		int pc = 0, constBase = 0;
+		for (int i = 0; i < frames.length; i++) {
+			final Frame f = frames[i];
+			index.put(f, i);
+			start[i] = pc;
+			for (int c = 0; c < f.constants.length; c++) {
+				constants[constBase + c] = f.constants[c].longValue();
+			}
+			for (final FastInstruction fi : fused[i]) {
+				int word = fi.inst.ordinal();
+				if (fi.popA) {
+					word |= POP_A;
+				}
+				if (fi.popB) {
+					word |= POP_B;
+				}
+				code[pc] = word;
+				code[pc + 1] = fi.arg1;
+				code[pc + 2] = fi.arg2;
+				code[pc + 3] = fi.arg3;
+				switch (fi.inst) {
+				case loadConstant:
+					code[pc + 1] += constBase;
+					break;
+				case loadInternalEqConst:
+				case loadInternalNotEqConst:
+					code[pc + 2] += constBase;
+					break;
+				default:
+				}
+				pc += STRIDE;
+			}
+			constBase += f.constants.length;
+		}
+		start[frames.length] = pc;
+	}
+
+	/**
+	 * @return the index of the given frame in this program, or -1 if it is
+	 *         not part of it
+	 */
+	public int indexOf(Frame f) {
+		final Integer res = index.get(f);
+		if (res == null)
+			return -1;
+		return res;
+	}
+
+	/**
+	 * @return the position in {@link #code} of the first instruction of the
+	 *         frame with the given index
+	 */
+	public int start(int frameIdx) {
+		return start[frameIdx];
+	}
+
+	/**
+	 * @return the position in {@link #code} after the last instruction of the
+	 *         frame with the given index
+	 */
+	public int end(int frameIdx) {
+		return start[frameIdx + 1];
+	}
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.utils.Instruction;
+
+/**
+ * The predicates and edge that a block of consecutive frames checks before
+ * anything else. The guard is evaluated once for the whole block. When it
+ * fails, every frame of the block would return at its own check, so the
+ * block can be skipped. The guard does not have any side effects, the
+ * frames still perform their own checks when it passes.
+ */
+public final class FrameGuard {
+
+	/**
+	 * The frame after the last frame of the block
+	 */
+	public final int end;
+	private final Instruction[] checks;
+	private final LongAccess[] accesses, prevAccesses;
+
+	private FrameGuard(int end, Instruction[] checks, LongAccess[] accesses, LongAccess[] prevAccesses) {
+		this.end = end;
+		this.checks = checks;
+		this.accesses = accesses;
+		this.prevAccesses = prevAccesses;
+	}
+
+	/**
+	 * Groups consecutive frames that start with the same predicates and edge.
+	 * Only blocks of at least two frames get a guard.
+	 *
+	 * @return for each frame the guard of the block that starts with it, or
+	 *         <code>null</code>
+	 */
+	public static FrameGuard[] createGuards(Frame[] frames, LongAccess[] internals, LongAccess[] internals_prev) {
+		final FrameGuard[] res = new FrameGuard[frames.length];
+		int i = 0;
+		while (i < frames.length) {
+			final List<FastInstruction> prefix = guardPrefix(frames[i], internals);
+			int end = i + 1;
+			if (!prefix.isEmpty()) {
+				while ((end < frames.length) && !writesGuard(frames[end - 1], prefix, internals) && prefix.equals(guardPrefix(frames[end], internals))) {
+					end++;
+				}
+			}
+			if ((end - i) > 1) {
+				final Instruction[] checks = new Instruction[prefix.size()];
+				final LongAccess[] accesses = new LongAccess[prefix.size()];
+				final LongAccess[] prevAccesses = new LongAccess[prefix.size()];
+				for (int j = 0; j < checks.length; j++) {
+					final FastInstruction fi = prefix.get(j);
+					checks[j] = fi.inst;
+					accesses[j] = internals[fi.arg1];
+					prevAccesses[j] = internals_prev[fi.arg1];
+				}
+				res[i] = new FrameGuard(end, checks, accesses, prevAccesses);
+			}
+			i = end;
+		}
+		return res;
+	}
+
+	/**
+	 * @return the predicates at the start of the frame, followed by an edge
+	 *         if there is one right after them. Only internals of a fixed
+	 *         storage index are included.
+	 */
+	private static List<FastInstruction> guardPrefix(Frame f, LongAccess[] internals) {
+		final List<FastInstruction> res = new ArrayList<>();
+		for (final FastInstruction fi : f.instructions) {
+			switch (fi.inst) {
+			case noop:
+				break;
+			case posPredicate:
+			case negPredicate:
+			case isRisingEdge:
+			case isFallingEdge:
+				final LongAccess access = internals[fi.arg1];
+				if ((access.ii.info.dimensions.length != 0) || access.isDynamicBit)
+					return res;
+				res.add(fi);
+				if ((fi.inst == Instruction.isRisingEdge) || (fi.inst == Instruction.isFallingEdge))
+					return res;
+				break;
+			default:
+				return res;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return <code>true</code> if the frame writes an internal that the
+	 *         guard checks, so that the frames after it need a new check
+	 */
+	private static boolean writesGuard(Frame f, List<FastInstruction> prefix, LongAccess[] internals) {
+		for (final FastInstruction check : prefix) {
+			final String name = internals[check.arg1].ii.info.name;
+			for (final int outputId : f.outputIds) {
+				if (internals[outputId].ii.info.name.equals(name))
+					return true;
+			}
+			for (final FastInstruction fi : f.instructions) {
+				if ((fi.inst == Instruction.writeInternal) && internals[fi.arg1].ii.info.name.equals(name))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Performs the same checks as the frames of the block, but without
+	 * marking the edge as handled.
+	 *
+	 * @return <code>false</code> if every frame of the block would return
+	 *         without doing anything
+	 */
+	public boolean passes(int deltaCycle, int epsCycle, boolean disableEdge) {
+		for (int i = 0; i < checks.length; i++) {
+			final LongAccess access = accesses[i];
+			switch (checks[i]) {
+			case posPredicate:
+				if (!access.isFresh(deltaCycle, epsCycle) || (access.getDataLong() == 0))
+					return false;
+				break;
+			case negPredicate:
+				if (!access.isFresh(deltaCycle, epsCycle) || (access.getDataLong() != 0))
+					return false;
+				break;
+			case isRisingEdge:
+				if (access.skip(deltaCycle, epsCycle) || (access.getDataLong() != 1))
+					return false;
+				if (!disableEdge && (prevAccesses[i].getDataLong() != 0))
+					return false;
+				break;
+			case isFallingEdge:
+				if (access.skip(deltaCycle, epsCycle) || (access.getDataLong() != 0))
+					return false;
+				if (!disableEdge && (prevAccesses[i].getDataLong() != 1))
+					return false;
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported instruction:" + checks[i]);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "FrameGuard [end=" + end + ", checks=" + Arrays.toString(checks) + "]";
+	}
+}
@@ -0,0 +1,562 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.LaneInterpreter;
+import org.pshdl.interpreter.LaneInterpreter.LaneAccess;
+import org.pshdl.interpreter.utils.Instruction;
+
+/**
+ * The lane variant of {@link FastFrame}. Each instruction is decoded once and
+ * then executed for all lanes that are still active. Edges and predicates
+ * deactivate the lanes they fail on.
+ */
+public class LaneFrame {
+
+	private final long stack[][], constants[];
+	private final int lanes;
+	private int arrayPos = -1, bitPos = -1;
+	private final int[][] writeIndex, bitIndex;
+	private final FastInstruction[] instructions;
+	private final LaneAccess[] internals, internals_prev;
+	public final LaneAccess[] outputAccess;
+	public boolean disableEdge;
+	private final LaneInterpreter intr;
+	/**
+	 * The lanes that execute this frame
+	 */
+	private final boolean[] active;
+	/**
+	 * Pairs of shadow and target access indices per lane, they are only queued
+	 * when the frame executes completely
+	 */
+	private final int[][] regUpdates;
+	private final int[] regUpdateCount;
+
+	public LaneFrame(LaneInterpreter intr, Frame f, boolean disableEdge) {
+		this.intr = intr;
+		this.lanes = intr.lanes;
+		this.stack = new long[f.maxStackDepth][lanes];
+		this.constants = new long[f.constants.length];
+		this.instructions = f.instructions;
+		for (int i = 0; i < f.constants.length; i++) {
+			final BigInteger bi = f.constants[i];
+			constants[i] = bi.longValue();
+		}
+		this.writeIndex = new int[8][lanes];
+		this.bitIndex = new int[8][lanes];
+		this.internals = intr.internals;
+		this.internals_prev = intr.internals_prev;
+		this.outputAccess = new LaneAccess[f.outputIds.length];
+		for (int i = 0; i < f.outputIds.length; i++) {
+			outputAccess[i] = internals[f.outputIds[i]];
+		}
+		this.disableEdge = disableEdge;
+		this.active = new boolean[lanes];
+		this.regUpdates = new int[lanes][8];
+		this.regUpdateCount = new int[lanes];
+	}
+
+	/**
+	 * Executes this frame for all lanes that are active
+	 *
+	 * @param laneActive
+	 *            the lanes that should execute this frame
+	 */
+	public void execute(int deltaCycle, int epsCycle, boolean[] laneActive) {
+		int activeCount = 0;
+		for (int l = 0; l < lanes; l++) {
+			active[l] = laneActive[l];
+			if (laneActive[l]) {
+				activeCount++;
+			}
+			regUpdateCount[l] = 0;
+		}
+		if (activeCount == 0)
+			return;
+		int stackPos = -1;
+		arrayPos = -1;
+		bitPos = -1;
+		long[] a = null;
+		long[] b = null;
+		for (final FastInstruction fi : instructions) {
+			if (fi.popA) {
+				a = stack[stackPos--];
+			}
+			if (fi.popB) {
+				b = stack[stackPos--];
+			}
+			switch (fi.inst) {
+			case noop:
+				break;
+			case and: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] & a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case arith_neg: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(-a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case bit_neg: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(~a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case bitAccessSingle: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						int bit = fi.arg1;
+						if (bit == -1) {
+							bit = bitIndex[bitPos][l];
+						}
+						res[l] = (a[l] >> bit) & 1;
+					}
+				}
+				if (fi.arg1 == -1) {
+					bitPos = -1;
+				}
+				break;
+			}
+			case bitAccessSingleRange: {
+				final long[] res = stack[++stackPos];
+				final int highBit = fi.arg1;
+				final int lowBit = fi.arg2;
+				final long mask = (1l << ((highBit - lowBit) + 1)) - 1;
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = (a[l] >> lowBit) & mask;
+					}
+				}
+				break;
+			}
+			case cast_int: {
+				final long[] res = stack[++stackPos];
+				final int shift = 64 - Math.min(fi.arg1, fi.arg2);
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = ((a[l] << shift) >> shift);
+					}
+				}
+				break;
+			}
+			case cast_uint: {
+				final long[] res = stack[++stackPos];
+				final long mask = fi.arg1 != 64 ? (1l << (fi.arg1)) - 1 : 0xFFFFFFFFFFFFFFFFl;
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = a[l] & mask;
+					}
+				}
+				break;
+			}
+			case concat: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = (b[l] << fi.arg2) | a[l];
+					}
+				}
+				break;
+			}
+			case const0:
+				fill(stack[++stackPos], 0);
+				break;
+			case const1:
+				fill(stack[++stackPos], 1);
+				break;
+			case const2:
+				fill(stack[++stackPos], 2);
+				break;
+			case constAll1:
+				final int width = fi.arg1;
+				if (width == 64) {
+					fill(stack[++stackPos], 0xFFFFFFFFFFFFFFFFl);
+				} else {
+					fill(stack[++stackPos], (1l << width) - 1);
+				}
+				break;
+			case div: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] / a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case eq: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = b[l] == a[l] ? 1 : 0;
+					}
+				}
+				break;
+			}
+			case greater: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = b[l] > a[l] ? 1 : 0;
+					}
+				}
+				break;
+			}
+			case greater_eq: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = b[l] >= a[l] ? 1 : 0;
+					}
+				}
+				break;
+			}
+			case less: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = b[l] < a[l] ? 1 : 0;
+					}
+				}
+				break;
+			}
+			case less_eq: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = b[l] <= a[l] ? 1 : 0;
+					}
+				}
+				break;
+			}
+			case not_eq: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = b[l] != a[l] ? 1 : 0;
+					}
+				}
+				break;
+			}
+			case loadConstant:
+				fill(stack[++stackPos], constants[fi.arg1]);
+				break;
+			case loadInternal: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = getInternal(fi.arg1, arrayPos, l).getDataLong(l);
+					}
+				}
+				arrayPos = -1;
+				break;
+			}
+			case logiAnd: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = ((a[l] != 0) && (b[l] != 0)) ? 1 : 0;
+					}
+				}
+				break;
+			}
+			case logiOr: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = ((a[l] != 0) || (b[l] != 0)) ? 1 : 0;
+					}
+				}
+				break;
+			}
+			case logiNeg: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = a[l] == 0 ? 1 : 0;
+					}
+				}
+				break;
+			}
+			case minus: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] - a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case mul: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] * a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case mod: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] % a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case pow: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(FastFrame.pow(b[l], a[l]), fi.arg1);
+					}
+				}
+				break;
+			}
+			case or: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] | a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case plus: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] + a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case sll: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] << a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case sra: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] >> a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case srl: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] >>> a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case xor: {
+				final long[] res = stack[++stackPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						res[l] = fixOp(b[l] ^ a[l], fi.arg1);
+					}
+				}
+				break;
+			}
+			case isFallingEdge:
+			case isRisingEdge: {
+				final int off = fi.arg1;
+				final long prevValue = fi.inst == Instruction.isRisingEdge ? 0 : 1;
+				final long currValue = 1 - prevValue;
+				for (int l = 0; l < lanes; l++) {
+					if (!active[l]) {
+						continue;
+					}
+					final LaneAccess access = getInternal(off, arrayPos, l);
+					boolean edge = false;
+					if (!access.skip(l, deltaCycle, epsCycle)) {
+						final long curr = access.getDataLong(l);
+						if (!disableEdge) {
+							final LaneAccess prevAcc = internals_prev[off];
+							prevAcc.offset[l] = access.offset[l];
+							final long prev = prevAcc.getDataLong(l);
+							edge = (prev == prevValue) && (curr == currValue);
+						} else {
+							edge = curr == currValue;
+						}
+					}
+					if (edge) {
+						access.setLastUpdate(l, deltaCycle, epsCycle);
+					} else {
+						active[l] = false;
+						activeCount--;
+					}
+				}
+				arrayPos = -1;
+				if (activeCount == 0)
+					return;
+				break;
+			}
+			case posPredicate:
+			case negPredicate: {
+				final int off = fi.arg1;
+				final boolean positive = fi.inst == Instruction.posPredicate;
+				for (int l = 0; l < lanes; l++) {
+					if (!active[l]) {
+						continue;
+					}
+					final LaneAccess access = getInternal(off, arrayPos, l);
+					// If data is not from this deltaCycle it was not
+					// updated that means prior predicates failed
+					if (!access.isFresh(l, deltaCycle, epsCycle) || ((access.getDataLong(l) != 0) != positive)) {
+						active[l] = false;
+						activeCount--;
+					}
+				}
+				arrayPos = -1;
+				if (activeCount == 0)
+					return;
+				break;
+			}
+			case pushAddIndex: {
+				final int[] target = fi.arg2 == 0 ? writeIndex[++arrayPos] : bitIndex[++bitPos];
+				for (int l = 0; l < lanes; l++) {
+					if (active[l]) {
+						target[l] = (int) a[l];
+					}
+				}
+				break;
+			}
+			case writeInternal: {
+				final int off = fi.arg1;
+				for (int l = 0; l < lanes; l++) {
+					if (!active[l]) {
+						continue;
+					}
+					final LaneAccess access = getInternal(off, -1, l);
+					access.fillDataLong(l, arrayPos, writeIndex, a[l], deltaCycle, epsCycle);
+					if (access.ii.isShadowReg) {
+						addRegUpdate(l, access);
+					}
+				}
+				arrayPos = -1;
+				break;
+			}
+			default:
+			}
+		}
+		final long[] value = stack[0];
+		for (final LaneAccess access : outputAccess) {
+			for (int l = 0; l < lanes; l++) {
+				if (!active[l]) {
+					continue;
+				}
+				if (arrayPos != -1) {
+					access.setOffset(l, writeIndex);
+				}
+				if (bitPos != -1) {
+					access.setBitOffset(l, bitIndex[bitPos][l]);
+				}
+				access.setDataLong(l, value[l], deltaCycle, epsCycle);
+				if (access.ii.isShadowReg) {
+					addRegUpdate(l, access);
+				}
+			}
+		}
+		for (int l = 0; l < lanes; l++) {
+			if (active[l]) {
+				final int[] updates = regUpdates[l];
+				for (int i = 0; i < regUpdateCount[l]; i += 2) {
+					intr.addRegUpdate(l, updates[i], updates[i + 1]);
+				}
+			}
+		}
+	}
+
+	private void addRegUpdate(int lane, LaneAccess access) {
+		int[] updates = regUpdates[lane];
+		final int count = regUpdateCount[lane];
+		if ((count + 2) > updates.length) {
+			updates = Arrays.copyOf(updates, updates.length * 2);
+			regUpdates[lane] = updates;
+		}
+		updates[count] = access.getAccessIndex(lane);
+		updates[count + 1] = access.targetAccessIndex + access.offset[lane];
+		regUpdateCount[lane] = count + 2;
+	}
+
+	private void fill(long[] res, long value) {
+		for (int l = 0; l < lanes; l++) {
+			if (active[l]) {
+				res[l] = value;
+			}
+		}
+	}
+
+	private static long fixOp(long value, int witdhWithType) {
+		final int width = witdhWithType >> 1;
+		if ((witdhWithType & 1) == 1)
+			return ((value << width) >> width);
+		return value & ((1l << width) - 1);
+	}
+
+	private LaneAccess getInternal(int off, int arrayPos, int lane) {
+		final LaneAccess ea = internals[off];
+		if (arrayPos != -1) {
+			ea.setOffset(lane, writeIndex);
+		}
+		if (bitPos != -1) {
+			ea.setBitOffset(lane, bitIndex[bitPos][lane]);
+		}
+		return ea;
+	}
+}
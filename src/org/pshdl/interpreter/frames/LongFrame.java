@@ -32,18 +32,25 @@ import org.pshdl.interpreter.Frame;
 import org.pshdl.interpreter.Frame.FastInstruction;
 import org.pshdl.interpreter.HDLFrameInterpreter;
 import org.pshdl.interpreter.access.EncapsulatedAccess;
+import org.pshdl.interpreter.utils.InstructionFusion;
 
 public final class LongFrame extends ExecutableFrame {
 
 	private final long stack[];
 	private final long constants[];
 	private final IDebugListener listener;
+	/**
+	 * The fused instructions, or the plain ones when a listener wants to
+	 * observe every single instruction
+	 */
+	private final FastInstruction[] code;
 
 	public LongFrame(IDebugListener listener, HDLFrameInterpreter fir, Frame f, EncapsulatedAccess internals[], EncapsulatedAccess internals_prev[]) {
 		super(fir, f, internals, internals_prev);
 		this.listener = listener;
 		this.stack = new long[f.maxStackDepth];
 		this.constants = new long[f.constants.length];
+		this.code = listener == null ? InstructionFusion.fuse(f.instructions) : f.instructions;
 
 		for (int i = 0; i < f.constants.length; i++) {
 			final BigInteger bi = f.constants[i];
@@ -62,7 +69,7 @@ public final class LongFrame extends ExecutableFrame {
 		if (listener != null) {
 			listener.startFrame(uniqueID, deltaCycle, epsCycle, this);
 		}
-		for (final FastInstruction fi : instructions) {
+		for (final FastInstruction fi : code) {
 			if (fi.popA) {
 				a = stack[stackPos--];
 			}
@@ -310,6 +317,46 @@ public final class LongFrame extends ExecutableFrame {
 				}
 				arrayPos = -1;
 				break;
+			case loadInternalEqConst:
+				stack[++stackPos] = getInternal(fi.arg1, arrayPos).getDataLong() == constants[fi.arg2] ? 1 : 0;
+				arrayPos = -1;
+				break;
+			case loadInternalNotEqConst:
+				stack[++stackPos] = getInternal(fi.arg1, arrayPos).getDataLong() != constants[fi.arg2] ? 1 : 0;
+				arrayPos = -1;
+				break;
+			case loadInternalCastUintWrite: {
+				long value = getInternal(fi.arg1, arrayPos).getDataLong();
+				arrayPos = -1;
+				if (fi.arg2 != 64) {
+					value &= (1l << (fi.arg2)) - 1;
+				}
+				stack[stackPos + 1] = value;
+				getInternal(fi.arg3, -1).fillDataLong(-1, writeIndex, value, deltaCycle, epsCycle);
+				break;
+			}
+			case posPredicate2: {
+				final EncapsulatedAccess first = getInternal(fi.arg1, arrayPos);
+				arrayPos = -1;
+				if (!first.isFresh(deltaCycle, epsCycle) || (first.getDataLong() == 0))
+					return;
+				final EncapsulatedAccess second = getInternal(fi.arg2, -1);
+				if (!second.isFresh(deltaCycle, epsCycle) || (second.getDataLong() == 0))
+					return;
+				break;
+			}
+			case plus1:
+				stack[++stackPos] = fixOp(a + 1, fi.arg1);
+				break;
+			case minus1:
+				stack[++stackPos] = fixOp(a - 1, fi.arg1);
+				break;
+			case eq0:
+				stack[++stackPos] = a == 0 ? 1 : 0;
+				break;
+			case not_eq0:
+				stack[++stackPos] = a != 0 ? 1 : 0;
+				break;
 			}
 			if (listener != null)
 				if (stackPos >= 0) {
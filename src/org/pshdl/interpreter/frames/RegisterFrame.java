@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.utils.Instruction;
+
+/**
+ * Executes a {@link Frame} that has been translated into a register based
+ * three address code. Every value that would live on the stack of a
+ * {@link FastFrame} is assigned a virtual register, constants are placed into
+ * registers of their own and are never loaded at run time.
+ */
+public final class RegisterFrame extends FastFrame {
+
+	/**
+	 * The register based translation of a {@link Frame}. A program is
+	 * immutable and can be shared by all {@link RegisterFrame}s of that frame.
+	 */
+	public static final class Program {
+		/**
+		 * The number of operands per instruction
+		 */
+		public static final int STRIDE = 5;
+		public static final int DST = 0, SRC1 = 1, SRC2 = 2, ARG1 = 3, ARG2 = 4;
+
+		public final Instruction[] op;
+		/**
+		 * {@link #STRIDE} operands per instruction: the destination register,
+		 * the two source registers and the two immediate arguments. Unused
+		 * operands are -1
+		 */
+		public final int[] operands;
+		/**
+		 * The initial content of the register file, the first registers hold
+		 * the constants
+		 */
+		public final long[] registers;
+		/**
+		 * The register that holds the value that is written to the outputs
+		 */
+		public final int resultReg;
+
+		private Program(Instruction[] op, int[] operands, long[] registers, int resultReg) {
+			this.op = op;
+			this.operands = operands;
+			this.registers = registers;
+			this.resultReg = resultReg;
+		}
+
+		/**
+		 * Translates the stack instructions of a frame into the register
+		 * form.
+		 *
+		 * @return the program, or <code>null</code> if the frame uses
+		 *         instructions that can not be translated
+		 */
+		public static Program translate(Frame f) {
+			final Map<Long, Integer> constRegs = new HashMap<>();
+			int depth = 0, maxDepth = 0, stackBottom = -1;
+			for (final FastInstruction fi : f.instructions) {
+				switch (fi.inst) {
+				case invokeFunction:
+				case loadConstantString:
+					return null;
+				case loadConstant:
+					constRegs.put(f.constants[fi.arg1].longValue(), -1);
+					break;
+				case const0:
+				case const1:
+				case const2:
+				case constAll1:
+					constRegs.put(constantValue(fi), -1);
+					break;
+				default:
+				}
+				depth -= fi.inst.pop;
+				if (depth < 0)
+					return null;
+				depth += fi.inst.push;
+				maxDepth = Math.max(maxDepth, depth);
+			}
+			final long[] registers = new long[constRegs.size() + maxDepth + 1];
+			int constCount = 0;
+			for (final Map.Entry<Long, Integer> e : constRegs.entrySet()) {
+				registers[constCount] = e.getKey();
+				e.setValue(constCount++);
+			}
+			final int firstSlot = constCount;
+			final int[] stack = new int[maxDepth + 1];
+			final Instruction[] op = new Instruction[f.instructions.length];
+			final int[] operands = new int[f.instructions.length * STRIDE];
+			int pc = 0;
+			depth = 0;
+			for (final FastInstruction fi : f.instructions) {
+				int src1 = -1, src2 = -1, dst = -1, push = -1;
+				if (fi.inst.pop > 0) {
+					final int a = stack[--depth];
+					if (fi.inst.pop > 1) {
+						src1 = stack[--depth];
+						src2 = a;
+					} else {
+						src1 = a;
+					}
+				}
+				switch (fi.inst) {
+				case noop:
+					break;
+				case loadConstant:
+					push = constRegs.get(f.constants[fi.arg1].longValue());
+					break;
+				case const0:
+				case const1:
+				case const2:
+				case constAll1:
+					push = constRegs.get(constantValue(fi));
+					break;
+				default:
+					if (fi.inst.push > 0) {
+						dst = firstSlot + depth;
+						push = dst;
+					}
+					op[pc] = fi.inst;
+					final int o = pc * STRIDE;
+					operands[o + DST] = dst;
+					operands[o + SRC1] = src1;
+					operands[o + SRC2] = src2;
+					operands[o + ARG1] = fi.arg1;
+					operands[o + ARG2] = fi.arg2;
+					pc++;
+				}
+				if (push != -1) {
+					if (depth == 0) {
+						stackBottom = push;
+					}
+					stack[depth++] = push;
+				}
+			}
+			if (stackBottom == -1) {
+				stackBottom = firstSlot;
+			}
+			final Instruction[] resOp = new Instruction[pc];
+			System.arraycopy(op, 0, resOp, 0, pc);
+			final int[] resOperands = new int[pc * STRIDE];
+			System.arraycopy(operands, 0, resOperands, 0, resOperands.length);
+			return new Program(resOp, resOperands, registers, stackBottom);
+		}
+
+		private static long constantValue(FastInstruction fi) {
+			switch (fi.inst) {
+			case const1:
+				return 1;
+			case const2:
+				return 2;
+			case constAll1:
+				if (fi.arg1 == 64)
+					return 0xFFFFFFFFFFFFFFFFl;
+				return (1l << fi.arg1) - 1;
+			default:
+				return 0;
+			}
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder();
+			for (int pc = 0; pc < op.length; pc++) {
+				final int o = pc * STRIDE;
+				if (operands[o + DST] != -1) {
+					sb.append('r').append(operands[o + DST]).append(" = ");
+				}
+				sb.append(op[pc].name());
+				if (operands[o + SRC1] != -1) {
+					sb.append(" r").append(operands[o + SRC1]);
+				}
+				if (operands[o + SRC2] != -1) {
+					sb.append(", r").append(operands[o + SRC2]);
+				}
+				for (int i = 0; i < op[pc].argCount; i++) {
+					sb.append(' ').append(op[pc].args[i]).append('=').append(operands[o + ARG1 + i]);
+				}
+				sb.append('\n');
+			}
+			sb.append("result r").append(resultReg).append('\n');
+			return sb.toString();
+		}
+	}
+
+	private final Instruction[] op;
+	private final int[] operands;
+	private final long[] regs;
+	private final int resultReg;
+
+	public RegisterFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge, Program program) {
+		super(fir, f, disableEdge);
+		this.op = program.op;
+		this.operands = program.operands;
+		this.regs = program.registers.clone();
+		this.resultReg = program.resultReg;
+	}
+
+	@Override
+	public boolean execute(int deltaCycle, int epsCycle) {
+		arrayPos = -1;
+		bitPos = -1;
+		regUpdateCount = 0;
+		final long[] r = regs;
+		final int[] o = operands;
+		for (int pc = 0, i = 0; pc < op.length; pc++, i += Program.STRIDE) {
+			switch (op[pc]) {
+			case and:
+				r[o[i]] = fixOp(r[o[i + 1]] & r[o[i + 2]], o[i + 3]);
+				break;
+			case or:
+				r[o[i]] = fixOp(r[o[i + 1]] | r[o[i + 2]], o[i + 3]);
+				break;
+			case xor:
+				r[o[i]] = fixOp(r[o[i + 1]] ^ r[o[i + 2]], o[i + 3]);
+				break;
+			case plus:
+				r[o[i]] = fixOp(r[o[i + 1]] + r[o[i + 2]], o[i + 3]);
+				break;
+			case minus:
+				r[o[i]] = fixOp(r[o[i + 1]] - r[o[i + 2]], o[i + 3]);
+				break;
+			case mul:
+				r[o[i]] = fixOp(r[o[i + 1]] * r[o[i + 2]], o[i + 3]);
+				break;
+			case div:
+				r[o[i]] = fixOp(r[o[i + 1]] / r[o[i + 2]], o[i + 3]);
+				break;
+			case mod:
+				r[o[i]] = fixOp(r[o[i + 1]] % r[o[i + 2]], o[i + 3]);
+				break;
+			case pow:
+				r[o[i]] = fixOp(pow(r[o[i + 1]], r[o[i + 2]]), o[i + 3]);
+				break;
+			case sll:
+				r[o[i]] = fixOp(r[o[i + 1]] << r[o[i + 2]], o[i + 3]);
+				break;
+			case sra:
+				r[o[i]] = fixOp(r[o[i + 1]] >> r[o[i + 2]], o[i + 3]);
+				break;
+			case srl:
+				r[o[i]] = fixOp(r[o[i + 1]] >>> r[o[i + 2]], o[i + 3]);
+				break;
+			case arith_neg:
+				r[o[i]] = fixOp(-r[o[i + 1]], o[i + 3]);
+				break;
+			case bit_neg:
+				r[o[i]] = fixOp(~r[o[i + 1]], o[i + 3]);
+				break;
+			case concat:
+				r[o[i]] = (r[o[i + 1]] << o[i + 4]) | r[o[i + 2]];
+				break;
+			case eq:
+				r[o[i]] = r[o[i + 1]] == r[o[i + 2]] ? 1 : 0;
+				break;
+			case not_eq:
+				r[o[i]] = r[o[i + 1]] != r[o[i + 2]] ? 1 : 0;
+				break;
+			case greater:
+				r[o[i]] = r[o[i + 1]] > r[o[i + 2]] ? 1 : 0;
+				break;
+			case greater_eq:
+				r[o[i]] = r[o[i + 1]] >= r[o[i + 2]] ? 1 : 0;
+				break;
+			case less:
+				r[o[i]] = r[o[i + 1]] < r[o[i + 2]] ? 1 : 0;
+				break;
+			case less_eq:
+				r[o[i]] = r[o[i + 1]] <= r[o[i + 2]] ? 1 : 0;
+				break;
+			case logiAnd:
+				r[o[i]] = ((r[o[i + 1]] != 0) && (r[o[i + 2]] != 0)) ? 1 : 0;
+				break;
+			case logiOr:
+				r[o[i]] = ((r[o[i + 1]] != 0) || (r[o[i + 2]] != 0)) ? 1 : 0;
+				break;
+			case logiNeg:
+				r[o[i]] = r[o[i + 1]] == 0 ? 1 : 0;
+				break;
+			case cast_int: {
+				final int shift = 64 - Math.min(o[i + 3], o[i + 4]);
+				r[o[i]] = (r[o[i + 1]] << shift) >> shift;
+				break;
+			}
+			case cast_uint:
+				if (o[i + 3] != 64) {
+					r[o[i]] = r[o[i + 1]] & ((1l << o[i + 3]) - 1);
+				} else {
+					r[o[i]] = r[o[i + 1]];
+				}
+				break;
+			case bitAccessSingle: {
+				int bit = o[i + 3];
+				if (bit == -1) {
+					bit = bitIndex[bitPos];
+					bitPos = -1;
+				}
+				r[o[i]] = (r[o[i + 1]] >> bit) & 1;
+				break;
+			}
+			case bitAccessSingleRange: {
+				final int highBit = o[i + 3];
+				final int lowBit = o[i + 4];
+				r[o[i]] = (r[o[i + 1]] >> lowBit) & ((1l << ((highBit - lowBit) + 1)) - 1);
+				break;
+			}
+			case loadInternal:
+				r[o[i]] = getInternal(o[i + 3], arrayPos).getDataLong();
+				arrayPos = -1;
+				break;
+			case isFallingEdge:
+				if (!edge(o[i + 3], 1, 0, deltaCycle, epsCycle))
+					return false;
+				break;
+			case isRisingEdge:
+				if (!edge(o[i + 3], 0, 1, deltaCycle, epsCycle))
+					return false;
+				break;
+			case posPredicate: {
+				final LongAccess access = getInternal(o[i + 3], arrayPos);
+				arrayPos = -1;
+				if (!access.isFresh(deltaCycle, epsCycle) || (access.getDataLong() == 0))
+					return false;
+				break;
+			}
+			case negPredicate: {
+				final LongAccess access = getInternal(o[i + 3], arrayPos);
+				arrayPos = -1;
+				if (!access.isFresh(deltaCycle, epsCycle) || (access.getDataLong() != 0))
+					return false;
+				break;
+			}
+			case pushAddIndex:
+				if (o[i + 4] == 0) {
+					writeIndex[++arrayPos] = (int) r[o[i + 1]];
+				} else {
+					bitIndex[++bitPos] = (int) r[o[i + 1]];
+				}
+				break;
+			case writeInternal: {
+				final LongAccess access = getInternal(o[i + 3], -1);
+				access.fillDataLong(arrayPos, writeIndex, r[o[i + 1]], deltaCycle, epsCycle);
+				if (access.ii.isShadowReg) {
+					addRegUpdate(access);
+				}
+				arrayPos = -1;
+				break;
+			}
+			default:
+			}
+		}
+		final long result = r[resultReg];
+		for (final LongAccess longAccess : outputAccess) {
+			if (arrayPos != -1) {
+				longAccess.setOffset(writeIndex);
+			}
+			if (bitPos != -1) {
+				longAccess.setBitOffset(bitIndex[bitPos]);
+			}
+			longAccess.setDataLong(result, deltaCycle, epsCycle);
+			if (longAccess.ii.isShadowReg) {
+				addRegUpdate(longAccess);
+			}
+		}
+		return true;
+	}
+
+	private boolean edge(int off, long prevValue, long currValue, int deltaCycle, int epsCycle) {
+		final LongAccess access = getInternal(off, arrayPos);
+		arrayPos = -1;
+		if (access.skip(deltaCycle, epsCycle))
+			return false;
+		final long curr = access.getDataLong();
+		if (!disableEdge) {
+			final LongAccess prevAcc = internals_prev[off];
+			prevAcc.offset = access.offset;
+			final long prev = prevAcc.getDataLong();
+			if ((prev != prevValue) || (curr != currValue))
+				return false;
+		} else {
+			if (curr != currValue)
+				return false;
+		}
+		access.setLastUpdate(deltaCycle, epsCycle);
+		return true;
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.pshdl.interpreter.ExecutableModel;
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.FastSimpleInterpreter.IFrameFactory;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.IHDLInterpreterFactory;
+import org.pshdl.interpreter.frames.RegisterFrame.Program;
+
+/**
+ * Translates each {@link Frame} into a {@link RegisterFrame.Program} and
+ * executes it with a {@link RegisterFrame}. The translation is done once per
+ * frame and shared between all interpreters created by the same translator.
+ * Frames that can not be translated are executed by a regular
+ * {@link FastFrame}.
+ */
+public class RegisterFrameTranslator implements IFrameFactory {
+
+	public static class RegisterFactory implements IHDLInterpreterFactory<FastSimpleInterpreter> {
+
+		private final ExecutableModel model;
+		private final boolean disableEdge, disabledRegOutputlogic;
+		private final RegisterFrameTranslator translator = new RegisterFrameTranslator();
+
+		public RegisterFactory(ExecutableModel model, boolean disableEdge, boolean disabledRegOutputlogic) {
+			super();
+			this.model = model;
+			this.disableEdge = disableEdge;
+			this.disabledRegOutputlogic = disabledRegOutputlogic;
+		}
+
+		@Override
+		public FastSimpleInterpreter newInstance() {
+			return new FastSimpleInterpreter(model, disableEdge, disabledRegOutputlogic, translator);
+		}
+
+	}
+
+	private final Map<Frame, Program> programs = new IdentityHashMap<>();
+
+	@Override
+	public FastFrame createFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge) {
+		final Program program = getProgram(f);
+		if (program == null)
+			return new FastFrame(fir, f, disableEdge);
+		return new RegisterFrame(fir, f, disableEdge, program);
+	}
+
+	private synchronized Program getProgram(Frame f) {
+		if (programs.containsKey(f))
+			return programs.get(f);
+		final Program program = Program.translate(f);
+		programs.put(f, program);
+		return program;
+	}
+
+}
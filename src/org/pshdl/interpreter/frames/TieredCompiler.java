@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.pshdl.interpreter.ExecutableModel;
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.IHDLInterpreter.Feature;
+import org.pshdl.interpreter.IHDLInterpreterFactory;
+
+/**
+ * Counts how often the frames of a {@link FastSimpleInterpreter} are executed
+ * and compiles the frames that cross a threshold with the
+ * {@link BytecodeFrameCompiler} on a background thread. The compiled frames
+ * are swapped in by {@link #install(FastFrame[])}, which the interpreter
+ * calls before each delta cycle. This way short simulations do not pay for
+ * the compilation, while long running ones still end up with compiled
+ * frames.
+ */
+public class TieredCompiler implements AutoCloseable {
+
+	public static class TieredFactory implements IHDLInterpreterFactory<FastSimpleInterpreter> {
+
+		private final ExecutableModel model;
+		private final boolean disableEdge, disabledRegOutputlogic;
+		private final int threshold;
+
+		public TieredFactory(ExecutableModel model, boolean disableEdge, boolean disabledRegOutputlogic, int threshold) {
+			super();
+			this.model = model;
+			this.disableEdge = disableEdge;
+			this.disabledRegOutputlogic = disabledRegOutputlogic;
+			this.threshold = threshold;
+		}
+
+		@Override
+		public FastSimpleInterpreter newInstance() {
+			final FastSimpleInterpreter fir = new FastSimpleInterpreter(model, disableEdge, disabledRegOutputlogic);
+			fir.setFeature(Feature.tieredThreshold, threshold);
+			return fir;
+		}
+
+	}
+
+	private static final class Compiled {
+		public final int frameIdx;
+		public final FastFrame frame;
+
+		public Compiled(int frameIdx, FastFrame frame) {
+			this.frameIdx = frameIdx;
+			this.frame = frame;
+		}
+	}
+
+	private static final ThreadFactory DAEMON = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread thread = new Thread(r, "TieredCompiler");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final FastSimpleInterpreter fir;
+	private final Frame[] modelFrames;
+	private final BytecodeFrameCompiler compiler = new BytecodeFrameCompiler();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(DAEMON);
+	private final ConcurrentLinkedQueue<Compiled> ready = new ConcurrentLinkedQueue<>();
+	private final int[] executions;
+	private final boolean[] requested;
+	private int threshold;
+
+	public TieredCompiler(FastSimpleInterpreter fir, Frame[] modelFrames, int threshold) {
+		this.fir = fir;
+		this.modelFrames = modelFrames;
+		this.executions = new int[modelFrames.length];
+		this.requested = new boolean[modelFrames.length];
+		this.threshold = threshold;
+	}
+
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Counts an execution of the given frame and requests its compilation
+	 * once the threshold has been reached
+	 */
+	public void executed(final int frameIdx) {
+		if ((++executions[frameIdx] >= threshold) && !requested[frameIdx]) {
+			requested[frameIdx] = true;
+			final Frame f = modelFrames[frameIdx];
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					final FastFrame frame = compiler.createFrame(fir, f, false);
+					if (frame instanceof CompiledFrame) {
+						ready.add(new Compiled(frameIdx, frame));
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Replaces the frames that have been compiled since the last call. This
+	 * must only be called between delta cycles.
+	 *
+	 * @return the number of frames that have been replaced
+	 */
+	public int install(FastFrame[] frames) {
+		int count = 0;
+		Compiled compiled;
+		while ((compiled = ready.poll()) != null) {
+			compiled.frame.disableEdge = frames[compiled.frameIdx].disableEdge;
+			frames[compiled.frameIdx] = compiled.frame;
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
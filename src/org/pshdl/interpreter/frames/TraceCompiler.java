@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import static org.pshdl.interpreter.utils.ClassFileWriter.*;
+
+import java.util.Arrays;
+
+import org.pshdl.interpreter.ExecutableModel;
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.IHDLInterpreter.Feature;
+import org.pshdl.interpreter.IHDLInterpreterFactory;
+import org.pshdl.interpreter.frames.BytecodeFrameCompiler.FrameLoader;
+import org.pshdl.interpreter.utils.ClassFileWriter;
+import org.pshdl.interpreter.utils.ClassFileWriter.Code;
+import org.pshdl.interpreter.utils.ClassFileWriter.Label;
+
+/**
+ * Records which frames are executed in the epsilon cycles of each delta cycle.
+ * Once no new frames have been executed for a number of delta cycles
+ * in a row, the frames that have been executed so far form the path that is
+ * compiled into a single {@link CompiledTrace}:
+ * <ul>
+ * <li>Frames on the path are inlined with the {@link BytecodeFrameCompiler}.
+ * When one of their guards fails they are simply skipped.</li>
+ * <li>Frames off the path only have their guards inlined. When all guards
+ * pass, the trace returns and the interpreter continues with its regular loop
+ * at that frame. Guards only mark edges as handled for the current epsilon
+ * cycle, so evaluating them a second time does no harm.</li>
+ * <li>Frames that can not be compiled are called through their
+ * {@link FastFrame}.</li>
+ * </ul>
+ * A trace that keeps returning early is discarded and the path is recorded
+ * again, now including the frames that caused the early returns.
+ */
+public class TraceCompiler {
+
+	public static class TraceFactory implements IHDLInterpreterFactory<FastSimpleInterpreter> {
+
+		private final ExecutableModel model;
+		private final boolean disableEdge, disabledRegOutputlogic;
+		private final int threshold;
+
+		public TraceFactory(ExecutableModel model, boolean disableEdge, boolean disabledRegOutputlogic, int threshold) {
+			super();
+			this.model = model;
+			this.disableEdge = disableEdge;
+			this.disabledRegOutputlogic = disabledRegOutputlogic;
+			this.threshold = threshold;
+		}
+
+		@Override
+		public FastSimpleInterpreter newInstance() {
+			final FastSimpleInterpreter fir = new FastSimpleInterpreter(model, disableEdge, disabledRegOutputlogic);
+			fir.setFeature(Feature.traceThreshold, threshold);
+			return fir;
+		}
+
+	}
+
+	/**
+	 * The number of bytes after which a new method is started. This keeps the
+	 * methods below the size that the JIT is willing to compile.
+	 */
+	private static final int CHUNK_SIZE = 6000;
+
+	private final FastSimpleInterpreter fir;
+	private final Frame[] modelFrames;
+	private final FastFrame[] frames;
+	private final boolean[] folded;
+	private final FrameLoader loader = new FrameLoader();
+	private final boolean[] path, union;
+	private boolean recording, failed;
+	private int hits, misses, threshold, classCounter;
+	private CompiledTrace trace;
+
+	public TraceCompiler(FastSimpleInterpreter fir, Frame[] modelFrames, FastFrame[] frames, boolean[] folded, int threshold) {
+		this.fir = fir;
+		this.modelFrames = modelFrames;
+		this.frames = frames;
+		this.folded = folded;
+		this.path = new boolean[frames.length];
+		this.union = new boolean[frames.length];
+		this.threshold = threshold;
+	}
+
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Executes the trace for an epsilon cycle if there is one, otherwise the
+	 * frames that the interpreter executes are recorded.
+	 *
+	 * @return the index of the frame where the regular loop has to continue
+	 */
+	public int execute(int deltaCycle, int epsCycle) {
+		if (epsCycle == 1) {
+			if (recording) {
+				recorded();
+			}
+			recording = (trace == null) && !failed;
+		}
+		if (trace != null) {
+			final int resume = trace.run(deltaCycle, epsCycle);
+			if (resume == frames.length) {
+				misses = 0;
+			} else if (++misses >= threshold) {
+				trace = null;
+				hits = 0;
+			}
+			return resume;
+		}
+		return 0;
+	}
+
+	/**
+	 * Records the result of a frame that the interpreter executed
+	 */
+	public void executed(int frameIdx, boolean executed) {
+		if (recording) {
+			path[frameIdx] = executed;
+		}
+	}
+
+	private void recorded() {
+		recording = false;
+		boolean grown = false;
+		for (int i = 0; i < path.length; i++) {
+			if (path[i] && !union[i]) {
+				union[i] = true;
+				grown = true;
+			}
+		}
+		Arrays.fill(path, false);
+		if (grown) {
+			hits = 1;
+		} else if (++hits >= threshold) {
+			compile();
+		}
+	}
+
+	/**
+	 * Discards the trace and starts to record a new one. This has to be called
+	 * whenever the frames that are executed change for reasons other than the
+	 * values in the storage.
+	 */
+	public void reset() {
+		trace = null;
+		recording = false;
+		failed = false;
+		hits = 0;
+		misses = 0;
+		Arrays.fill(union, false);
+	}
+
+	/**
+	 * @return <code>true</code> if a compiled trace is in use
+	 */
+	public boolean isCompiled() {
+		return trace != null;
+	}
+
+	private void compile() {
+		final String className = BytecodeFrameCompiler.PACKAGE + "Trace" + (classCounter++);
+		try {
+			final byte[] bytes = compile(className, union);
+			final Class<?> clazz = loader.define(className.replace('/', '.'), bytes);
+			final boolean disableEdge = (frames.length > 0) && frames[0].disableEdge;
+			trace = clazz.asSubclass(CompiledTrace.class).getConstructor(FastSimpleInterpreter.class, FastFrame[].class, boolean.class).newInstance(fir, frames, disableEdge);
+		} catch (final IllegalArgumentException | LinkageError | ReflectiveOperationException e) {
+			failed = true;
+		}
+		misses = 0;
+	}
+
+	private byte[] compile(String className, boolean[] path) {
+		final String superName = internalName(CompiledTrace.class);
+		final ClassFileWriter cw = new ClassFileWriter(ACC_PUBLIC | ACC_FINAL, className, superName);
+		final String ctorDesc = "(" + descriptor(FastSimpleInterpreter.class) + descriptor(FastFrame[].class) + "Z)V";
+		final Code init = cw.method(ACC_PUBLIC, "<init>", ctorDesc);
+		init.local(ALOAD, 0).local(ALOAD, 1).local(ALOAD, 2).local(ILOAD, 3);
+		init.invoke(INVOKESPECIAL, superName, "<init>", ctorDesc);
+		init.op(RETURN);
+		init.finish(4);
+		int chunks = 0;
+		int maxDepth = 0;
+		Code chunk = null;
+		for (int i = 0; i < frames.length; i++) {
+			if (folded[i]) {
+				continue;
+			}
+			if (chunk == null) {
+				chunk = cw.method(ACC_PRIVATE, "chunk" + chunks, "(II)I");
+				BytecodeFrameCompiler.loadStorage(chunk, className);
+				maxDepth = 0;
+			}
+			final Frame f = modelFrames[i];
+			final boolean compilable = BytecodeFrameCompiler.isCompilable(fir, f);
+			if (path[i] && compilable) {
+				final Label skip = chunk.newLabel();
+				BytecodeFrameCompiler.emitFrame(fir, f, className, chunk, skip);
+				chunk.mark(skip);
+				maxDepth = Math.max(maxDepth, BytecodeFrameCompiler.maxDepth(f));
+			} else if (!path[i] && compilable && BytecodeFrameCompiler.hasLeadingGuards(f)) {
+				final Label skip = chunk.newLabel();
+				BytecodeFrameCompiler.emitGuards(fir, f, className, chunk, skip);
+				chunk.local(ALOAD, 0).invoke(INVOKEVIRTUAL, className, "flush", "()V");
+				chunk.pushInt(i).op(IRETURN);
+				chunk.mark(skip);
+			} else {
+				chunk.local(ALOAD, 0).pushInt(i).local(ILOAD, 1).local(ILOAD, 2);
+				chunk.invoke(INVOKEVIRTUAL, className, "call", "(III)V");
+			}
+			if (chunk.size() > CHUNK_SIZE) {
+				finishChunk(chunk, className, maxDepth);
+				chunk = null;
+				chunks++;
+			}
+		}
+		if (chunk != null) {
+			finishChunk(chunk, className, maxDepth);
+			chunks++;
+		}
+		final Code run = cw.method(ACC_PUBLIC, "run", "(II)I");
+		final int resume = run.newLocal(1);
+		for (int i = 0; i < chunks; i++) {
+			final Label next = run.newLabel();
+			run.local(ALOAD, 0).local(ILOAD, 1).local(ILOAD, 2);
+			run.invoke(INVOKESPECIAL, className, "chunk" + i, "(II)I");
+			run.local(ISTORE, resume).local(ILOAD, resume).jump(IFLT, next);
+			run.local(ILOAD, resume).op(IRETURN);
+			run.mark(next);
+		}
+		run.pushInt(frames.length).op(IRETURN);
+		run.finish(3);
+		return cw.toByteArray();
+	}
+
+	private static void finishChunk(Code chunk, String className, int maxDepth) {
+		chunk.local(ALOAD, 0).invoke(INVOKEVIRTUAL, className, "flush", "()V");
+		chunk.pushInt(-1).op(IRETURN);
+		chunk.newLocal(1 + (maxDepth * 2));
+		chunk.finish(BytecodeFrameCompiler.MAX_STACK);
+	}
+}
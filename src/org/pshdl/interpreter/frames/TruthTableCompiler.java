@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.pshdl.interpreter.ExecutableModel;
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.FastSimpleInterpreter.IFrameFactory;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.IHDLInterpreterFactory;
+import org.pshdl.interpreter.frames.TruthTableFrame.Table;
+
+/**
+ * Replaces narrow combinational frames by a {@link TruthTableFrame}. A frame
+ * qualifies when it only loads scalar internals whose widths add up to at
+ * most the configured number of bits, and has no edges, predicates or
+ * dynamic indices. The tables are computed once per {@link Frame} and shared
+ * by all interpreters created by the same compiler. All other frames are
+ * created by the delegate.
+ */
+public class TruthTableCompiler implements IFrameFactory {
+
+	public static class TruthTableFactory implements IHDLInterpreterFactory<FastSimpleInterpreter> {
+
+		private final ExecutableModel model;
+		private final boolean disableEdge, disabledRegOutputlogic;
+		private final TruthTableCompiler compiler;
+
+		public TruthTableFactory(ExecutableModel model, boolean disableEdge, boolean disabledRegOutputlogic) {
+			this(model, disableEdge, disabledRegOutputlogic, DEFAULT_WIDTH);
+		}
+
+		public TruthTableFactory(ExecutableModel model, boolean disableEdge, boolean disabledRegOutputlogic, int maxWidth) {
+			super();
+			this.model = model;
+			this.disableEdge = disableEdge;
+			this.disabledRegOutputlogic = disabledRegOutputlogic;
+			this.compiler = new TruthTableCompiler(maxWidth, null);
+		}
+
+		@Override
+		public FastSimpleInterpreter newInstance() {
+			return new FastSimpleInterpreter(model, disableEdge, disabledRegOutputlogic, compiler);
+		}
+
+	}
+
+	/**
+	 * The default maximum number of input bits, which limits a table to 32KB
+	 */
+	public static final int DEFAULT_WIDTH = 12;
+	/**
+	 * The largest number of input bits that is supported at all
+	 */
+	public static final int MAX_WIDTH = 24;
+
+	private final int maxWidth;
+	private final IFrameFactory delegate;
+	private final Map<Frame, Table> tables = new IdentityHashMap<>();
+
+	/**
+	 * @param maxWidth
+	 *            the maximum number of input bits of a frame that is turned
+	 *            into a table
+	 * @param delegate
+	 *            the factory for all other frames, or <code>null</code> to
+	 *            create a {@link FastFrame}
+	 */
+	public TruthTableCompiler(int maxWidth, IFrameFactory delegate) {
+		if ((maxWidth < 0) || (maxWidth > MAX_WIDTH))
+			throw new IllegalArgumentException("The width has to be between 0 and " + MAX_WIDTH + " but was:" + maxWidth);
+		this.maxWidth = maxWidth;
+		this.delegate = delegate;
+	}
+
+	@Override
+	public FastFrame createFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge) {
+		final Table table = getTable(fir, f);
+		if (table != null)
+			return new TruthTableFrame(fir, f, disableEdge, table);
+		if (delegate != null)
+			return delegate.createFrame(fir, f, disableEdge);
+		return new FastFrame(fir, f, disableEdge);
+	}
+
+	private synchronized Table getTable(FastSimpleInterpreter fir, Frame f) {
+		if (tables.containsKey(f))
+			return tables.get(f);
+		final Table table = TruthTableFrame.createTable(fir, f, maxWidth);
+		tables.put(f, table);
+		return table;
+	}
+}
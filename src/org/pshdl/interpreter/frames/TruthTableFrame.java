@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.util.Arrays;
+
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.utils.Instruction;
+
+/**
+ * Executes a narrow combinational {@link Frame} with a lookup table. The bits
+ * of all internals that the frame loads are concatenated into an index, and
+ * the table holds the result of the frame for each index. This turns decoders,
+ * multiplexers and the like into a single array load.
+ */
+public final class TruthTableFrame extends FastFrame {
+
+	/**
+	 * The result of the frame for each combination of input bits, together
+	 * with the internals that make up the index
+	 */
+	public static final class Table {
+		/**
+		 * The internals that are loaded by the frame, the first one makes up
+		 * the lowest bits of the index
+		 */
+		public final int[] inputs;
+		public final long[] values;
+
+		public Table(int[] inputs, long[] values) {
+			this.inputs = inputs;
+			this.values = values;
+		}
+	}
+
+	private final long[] storage;
+	private final long[] values;
+	private final int[] inputIdx, inputShift, inputPos;
+	private final long[] inputMask;
+
+	public TruthTableFrame(FastSimpleInterpreter fir, Frame f, boolean disableEdge, Table table) {
+		super(fir, f, disableEdge);
+		this.storage = fir.storage;
+		this.values = table.values;
+		final int count = table.inputs.length;
+		this.inputIdx = new int[count];
+		this.inputShift = new int[count];
+		this.inputPos = new int[count];
+		this.inputMask = new long[count];
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			final LongAccess access = internals[table.inputs[i]];
+			inputIdx[i] = access.getAccessIndex();
+			inputShift[i] = access.shift;
+			inputMask[i] = access.mask;
+			inputPos[i] = pos;
+			pos += Long.bitCount(access.mask);
+		}
+	}
+
+	@Override
+	public boolean execute(int deltaCycle, int epsCycle) {
+		regUpdateCount = 0;
+		int index = 0;
+		for (int i = 0; i < inputIdx.length; i++) {
+			index |= (int) ((storage[inputIdx[i]] >> inputShift[i]) & inputMask[i]) << inputPos[i];
+		}
+		final long value = values[index];
+		for (final LongAccess longAccess : outputAccess) {
+			longAccess.setDataLong(value, deltaCycle, epsCycle);
+			if (longAccess.ii.isShadowReg) {
+				addRegUpdate(longAccess);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the lookup table for a frame.
+	 *
+	 * @param maxWidth
+	 *            the maximum number of input bits
+	 * @return the table, or <code>null</code> if the frame has more input
+	 *         bits, is not purely combinational, or uses instructions that are
+	 *         not supported
+	 */
+	public static Table createTable(FastSimpleInterpreter fir, Frame f, int maxWidth) {
+		if (f.outputIds.length == 0)
+			return null;
+		for (final int outputId : f.outputIds) {
+			if (!isScalar(fir.internals[outputId]))
+				return null;
+		}
+		int[] inputs = new int[0];
+		int width = 0;
+		int depth = 0;
+		for (final FastInstruction fi : f.instructions) {
+			if (!isSupported(fi))
+				return null;
+			if (fi.inst == Instruction.loadInternal) {
+				final LongAccess access = fir.internals[fi.arg1];
+				if (!isScalar(access))
+					return null;
+				if (indexOf(inputs, fi.arg1) == -1) {
+					inputs = Arrays.copyOf(inputs, inputs.length + 1);
+					inputs[inputs.length - 1] = fi.arg1;
+					width += Long.bitCount(access.mask);
+					if (width > maxWidth)
+						return null;
+				}
+			}
+			depth -= fi.inst.pop;
+			if (depth < 0)
+				return null;
+			depth += fi.inst.push;
+		}
+		if (depth != 1)
+			return null;
+		final long[] values = new long[1 << width];
+		final long[] loaded = new long[inputs.length];
+		final long[] stack = new long[f.maxStackDepth + 1];
+		for (int index = 0; index < values.length; index++) {
+			int pos = 0;
+			for (int i = 0; i < inputs.length; i++) {
+				final LongAccess access = fir.internals[inputs[i]];
+				final long raw = (index >>> pos) & access.mask;
+				loaded[i] = (raw << access.signShift) >> access.signShift;
+				pos += Long.bitCount(access.mask);
+			}
+			try {
+				values[index] = evaluate(f, inputs, loaded, stack);
+			} catch (final ArithmeticException e) {
+				// The frame fails for some inputs, which the table can not
+				// reproduce
+				return null;
+			}
+		}
+		return new Table(inputs, values);
+	}
+
+	private static boolean isScalar(LongAccess access) {
+		return (access.ii.info.dimensions.length == 0) && !access.isDynamicBit;
+	}
+
+	private static int indexOf(int[] array, int value) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == value)
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean isSupported(FastInstruction fi) {
+		switch (fi.inst) {
+		case noop:
+		case and:
+		case or:
+		case xor:
+		case plus:
+		case minus:
+		case mul:
+		case div:
+		case mod:
+		case pow:
+		case sll:
+		case sra:
+		case srl:
+		case arith_neg:
+		case bit_neg:
+		case bitAccessSingleRange:
+		case cast_int:
+		case cast_uint:
+		case concat:
+		case const0:
+		case const1:
+		case const2:
+		case constAll1:
+		case loadConstant:
+		case eq:
+		case not_eq:
+		case greater:
+		case greater_eq:
+		case less:
+		case less_eq:
+		case logiAnd:
+		case logiOr:
+		case logiNeg:
+		case loadInternal:
+			return true;
+		case bitAccessSingle:
+			return fi.arg1 != -1;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Evaluates the instructions of a frame with the same semantics as
+	 * {@link FastFrame}, but with the given values for the loaded internals
+	 */
+	private static long evaluate(Frame f, int[] inputs, long[] loaded, long[] stack) {
+		int stackPos = -1;
+		long a = 0, b = 0;
+		for (final FastInstruction fi : f.instructions) {
+			if (fi.popA) {
+				a = stack[stackPos--];
+			}
+			if (fi.popB) {
+				b = stack[stackPos--];
+			}
+			switch (fi.inst) {
+			case noop:
+				continue;
+			case and:
+				stack[++stackPos] = fixOp(b & a, fi.arg1);
+				break;
+			case or:
+				stack[++stackPos] = fixOp(b | a, fi.arg1);
+				break;
+			case xor:
+				stack[++stackPos] = fixOp(b ^ a, fi.arg1);
+				break;
+			case plus:
+				stack[++stackPos] = fixOp(b + a, fi.arg1);
+				break;
+			case minus:
+				stack[++stackPos] = fixOp(b - a, fi.arg1);
+				break;
+			case mul:
+				stack[++stackPos] = fixOp(b * a, fi.arg1);
+				break;
+			case div:
+				stack[++stackPos] = fixOp(b / a, fi.arg1);
+				break;
+			case mod:
+				stack[++stackPos] = fixOp(b % a, fi.arg1);
+				break;
+			case pow:
+				stack[++stackPos] = fixOp(pow(b, a), fi.arg1);
+				break;
+			case sll:
+				stack[++stackPos] = fixOp(b << a, fi.arg1);
+				break;
+			case sra:
+				stack[++stackPos] = fixOp(b >> a, fi.arg1);
+				break;
+			case srl:
+				stack[++stackPos] = fixOp(b >>> a, fi.arg1);
+				break;
+			case arith_neg:
+				stack[++stackPos] = fixOp(-a, fi.arg1);
+				break;
+			case bit_neg:
+				stack[++stackPos] = fixOp(~a, fi.arg1);
+				break;
+			case bitAccessSingle:
+				stack[++stackPos] = (a >> fi.arg1) & 1;
+				break;
+			case bitAccessSingleRange:
+				stack[++stackPos] = (a >> fi.arg2) & ((1l << ((fi.arg1 - fi.arg2) + 1)) - 1);
+				break;
+			case cast_int: {
+				final int shift = 64 - Math.min(fi.arg1, fi.arg2);
+				stack[++stackPos] = (a << shift) >> shift;
+				break;
+			}
+			case cast_uint:
+				stack[++stackPos] = fi.arg1 != 64 ? a & ((1l << fi.arg1) - 1) : a;
+				break;
+			case concat:
+				stack[++stackPos] = (b << fi.arg2) | a;
+				break;
+			case const0:
+				stack[++stackPos] = 0;
+				break;
+			case const1:
+				stack[++stackPos] = 1;
+				break;
+			case const2:
+				stack[++stackPos] = 2;
+				break;
+			case constAll1:
+				stack[++stackPos] = fi.arg1 == 64 ? 0xFFFFFFFFFFFFFFFFl : (1l << fi.arg1) - 1;
+				break;
+			case loadConstant:
+				stack[++stackPos] = f.constants[fi.arg1].longValue();
+				break;
+			case eq:
+				stack[++stackPos] = b == a ? 1 : 0;
+				break;
+			case not_eq:
+				stack[++stackPos] = b != a ? 1 : 0;
+				break;
+			case greater:
+				stack[++stackPos] = b > a ? 1 : 0;
+				break;
+			case greater_eq:
+				stack[++stackPos] = b >= a ? 1 : 0;
+				break;
+			case less:
+				stack[++stackPos] = b < a ? 1 : 0;
+				break;
+			case less_eq:
+				stack[++stackPos] = b <= a ? 1 : 0;
+				break;
+			case logiAnd:
+				stack[++stackPos] = (a != 0) && (b != 0) ? 1 : 0;
+				break;
+			case logiOr:
+				stack[++stackPos] = (a != 0) || (b != 0) ? 1 : 0;
+				break;
+			case logiNeg:
+				stack[++stackPos] = a == 0 ? 1 : 0;
+				break;
+			case loadInternal:
+				stack[++stackPos] = loaded[indexOf(inputs, fi.arg1)];
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported instruction:" + fi.inst);
+			}
+		}
+		return stack[0];
+	}
+}
@@ -0,0 +1,484 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.frames;
+
+import java.math.BigInteger;
+
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.HDLFrameInterpreter;
+import org.pshdl.interpreter.access.EncapsulatedAccess;
+import org.pshdl.interpreter.utils.WideMath;
+
+/**
+ * Executes frames that are wider than 64 bits without allocating. Every stack
+ * slot is a fixed number of limbs (see {@link WideMath}) that is large enough
+ * for the widest value of the frame plus one limb of headroom. Intermediate
+ * results wrap around at that width, which is fine as every result is cast to
+ * its target width before it is compared or written.
+ */
+public final class WideFrame extends ExecutableFrame {
+	/**
+	 * The number of limbs per stack slot
+	 */
+	private final int n;
+	private final long stack[];
+	private final long constants[];
+	private final long tmp[], t1[], t2[], t3[], t4[], divScratch[];
+	private final IDebugListener listener;
+
+	public WideFrame(IDebugListener listener, HDLFrameInterpreter fir, Frame f, EncapsulatedAccess internals[], EncapsulatedAccess internals_prev[]) {
+		super(fir, f, internals, internals_prev);
+		this.listener = listener;
+		this.n = WideMath.limbs(maxWidth(f)) + 1;
+		this.stack = new long[f.maxStackDepth * n];
+		this.constants = new long[f.constants.length * n];
+		for (int i = 0; i < f.constants.length; i++) {
+			WideMath.fromBig(f.constants[i], constants, i * n, n);
+		}
+		this.tmp = new long[6 * n];
+		this.t1 = new long[n];
+		this.t2 = new long[n];
+		this.t3 = new long[n];
+		this.t4 = new long[n];
+		this.divScratch = new long[(4 * n) + 1];
+	}
+
+	/**
+	 * The widest value this frame is going to load, produce or write
+	 */
+	private int maxWidth(Frame f) {
+		int width = f.maxDataWidth;
+		for (final BigInteger c : f.constants) {
+			width = Math.max(width, c.bitLength() + 1);
+		}
+		for (final FastInstruction fi : instructions) {
+			switch (fi.inst) {
+			case loadInternal:
+			case writeInternal:
+				width = Math.max(width, internals[fi.arg1].ii.info.width + 1);
+				break;
+			case constAll1:
+				width = Math.max(width, fi.arg1 + 1);
+				break;
+			case cast_int:
+			case cast_uint:
+				width = Math.max(width, Math.max(fi.arg1, fi.arg2) + 1);
+				break;
+			case concat:
+				width = Math.max(width, fi.arg1 + fi.arg2 + 1);
+				break;
+			case bitAccessSingleRange:
+				width = Math.max(width, fi.arg1 + 2);
+				break;
+			default:
+			}
+		}
+		for (final EncapsulatedAccess ea : outputAccess) {
+			width = Math.max(width, ea.ii.info.width + 1);
+		}
+		return width;
+	}
+
+	@Override
+	public void execute(int deltaCycle, int epsCycle) {
+		final long[] stack = this.stack;
+		final int n = this.n;
+		int stackPos = -1;
+		currentPos = 0;
+		int arrayPos = -1;
+		int bitPos = -1;
+		int a = 0, b = 0;
+		BigInteger bigA = null, bigB = null;
+		if (listener != null) {
+			listener.startFrame(uniqueID, deltaCycle, epsCycle, this);
+		}
+		for (final FastInstruction f : instructions) {
+			if (f.popA) {
+				a = (stackPos--) * n;
+			}
+			if (f.popB) {
+				b = (stackPos--) * n;
+			}
+			if (listener != null) {
+				bigA = f.popA ? WideMath.toBig(stack, a, n) : null;
+				bigB = f.popB ? WideMath.toBig(stack, b, n) : null;
+			}
+			switch (f.inst) {
+			case noop:
+				break;
+			case and: {
+				WideMath.and(stack, (++stackPos) * n, stack, a, n);
+				break;
+			}
+			case arith_neg: {
+				WideMath.negate(stack, (++stackPos) * n, n);
+				break;
+			}
+			case bit_neg: {
+				WideMath.not(stack, (++stackPos) * n, n);
+				break;
+			}
+			case bitAccessSingle: {
+				int bit = f.arg1;
+				if (bit == -1) {
+					bit = bitIndex[bitPos];
+					bitPos = -1;
+				}
+				final boolean set = (bit >= 0) && WideMath.testBit(stack, a, n, bit);
+				WideMath.setLong(stack, (++stackPos) * n, n, set ? 1 : 0);
+				break;
+			}
+			case bitAccessSingleRange: {
+				final int highBit = f.arg1;
+				final int lowBit = f.arg2;
+				final int res = (++stackPos) * n;
+				WideMath.shiftRight(stack, res, n, lowBit);
+				WideMath.maskLow(stack, res, n, (highBit - lowBit) + 1);
+				break;
+			}
+			case cast_int: {
+				// Same semantics as the LongFrame, re-interpret the lower bits
+				// as int and sign extend them
+				WideMath.signExtend(stack, (++stackPos) * n, n, Math.min(f.arg1, f.arg2));
+				break;
+			}
+			case cast_uint: {
+				WideMath.maskLow(stack, (++stackPos) * n, n, f.arg1);
+				break;
+			}
+			case concat: {
+				final int res = (++stackPos) * n;
+				WideMath.shiftLeft(stack, res, n, f.arg2);
+				WideMath.or(stack, res, stack, a, n);
+				break;
+			}
+			case const0:
+				WideMath.setLong(stack, (++stackPos) * n, n, 0);
+				break;
+			case const1:
+				WideMath.setLong(stack, (++stackPos) * n, n, 1);
+				break;
+			case const2:
+				WideMath.setLong(stack, (++stackPos) * n, n, 2);
+				break;
+			case constAll1: {
+				final int res = (++stackPos) * n;
+				WideMath.setLong(stack, res, n, -1);
+				WideMath.maskLow(stack, res, n, f.arg1);
+				break;
+			}
+			case div: {
+				if (WideMath.isZero(stack, a, n))
+					throw new ArithmeticException("Division by zero");
+				final boolean negative = WideMath.isNegative(stack, b, n) != WideMath.isNegative(stack, a, n);
+				divide(b, a);
+				if (negative) {
+					WideMath.negate(t3, 0, n);
+				}
+				System.arraycopy(t3, 0, stack, (++stackPos) * n, n);
+				break;
+			}
+			case mod: {
+				if (WideMath.isNegative(stack, a, n) || WideMath.isZero(stack, a, n))
+					throw new ArithmeticException("Modulus not positive");
+				final boolean negative = WideMath.isNegative(stack, b, n);
+				divide(b, a);
+				final int res = (++stackPos) * n;
+				if (negative && !WideMath.isZero(t4, 0, n)) {
+					// BigInteger.mod is never negative
+					System.arraycopy(t2, 0, stack, res, n);
+					WideMath.subtract(stack, res, t4, 0, n);
+				} else {
+					System.arraycopy(t4, 0, stack, res, n);
+				}
+				break;
+			}
+			case eq: {
+				final boolean res = WideMath.equal(stack, b, stack, a, n);
+				WideMath.setLong(stack, (++stackPos) * n, n, res ? 1 : 0);
+				break;
+			}
+			case not_eq: {
+				final boolean res = !WideMath.equal(stack, b, stack, a, n);
+				WideMath.setLong(stack, (++stackPos) * n, n, res ? 1 : 0);
+				break;
+			}
+			case greater: {
+				final boolean res = WideMath.compare(stack, b, stack, a, n) > 0;
+				WideMath.setLong(stack, (++stackPos) * n, n, res ? 1 : 0);
+				break;
+			}
+			case greater_eq: {
+				final boolean res = WideMath.compare(stack, b, stack, a, n) >= 0;
+				WideMath.setLong(stack, (++stackPos) * n, n, res ? 1 : 0);
+				break;
+			}
+			case less: {
+				final boolean res = WideMath.compare(stack, b, stack, a, n) < 0;
+				WideMath.setLong(stack, (++stackPos) * n, n, res ? 1 : 0);
+				break;
+			}
+			case less_eq: {
+				final boolean res = WideMath.compare(stack, b, stack, a, n) <= 0;
+				WideMath.setLong(stack, (++stackPos) * n, n, res ? 1 : 0);
+				break;
+			}
+			case loadConstant:
+				System.arraycopy(constants, f.arg1 * n, stack, (++stackPos) * n, n);
+				break;
+			case loadInternal:
+				getInternal(f.arg1, arrayPos).getDataWide(stack, (++stackPos) * n, n);
+				arrayPos = -1;
+				break;
+			case logiAnd: {
+				final boolean res = !WideMath.isZero(stack, b, n) && !WideMath.isZero(stack, a, n);
+				WideMath.setLong(stack, (++stackPos) * n, n, res ? 1 : 0);
+				break;
+			}
+			case logiOr: {
+				final boolean res = !WideMath.isZero(stack, b, n) || !WideMath.isZero(stack, a, n);
+				WideMath.setLong(stack, (++stackPos) * n, n, res ? 1 : 0);
+				break;
+			}
+			case logiNeg: {
+				final boolean res = WideMath.isZero(stack, a, n);
+				WideMath.setLong(stack, (++stackPos) * n, n, res ? 1 : 0);
+				break;
+			}
+			case minus: {
+				WideMath.subtract(stack, (++stackPos) * n, stack, a, n);
+				break;
+			}
+			case mul: {
+				WideMath.multiply(stack, b, stack, a, stack, (++stackPos) * n, tmp, n);
+				break;
+			}
+			case pow: {
+				int exp = (int) stack[a];
+				if (exp < 0)
+					throw new ArithmeticException("Negative exponent");
+				WideMath.setLong(t1, 0, n, 1);
+				System.arraycopy(stack, b, t2, 0, n);
+				while (exp != 0) {
+					if ((exp & 1) != 0) {
+						WideMath.multiply(t1, 0, t2, 0, t1, 0, tmp, n);
+					}
+					exp >>>= 1;
+					if (exp != 0) {
+						WideMath.multiply(t2, 0, t2, 0, t2, 0, tmp, n);
+					}
+				}
+				System.arraycopy(t1, 0, stack, (++stackPos) * n, n);
+				break;
+			}
+			case or: {
+				WideMath.or(stack, (++stackPos) * n, stack, a, n);
+				break;
+			}
+			case plus: {
+				WideMath.add(stack, (++stackPos) * n, stack, a, n);
+				break;
+			}
+			case sll: {
+				WideMath.shiftLeft(stack, (++stackPos) * n, n, (int) stack[a]);
+				break;
+			}
+			case sra: {
+				WideMath.shiftRight(stack, (++stackPos) * n, n, (int) stack[a]);
+				break;
+			}
+			case srl: {
+				final int shiftBy = (int) stack[a];
+				final int res = (++stackPos) * n;
+				if ((shiftBy != 0) && WideMath.isNegative(stack, res, n)) {
+					WideMath.shiftRight(stack, res, n, shiftBy);
+					WideMath.maskLow(stack, res, n, f.arg1 - shiftBy);
+				} else {
+					WideMath.shiftRight(stack, res, n, shiftBy);
+				}
+				break;
+			}
+			case xor: {
+				WideMath.xor(stack, (++stackPos) * n, stack, a, n);
+				break;
+			}
+			case isFallingEdge: {
+				final int off = f.arg1;
+				final EncapsulatedAccess access = getInternal(off, arrayPos);
+				arrayPos = -1;
+				if (access.skip(deltaCycle, epsCycle)) {
+					if (listener != null) {
+						listener.skippingHandledEdge(uniqueID, access.ii, false, this);
+					}
+					return;
+				}
+				final long curr = access.getDataLong();
+				final EncapsulatedAccess prevAccess = internals_prev[off];
+				prevAccess.offset = access.offset;
+				final long prev = prevAccess.getDataLong();
+				if ((prev != 1) || (curr != 0)) {
+					if (listener != null) {
+						listener.skippingNotAnEdge(uniqueID, access.ii, false, this);
+					}
+					return;
+				}
+				access.setLastUpdate(deltaCycle, epsCycle);
+				break;
+			}
+			case isRisingEdge: {
+				final int off = f.arg1;
+				final EncapsulatedAccess access = getInternal(off, arrayPos);
+				arrayPos = -1;
+				if (access.skip(deltaCycle, epsCycle)) {
+					if (listener != null) {
+						listener.skippingHandledEdge(uniqueID, access.ii, true, this);
+					}
+					return;
+				}
+				final long curr = access.getDataLong();
+				final EncapsulatedAccess prevAccess = internals_prev[off];
+				prevAccess.offset = access.offset;
+				final long prev = prevAccess.getDataLong();
+				if ((prev != 0) || (curr != 1)) {
+					if (listener != null) {
+						listener.skippingNotAnEdge(uniqueID, access.ii, true, this);
+					}
+					return;
+				}
+				access.setLastUpdate(deltaCycle, epsCycle);
+				break;
+			}
+			case posPredicate: {
+				final int off = f.arg1;
+				final EncapsulatedAccess access = getInternal(off, arrayPos);
+				arrayPos = -1;
+				// If data is not from this deltaCycle it was not
+				// updated that means prior predicates failed
+				if (!access.isFresh(deltaCycle, epsCycle)) {
+					if (listener != null) {
+						listener.skippingPredicateNotFresh(uniqueID, access.ii, true, this);
+					}
+					return;
+				}
+				if (access.getDataLong() == 0) {
+					if (listener != null) {
+						listener.skippingPredicateNotMet(uniqueID, access.ii, true, BigInteger.ZERO, this);
+					}
+					return;
+				}
+				break;
+			}
+			case negPredicate: {
+				final int off = f.arg1;
+				final EncapsulatedAccess access = getInternal(off, arrayPos);
+				arrayPos = -1;
+				// If data is not from this deltaCycle it was not
+				// updated that means prior predicates failed
+				if (!access.isFresh(deltaCycle, epsCycle)) {
+					if (listener != null) {
+						listener.skippingPredicateNotFresh(uniqueID, access.ii, false, this);
+					}
+					return;
+				}
+				final long data = access.getDataLong();
+				if (data != 0) {
+					if (listener != null) {
+						listener.skippingPredicateNotMet(uniqueID, access.ii, false, BigInteger.valueOf(data), this);
+					}
+					return;
+				}
+				break;
+			}
+			case pushAddIndex:
+				if (f.arg2 == 0) {
+					writeIndex[++arrayPos] = (int) stack[a];
+				} else {
+					bitIndex[++bitPos] = (int) stack[a];
+				}
+				break;
+			case writeInternal:
+				final int off = f.arg1;
+				final EncapsulatedAccess access = getInternal(off, -1);
+				access.fillDataWide(arrayPos, writeIndex, stack, a, n, deltaCycle, epsCycle);
+				arrayPos = -1;
+				break;
+			default:
+			}
+			if (listener != null)
+				if (stackPos >= 0) {
+					final BigInteger res = WideMath.toBig(stack, stackPos * n, n);
+					if (f.popB) {
+						listener.twoArgOp(uniqueID, bigB, f, bigA, res, this);
+					} else if (f.popA) {
+						listener.oneArgOp(uniqueID, f, bigA, res, this);
+					} else {
+						listener.noArgOp(uniqueID, f, res, this);
+					}
+				} else {
+					listener.emptyStack(uniqueID, f, this);
+				}
+		}
+		for (final EncapsulatedAccess encapsulatedAccess : outputAccess) {
+			if (arrayPos != -1) {
+				encapsulatedAccess.setOffset(writeIndex);
+			}
+			if (bitPos != -1) {
+				encapsulatedAccess.setBitOffset(bitIndex[bitPos]);
+			}
+			encapsulatedAccess.setDataWide(stack, 0, n, deltaCycle, epsCycle);
+			if (listener != null) {
+				listener.writingResult(uniqueID, encapsulatedAccess.ii, WideMath.toBig(stack, 0, n), this);
+			}
+		}
+	}
+
+	/**
+	 * Divides the magnitude of the slot at num by the magnitude of the slot at
+	 * den. The quotient ends up in {@link #t3}, the remainder in {@link #t4}
+	 * and the magnitude of den in {@link #t2}.
+	 */
+	private void divide(int num, int den) {
+		System.arraycopy(stack, num, t1, 0, n);
+		if (WideMath.isNegative(t1, 0, n)) {
+			WideMath.negate(t1, 0, n);
+		}
+		System.arraycopy(stack, den, t2, 0, n);
+		if (WideMath.isNegative(t2, 0, n)) {
+			WideMath.negate(t2, 0, n);
+		}
+		WideMath.divideUnsigned(t1, 0, t2, 0, t3, 0, t4, 0, n, divScratch);
+	}
+
+	public EncapsulatedAccess getInternal(int off, int arrayPos) {
+		final EncapsulatedAccess res = internals[off];
+		if (arrayPos != -1) {
+			res.setOffset(writeIndex);
+		}
+		return res;
+	}
+}
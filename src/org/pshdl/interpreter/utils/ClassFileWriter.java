@@ -0,0 +1,501 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A very small class file assembler. It only supports what is needed to
+ * generate straight forward code, that is a single class with methods but
+ * without own fields, exception handlers or debug information. The generated
+ * classes use the class file version 49, so no StackMapTable is required and
+ * the JVM verifies them with the type inferencing verifier.
+ */
+public class ClassFileWriter {
+
+	public static final int ACC_PUBLIC = 0x0001;
+	public static final int ACC_PRIVATE = 0x0002;
+	public static final int ACC_FINAL = 0x0010;
+	public static final int ACC_SUPER = 0x0020;
+
+	public static final int ICONST_0 = 0x03;
+	public static final int ICONST_1 = 0x04;
+	public static final int LCONST_0 = 0x09;
+	public static final int LCONST_1 = 0x0a;
+	public static final int BIPUSH = 0x10;
+	public static final int SIPUSH = 0x11;
+	public static final int LDC = 0x12;
+	public static final int LDC_W = 0x13;
+	public static final int LDC2_W = 0x14;
+	public static final int ILOAD = 0x15;
+	public static final int LLOAD = 0x16;
+	public static final int ALOAD = 0x19;
+	public static final int LALOAD = 0x2f;
+	public static final int AALOAD = 0x32;
+	public static final int ISTORE = 0x36;
+	public static final int LSTORE = 0x37;
+	public static final int ASTORE = 0x3a;
+	public static final int IASTORE = 0x4f;
+	public static final int LASTORE = 0x50;
+	public static final int POP = 0x57;
+	public static final int POP2 = 0x58;
+	public static final int DUP = 0x59;
+	public static final int DUP2 = 0x5c;
+	public static final int DUP2_X2 = 0x5e;
+	public static final int IADD = 0x60;
+	public static final int LADD = 0x61;
+	public static final int LSUB = 0x65;
+	public static final int LMUL = 0x69;
+	public static final int LDIV = 0x6d;
+	public static final int LREM = 0x71;
+	public static final int LNEG = 0x75;
+	public static final int LSHL = 0x79;
+	public static final int LSHR = 0x7b;
+	public static final int LUSHR = 0x7d;
+	public static final int IAND = 0x7e;
+	public static final int LAND = 0x7f;
+	public static final int LOR = 0x81;
+	public static final int LXOR = 0x83;
+	public static final int I2L = 0x85;
+	public static final int L2I = 0x88;
+	public static final int LCMP = 0x94;
+	public static final int IFEQ = 0x99;
+	public static final int IFNE = 0x9a;
+	public static final int IFLT = 0x9b;
+	public static final int IFGE = 0x9c;
+	public static final int IFGT = 0x9d;
+	public static final int IFLE = 0x9e;
+	public static final int IF_ICMPEQ = 0x9f;
+	public static final int IF_ICMPNE = 0xa0;
+	public static final int IF_ICMPLT = 0xa1;
+	public static final int IF_ICMPGE = 0xa2;
+	public static final int GOTO = 0xa7;
+	public static final int IRETURN = 0xac;
+	public static final int LRETURN = 0xad;
+	public static final int RETURN = 0xb1;
+	public static final int GETFIELD = 0xb4;
+	public static final int PUTFIELD = 0xb5;
+	public static final int INVOKEVIRTUAL = 0xb6;
+	public static final int INVOKESPECIAL = 0xb7;
+	public static final int INVOKESTATIC = 0xb8;
+	public static final int INVOKEINTERFACE = 0xb9;
+
+	private static final int CLASS_VERSION = 49;
+
+	private static final int CONSTANT_Utf8 = 1;
+	private static final int CONSTANT_Integer = 3;
+	private static final int CONSTANT_Long = 5;
+	private static final int CONSTANT_Class = 7;
+	private static final int CONSTANT_Fieldref = 9;
+	private static final int CONSTANT_Methodref = 10;
+	private static final int CONSTANT_InterfaceMethodref = 11;
+	private static final int CONSTANT_NameAndType = 12;
+
+	/**
+	 * A branch target within a {@link Code} block
+	 */
+	public static class Label {
+		private int position = -1;
+		private final List<Integer> fixups = new ArrayList<>();
+	}
+
+	/**
+	 * The byte code of a single method
+	 */
+	public class Code {
+		private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+		private final int access;
+		private final int name;
+		private final int desc;
+		private final List<Label> labels = new ArrayList<>();
+		private int maxLocals;
+		private int maxStack;
+
+		private Code(int access, String name, String desc, int argWords) {
+			this.access = access;
+			this.name = utf8(name);
+			this.desc = utf8(desc);
+			this.maxLocals = argWords;
+		}
+
+		public Code op(int opcode) {
+			code.write(opcode);
+			return this;
+		}
+
+		public Code op1(int opcode, int arg) {
+			code.write(opcode);
+			code.write(arg);
+			return this;
+		}
+
+		public Code op2(int opcode, int arg) {
+			code.write(opcode);
+			code.write(arg >> 8);
+			code.write(arg);
+			return this;
+		}
+
+		/**
+		 * Allocates a new local variable
+		 *
+		 * @param words
+		 *            1 for int and references, 2 for long
+		 * @return the index of the new local
+		 */
+		public int newLocal(int words) {
+			final int res = maxLocals;
+			maxLocals += words;
+			return res;
+		}
+
+		public Code local(int opcode, int idx) {
+			if (idx > 0xFF)
+				throw new IllegalArgumentException("Too many locals:" + idx);
+			return op1(opcode, idx);
+		}
+
+		public Code pushInt(int value) {
+			if ((value >= -1) && (value <= 5))
+				return op(ICONST_0 + value);
+			if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE))
+				return op1(BIPUSH, value);
+			if ((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE))
+				return op2(SIPUSH, value);
+			final int idx = intConst(value);
+			if (idx <= 0xFF)
+				return op1(LDC, idx);
+			return op2(LDC_W, idx);
+		}
+
+		public Code pushLong(long value) {
+			if (value == 0)
+				return op(LCONST_0);
+			if (value == 1)
+				return op(LCONST_1);
+			return op2(LDC2_W, longConst(value));
+		}
+
+		public Code field(int opcode, String owner, String name, String desc) {
+			return op2(opcode, fieldRef(owner, name, desc));
+		}
+
+		public Code invoke(int opcode, String owner, String name, String desc) {
+			if (opcode == INVOKEINTERFACE) {
+				op2(opcode, interfaceMethodRef(owner, name, desc));
+				code.write(argumentWords(desc) + 1);
+				code.write(0);
+				return this;
+			}
+			return op2(opcode, methodRef(owner, name, desc));
+		}
+
+		/**
+		 * Creates a new label that can be used as branch target within this
+		 * method
+		 *
+		 * @return a new label
+		 */
+		public Label newLabel() {
+			final Label label = new Label();
+			labels.add(label);
+			return label;
+		}
+
+		public Code jump(int opcode, Label target) {
+			code.write(opcode);
+			if (target.position != -1) {
+				final int offset = target.position - (code.size() - 1);
+				code.write(offset >> 8);
+				code.write(offset);
+			} else {
+				target.fixups.add(code.size() - 1);
+				code.write(0);
+				code.write(0);
+			}
+			return this;
+		}
+
+		public Code mark(Label label) {
+			label.position = code.size();
+			return this;
+		}
+
+		public int size() {
+			return code.size();
+		}
+
+		/**
+		 * Finishes this method.
+		 *
+		 * @param maxStack
+		 *            the maximum depth of the operand stack in words
+		 */
+		public void finish(int maxStack) {
+			this.maxStack = maxStack;
+		}
+
+		private byte[] resolve() {
+			final byte[] res = code.toByteArray();
+			if (res.length > 0xFFFF)
+				throw new IllegalArgumentException("Method too large:" + res.length);
+			for (final Label l : labels) {
+				if (l.fixups.isEmpty()) {
+					continue;
+				}
+				if (l.position == -1)
+					throw new IllegalArgumentException("Label has not been marked");
+				for (final int pos : l.fixups) {
+					final int offset = l.position - pos;
+					if ((offset < Short.MIN_VALUE) || (offset > Short.MAX_VALUE))
+						throw new IllegalArgumentException("Branch offset too large:" + offset);
+					res[pos + 1] = (byte) (offset >> 8);
+					res[pos + 2] = (byte) offset;
+				}
+			}
+			return res;
+		}
+	}
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolOut = new DataOutputStream(pool);
+	private final Map<String, Integer> poolIdx = new LinkedHashMap<>();
+	private int poolSize = 1;
+	private final List<Code> methods = new ArrayList<>();
+	private final int thisClass;
+	private final int superClass;
+	private final int access;
+
+	/**
+	 * @param access
+	 *            the access flags of the class
+	 * @param className
+	 *            the internal name of the class, such as
+	 *            <code>org/pshdl/Test</code>
+	 * @param superName
+	 *            the internal name of the super class
+	 */
+	public ClassFileWriter(int access, String className, String superName) {
+		this.access = access | ACC_SUPER;
+		this.thisClass = classRef(className);
+		this.superClass = classRef(superName);
+	}
+
+	public static String internalName(Class<?> clazz) {
+		return clazz.getName().replace('.', '/');
+	}
+
+	public static String descriptor(Class<?> clazz) {
+		if (clazz == long.class)
+			return "J";
+		if (clazz == int.class)
+			return "I";
+		if (clazz == boolean.class)
+			return "Z";
+		if (clazz == void.class)
+			return "V";
+		if (clazz.isArray())
+			return clazz.getName().replace('.', '/');
+		return "L" + internalName(clazz) + ";";
+	}
+
+	private static int argumentWords(String desc) {
+		int words = 0;
+		int i = 1;
+		while (desc.charAt(i) != ')') {
+			final char c = desc.charAt(i);
+			switch (c) {
+			case 'J':
+			case 'D':
+				words += 2;
+				i++;
+				break;
+			case '[':
+				while (desc.charAt(i) == '[') {
+					i++;
+				}
+				if (desc.charAt(i) == 'L') {
+					i = desc.indexOf(';', i);
+				}
+				words++;
+				i++;
+				break;
+			case 'L':
+				i = desc.indexOf(';', i) + 1;
+				words++;
+				break;
+			default:
+				words++;
+				i++;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Creates a new method.
+	 *
+	 * @param access
+	 *            the access flags
+	 * @param name
+	 *            the name of the method
+	 * @param desc
+	 *            the method descriptor
+	 * @return a {@link Code} to emit the body into
+	 */
+	public Code method(int access, String name, String desc) {
+		final Code res = new Code(access, name, desc, argumentWords(desc) + 1);
+		methods.add(res);
+		return res;
+	}
+
+	private int entry(String key, int tag, int size, Object... values) {
+		final Integer existing = poolIdx.get(key);
+		if (existing != null)
+			return existing;
+		try {
+			poolOut.writeByte(tag);
+			for (final Object o : values) {
+				if (o instanceof String) {
+					poolOut.writeUTF((String) o);
+				} else if (o instanceof Long) {
+					poolOut.writeLong((Long) o);
+				} else if (o instanceof Integer) {
+					if (tag == CONSTANT_Integer) {
+						poolOut.writeInt((Integer) o);
+					} else {
+						poolOut.writeShort((Integer) o);
+					}
+				}
+			}
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+		final int res = poolSize;
+		poolSize += size;
+		poolIdx.put(key, res);
+		return res;
+	}
+
+	public int utf8(String value) {
+		return entry("U" + value, CONSTANT_Utf8, 1, value);
+	}
+
+	public int intConst(int value) {
+		return entry("I" + value, CONSTANT_Integer, 1, value);
+	}
+
+	public int longConst(long value) {
+		return entry("J" + value, CONSTANT_Long, 2, value);
+	}
+
+	public int classRef(String internalName) {
+		final int name = utf8(internalName);
+		return entry("C" + internalName, CONSTANT_Class, 1, name);
+	}
+
+	private int nameAndType(String name, String desc) {
+		final int n = utf8(name);
+		final int d = utf8(desc);
+		return entry("N" + name + ' ' + desc, CONSTANT_NameAndType, 1, n, d);
+	}
+
+	public int fieldRef(String owner, String name, String desc) {
+		final int c = classRef(owner);
+		final int nt = nameAndType(name, desc);
+		return entry("F" + owner + '.' + name + ' ' + desc, CONSTANT_Fieldref, 1, c, nt);
+	}
+
+	public int methodRef(String owner, String name, String desc) {
+		final int c = classRef(owner);
+		final int nt = nameAndType(name, desc);
+		return entry("M" + owner + '.' + name + desc, CONSTANT_Methodref, 1, c, nt);
+	}
+
+	public int interfaceMethodRef(String owner, String name, String desc) {
+		final int c = classRef(owner);
+		final int nt = nameAndType(name, desc);
+		return entry("IM" + owner + '.' + name + desc, CONSTANT_InterfaceMethodref, 1, c, nt);
+	}
+
+	public byte[] toByteArray() {
+		final List<byte[]> bodies = new ArrayList<>();
+		for (final Code m : methods) {
+			final byte[] body = m.resolve();
+			bodies.add(body);
+		}
+		final int codeAttr = utf8("Code");
+		try {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(baos);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(CLASS_VERSION);
+			poolOut.flush();
+			out.writeShort(poolSize);
+			out.write(pool.toByteArray());
+			out.writeShort(access);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			// interfaces
+			out.writeShort(0);
+			// fields
+			out.writeShort(0);
+			out.writeShort(methods.size());
+			for (int i = 0; i < methods.size(); i++) {
+				final Code m = methods.get(i);
+				final byte[] body = bodies.get(i);
+				out.writeShort(m.access);
+				out.writeShort(m.name);
+				out.writeShort(m.desc);
+				out.writeShort(1);
+				out.writeShort(codeAttr);
+				out.writeInt(12 + body.length);
+				out.writeShort(m.maxStack);
+				out.writeShort(m.maxLocals);
+				out.writeInt(body.length);
+				out.write(body);
+				// exception table
+				out.writeShort(0);
+				// attributes
+				out.writeShort(0);
+			}
+			// attributes
+			out.writeShort(0);
+			out.flush();
+			return baos.toByteArray();
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
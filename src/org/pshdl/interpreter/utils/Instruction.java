@@ -87,6 +87,16 @@ public enum Instruction {
 	// Memory
 	pushAddIndex(1, 0, "Pushes an additional index into the write stack for that memory", "internalIdx", "bitIdx"), //
 	writeInternal(1, 0, "Writes a value to an internal (and every array position)", "internalIdx"), //
+	// Fused instructions, only created at load time by InstructionFusion and
+	// never serialized
+	loadInternalEqConst(0, 1, "Fused loadInternal, loadConstant, eq", "internalIdx", "constantIdx"), //
+	loadInternalNotEqConst(0, 1, "Fused loadInternal, loadConstant, not_eq", "internalIdx", "constantIdx"), //
+	loadInternalCastUintWrite(0, 0, "Fused loadInternal, cast_uint, writeInternal", "internalIdx", "targetSize", "writeIdx"), //
+	posPredicate2(0, 0, "Fused posPredicate, posPredicate", "internalIdx", "secondIdx"), //
+	plus1(1, 1, "Fused const1, plus", "targetSizeWithType"), //
+	minus1(1, 1, "Fused const1, minus", "targetSizeWithType"), //
+	eq0(1, 1, "Fused const0, eq"), //
+	not_eq0(1, 1, "Fused const0, not_eq"), //
 	;
 	public final int argCount;
 	public final String description;
@@ -106,6 +116,14 @@ public enum Instruction {
 		this.args = args;
 	}
 
+	/**
+	 * @return <code>true</code> if this instruction is a superinstruction
+	 *         that only exists in the fused instruction stream of a frame
+	 */
+	public boolean isFused() {
+		return ordinal() >= loadInternalEqConst.ordinal();
+	}
+
 	public int toByte() {
 		if (argCount == 1)
 			return ordinal() | 0x40;
@@ -119,6 +137,9 @@ public enum Instruction {
 		f.format("Name                  |byte| Stack|Description   | first argument | second argument%n");
 		f.format(":--------------------:|----|------|--------------|----------------|----------------%n");
 		for (final Instruction i : Instruction.values()) {
+			if (i.isFused()) {
+				continue;
+			}
 			f.format("%21s |0x%02X| %s | %s | %s | %s%n", i.name(), i.toByte(), toStack(i), i.description, i.argCount > 0 ? i.args[0] : "", i.argCount > 1 ? i.args[1] : "");
 		}
 		System.out.println(f);
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pshdl.interpreter.Frame.FastInstruction;
+
+/**
+ * A peephole pass that rewrites common instruction sequences into a single
+ * fused instruction. The result is only meant for the long based frames and
+ * is never written back into the {@link org.pshdl.interpreter.Frame}, so
+ * serialized models and all other executors keep seeing the plain instruction
+ * stream.
+ */
+public class InstructionFusion {
+
+	public static FastInstruction[] fuse(FastInstruction[] instructions) {
+		final List<FastInstruction> res = new ArrayList<>(instructions.length);
+		int i = 0;
+		while (i < instructions.length) {
+			final FastInstruction fi = instructions[i];
+			final Instruction next = i + 1 < instructions.length ? instructions[i + 1].inst : null;
+			final Instruction third = i + 2 < instructions.length ? instructions[i + 2].inst : null;
+			switch (fi.inst) {
+			case loadInternal:
+				if (next == Instruction.loadConstant) {
+					if (third == Instruction.eq) {
+						res.add(new FastInstruction(Instruction.loadInternalEqConst, fi.arg1, instructions[i + 1].arg1));
+						i += 3;
+						continue;
+					}
+					if (third == Instruction.not_eq) {
+						res.add(new FastInstruction(Instruction.loadInternalNotEqConst, fi.arg1, instructions[i + 1].arg1));
+						i += 3;
+						continue;
+					}
+				}
+				if ((next == Instruction.cast_uint) && (third == Instruction.writeInternal)) {
+					res.add(new FastInstruction(Instruction.loadInternalCastUintWrite, fi.arg1, instructions[i + 1].arg1, instructions[i + 2].arg1));
+					i += 3;
+					continue;
+				}
+				break;
+			case posPredicate:
+				if (next == Instruction.posPredicate) {
+					res.add(new FastInstruction(Instruction.posPredicate2, fi.arg1, instructions[i + 1].arg1));
+					i += 2;
+					continue;
+				}
+				break;
+			case const0:
+				if (next == Instruction.eq) {
+					res.add(new FastInstruction(Instruction.eq0, 0, 0));
+					i += 2;
+					continue;
+				}
+				if (next == Instruction.not_eq) {
+					res.add(new FastInstruction(Instruction.not_eq0, 0, 0));
+					i += 2;
+					continue;
+				}
+				break;
+			case const1:
+				if (next == Instruction.plus) {
+					res.add(new FastInstruction(Instruction.plus1, instructions[i + 1].arg1, 0));
+					i += 2;
+					continue;
+				}
+				if (next == Instruction.minus) {
+					res.add(new FastInstruction(Instruction.minus1, instructions[i + 1].arg1, 0));
+					i += 2;
+					continue;
+				}
+				break;
+			default:
+			}
+			res.add(fi);
+			i++;
+		}
+		if (res.size() == instructions.length)
+			return instructions;
+		return res.toArray(new FastInstruction[res.size()]);
+	}
+
+}
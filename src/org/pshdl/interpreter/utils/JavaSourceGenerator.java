@@ -0,0 +1,488 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.pshdl.interpreter.ExecutableModel;
+import org.pshdl.interpreter.FastSimpleInterpreter;
+import org.pshdl.interpreter.FastSimpleInterpreter.LongAccess;
+import org.pshdl.interpreter.Frame;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.GeneratedInterpreter;
+import org.pshdl.interpreter.VariableInformation;
+
+/**
+ * Generates the Java source of a {@link GeneratedInterpreter} for an
+ * {@link ExecutableModel}. Each frame becomes a method with straight line
+ * code and fixed storage indices, so the model can be compiled ahead of time
+ * and does not need to be loaded, sorted or set up at runtime. The generated
+ * code has the same semantics as the {@link FastSimpleInterpreter}.
+ *
+ * Models with dynamic array or bit indices, functions or strings are not
+ * supported.
+ */
+public class JavaSourceGenerator {
+
+	/**
+	 * The number of frames or variables that are put into one class or method,
+	 * to stay within the limits of the class file format
+	 */
+	private static final int PART_SIZE = 512;
+
+	private final ExecutableModel model;
+	private final FastSimpleInterpreter fir;
+	private final boolean[] constant;
+	private final StringBuilder sb = new StringBuilder();
+	private String className;
+
+	public JavaSourceGenerator(ExecutableModel model) {
+		this.model = model;
+		this.fir = new FastSimpleInterpreter(model, false, false);
+		this.constant = model.getConstantFrames();
+	}
+
+	/**
+	 * Generates the source of a class with the given name
+	 *
+	 * @param packageName
+	 *            the package of the class, or <code>null</code> for the
+	 *            default package
+	 * @throws IllegalArgumentException
+	 *             if the model uses features that are not supported
+	 */
+	public String generate(String packageName, String className) {
+		sb.setLength(0);
+		this.className = className;
+		final Frame[] frames = model.frames;
+		for (final Frame f : frames) {
+			final String reason = checkSupported(f);
+			if (reason != null)
+				throw new IllegalArgumentException("Frame " + f.uniqueID + " can not be generated: " + reason);
+		}
+		final int parts = Math.max(1, ((frames.length + PART_SIZE) - 1) / PART_SIZE);
+		if (packageName != null) {
+			sb.append("package ").append(packageName).append(";\n\n");
+		}
+		sb.append("import org.pshdl.interpreter.GeneratedInterpreter;\n");
+		sb.append("import org.pshdl.interpreter.VariableInformation;\n");
+		sb.append("import org.pshdl.interpreter.VariableInformation.Direction;\n");
+		sb.append("import org.pshdl.interpreter.VariableInformation.Type;\n\n");
+		sb.append("/**\n * Generated from ").append(escapeComment(model.moduleName)).append(", do not edit\n */\n");
+		sb.append("public final class ").append(className).append(" extends GeneratedInterpreter {\n\n");
+		for (int p = 0; p < parts; p++) {
+			sb.append("\tprivate final Frames").append(p).append(" frames").append(p).append(" = new Frames").append(p).append("();\n");
+		}
+		sb.append("\n\tpublic ").append(className).append("() {\n");
+		sb.append("\t\tsuper(createVariables(), ").append(frames.length).append(");\n");
+		sb.append("\t}\n\n");
+		generateVariables();
+		sb.append("\t@Override\n\tprotected void executeFrames(int deltaCycle, int epsCycle) {\n");
+		for (int p = 0; p < parts; p++) {
+			sb.append("\t\tframes").append(p).append(".execute(deltaCycle, epsCycle);\n");
+		}
+		sb.append("\t}\n\n");
+		sb.append("\t@Override\n\tprotected void executeConstantFrames(int deltaCycle) {\n");
+		for (int p = 0; p < parts; p++) {
+			sb.append("\t\tframes").append(p).append(".executeConstant(deltaCycle);\n");
+		}
+		sb.append("\t}\n");
+		for (int p = 0; p < parts; p++) {
+			generatePart(p, p * PART_SIZE, Math.min(frames.length, (p + 1) * PART_SIZE));
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private void generateVariables() {
+		final VariableInformation[] vars = model.variables;
+		sb.append("\tprivate static VariableInformation[] createVariables() {\n");
+		sb.append("\t\tfinal VariableInformation[] vars = new VariableInformation[").append(vars.length).append("];\n");
+		for (int start = 0; start < vars.length; start += PART_SIZE) {
+			sb.append("\t\tcreateVariables").append(start / PART_SIZE).append("(vars);\n");
+		}
+		sb.append("\t\treturn vars;\n");
+		sb.append("\t}\n\n");
+		for (int start = 0; start < vars.length; start += PART_SIZE) {
+			sb.append("\tprivate static void createVariables").append(start / PART_SIZE).append("(VariableInformation[] vars) {\n");
+			for (int i = start; i < Math.min(vars.length, start + PART_SIZE); i++) {
+				final VariableInformation vi = vars[i];
+				sb.append("\t\tvars[").append(i).append("] = new VariableInformation(Direction.").append(vi.dir.name()).append(", ").append(string(vi.name));
+				sb.append(", ").append(vi.width).append(", Type.").append(vi.type.name()).append(", ").append(vi.isRegister).append(", ").append(vi.isClock);
+				sb.append(", ").append(vi.isReset).append(", ");
+				if (vi.annotations == null) {
+					sb.append("null");
+				} else {
+					sb.append("new String[] {");
+					for (int j = 0; j < vi.annotations.length; j++) {
+						sb.append(j == 0 ? " " : ", ").append(string(vi.annotations[j]));
+					}
+					sb.append(" }");
+				}
+				sb.append(", new int[] {");
+				for (int j = 0; j < vi.dimensions.length; j++) {
+					sb.append(j == 0 ? " " : ", ").append(vi.dimensions[j]);
+				}
+				sb.append(" });\n");
+			}
+			sb.append("\t}\n\n");
+		}
+	}
+
+	private void generatePart(int part, int start, int end) {
+		sb.append("\n\tprivate final class Frames").append(part).append(" {\n\n");
+		sb.append("\t\tvoid execute(int deltaCycle, int epsCycle) {\n");
+		for (int i = start; i < end; i++) {
+			if (constant[i]) {
+				sb.append("\t\t\tif (!folded[").append(i).append("]) {\n\t\t\t\tframe").append(i).append("(deltaCycle, epsCycle);\n\t\t\t}\n");
+			} else {
+				sb.append("\t\t\tframe").append(i).append("(deltaCycle, epsCycle);\n");
+			}
+		}
+		sb.append("\t\t}\n\n");
+		sb.append("\t\tvoid executeConstant(int deltaCycle) {\n");
+		for (int i = start; i < end; i++) {
+			if (constant[i]) {
+				sb.append("\t\t\tif (!folded[").append(i).append("]) {\n");
+				sb.append("\t\t\t\tframe").append(i).append("(deltaCycle, 0);\n");
+				sb.append("\t\t\t\tfolded[").append(i).append("] = true;\n\t\t\t}\n");
+			}
+		}
+		sb.append("\t\t}\n");
+		for (int i = start; i < end; i++) {
+			generateFrame(i, model.frames[i]);
+		}
+		sb.append("\t}\n");
+	}
+
+	private void generateFrame(int idx, Frame f) {
+		int maxDepth = 1, depth = 0;
+		for (final FastInstruction fi : f.instructions) {
+			depth += fi.inst.push - fi.inst.pop;
+			maxDepth = Math.max(maxDepth, depth);
+		}
+		sb.append("\n\t\t// Frame ").append(f.uniqueID);
+		for (final int outputId : f.outputIds) {
+			sb.append(' ').append(escapeComment(model.internals[outputId].fullName));
+		}
+		sb.append("\n\t\tvoid frame").append(idx).append("(int deltaCycle, int epsCycle) {\n");
+		sb.append("\t\t\tfinal long[] storage = ").append(className).append(".this.storage;\n");
+		sb.append("\t\t\tlong ");
+		for (int i = 0; i < maxDepth; i++) {
+			sb.append(i == 0 ? "" : ", ").append('s').append(i).append(" = 0");
+		}
+		sb.append(";\n");
+		int sp = 0;
+		String a = null, b = null;
+		for (final FastInstruction fi : f.instructions) {
+			if (fi.popA) {
+				a = "s" + --sp;
+			}
+			if (fi.popB) {
+				b = "s" + --sp;
+			}
+			final String expr;
+			switch (fi.inst) {
+			case noop:
+				continue;
+			case and:
+				expr = fixOp(b + " & " + a, fi.arg1);
+				break;
+			case or:
+				expr = fixOp(b + " | " + a, fi.arg1);
+				break;
+			case xor:
+				expr = fixOp(b + " ^ " + a, fi.arg1);
+				break;
+			case plus:
+				expr = fixOp(b + " + " + a, fi.arg1);
+				break;
+			case minus:
+				expr = fixOp(b + " - " + a, fi.arg1);
+				break;
+			case mul:
+				expr = fixOp(b + " * " + a, fi.arg1);
+				break;
+			case div:
+				expr = fixOp(b + " / " + a, fi.arg1);
+				break;
+			case mod:
+				expr = fixOp(b + " % " + a, fi.arg1);
+				break;
+			case pow:
+				expr = fixOp("pow(" + b + ", " + a + ")", fi.arg1);
+				break;
+			case sll:
+				expr = fixOp(b + " << " + a, fi.arg1);
+				break;
+			case sra:
+				expr = fixOp(b + " >> " + a, fi.arg1);
+				break;
+			case srl:
+				expr = fixOp(b + " >>> " + a, fi.arg1);
+				break;
+			case arith_neg:
+				expr = fixOp("-" + a, fi.arg1);
+				break;
+			case bit_neg:
+				expr = fixOp("~" + a, fi.arg1);
+				break;
+			case bitAccessSingle:
+				expr = "(" + a + " >> " + fi.arg1 + ") & 1";
+				break;
+			case bitAccessSingleRange:
+				expr = "(" + a + " >> " + fi.arg2 + ") & " + hex((1l << ((fi.arg1 - fi.arg2) + 1)) - 1);
+				break;
+			case cast_int: {
+				final int shift = 64 - Math.min(fi.arg1, fi.arg2);
+				expr = "(" + a + " << " + shift + ") >> " + shift;
+				break;
+			}
+			case cast_uint:
+				expr = fi.arg1 != 64 ? a + " & " + hex((1l << (fi.arg1)) - 1) : a;
+				break;
+			case concat:
+				expr = "(" + b + " << " + fi.arg2 + ") | " + a;
+				break;
+			case const0:
+				expr = "0";
+				break;
+			case const1:
+				expr = "1";
+				break;
+			case const2:
+				expr = "2";
+				break;
+			case constAll1:
+				expr = hex(fi.arg1 == 64 ? 0xFFFFFFFFFFFFFFFFl : (1l << fi.arg1) - 1);
+				break;
+			case loadConstant:
+				expr = hex(f.constants[fi.arg1].longValue());
+				break;
+			case eq:
+				expr = b + " == " + a + " ? 1 : 0";
+				break;
+			case not_eq:
+				expr = b + " != " + a + " ? 1 : 0";
+				break;
+			case greater:
+				expr = b + " > " + a + " ? 1 : 0";
+				break;
+			case greater_eq:
+				expr = b + " >= " + a + " ? 1 : 0";
+				break;
+			case less:
+				expr = b + " < " + a + " ? 1 : 0";
+				break;
+			case less_eq:
+				expr = b + " <= " + a + " ? 1 : 0";
+				break;
+			case logiAnd:
+				expr = "(" + a + " != 0) && (" + b + " != 0) ? 1 : 0";
+				break;
+			case logiOr:
+				expr = "(" + a + " != 0) || (" + b + " != 0) ? 1 : 0";
+				break;
+			case logiNeg:
+				expr = a + " == 0 ? 1 : 0";
+				break;
+			case loadInternal:
+				expr = load("storage", fir.internals[fi.arg1]);
+				break;
+			case isRisingEdge:
+			case isFallingEdge: {
+				final LongAccess access = fir.internals[fi.arg1];
+				final int prev = fi.inst == Instruction.isRisingEdge ? 0 : 1;
+				sb.append("\t\t\tif (!edge(").append(access.getAccessIndex()).append(", ").append(load("storage", access)).append(", ");
+				sb.append(load("storage_prev", access)).append(", ").append(prev).append(", ").append(1 - prev).append(", deltaCycle, epsCycle))\n");
+				sb.append("\t\t\t\treturn;\n");
+				continue;
+			}
+			case posPredicate:
+			case negPredicate: {
+				final LongAccess access = fir.internals[fi.arg1];
+				sb.append("\t\t\tif (!isFresh(").append(access.getAccessIndex()).append(", deltaCycle, epsCycle) || ((");
+				sb.append(load("storage", access)).append(fi.inst == Instruction.posPredicate ? ") == 0))\n" : ") != 0))\n");
+				sb.append("\t\t\t\treturn;\n");
+				continue;
+			}
+			default:
+				throw new IllegalArgumentException("Unsupported instruction:" + fi.inst);
+			}
+			sb.append("\t\t\ts").append(sp++).append(" = ").append(expr).append(";\n");
+		}
+		for (final int outputId : f.outputIds) {
+			final LongAccess access = fir.internals[outputId];
+			final int accessIdx = access.getAccessIndex();
+			sb.append("\t\t\twrite(").append(accessIdx).append(", ").append(hex(access.writeMask)).append(", ").append(hex(access.mask)).append(", ");
+			sb.append(access.shift).append(", s0);\n");
+			if (access.ii.isPred) {
+				sb.append("\t\t\tsetLastUpdate(").append(accessIdx).append(", deltaCycle, epsCycle);\n");
+			}
+			if (access.ii.isShadowReg) {
+				sb.append("\t\t\taddRegUpdate(").append(accessIdx).append(", ").append(access.targetAccessIndex + access.offset).append(");\n");
+			}
+		}
+		sb.append("\t\t}\n");
+	}
+
+	/**
+	 * @return a description of why the frame can not be generated, or
+	 *         <code>null</code> if it can
+	 */
+	private String checkSupported(Frame f) {
+		for (final FastInstruction fi : f.instructions) {
+			switch (fi.inst) {
+			case pushAddIndex:
+			case writeInternal:
+				return "dynamic array index";
+			case invokeFunction:
+			case loadConstantString:
+				return "unsupported instruction " + fi.inst;
+			case bitAccessSingle:
+				if (fi.arg1 == -1)
+					return "dynamic bit index";
+				break;
+			case loadInternal:
+			case isFallingEdge:
+			case isRisingEdge:
+			case posPredicate:
+			case negPredicate:
+				if (fir.internals[fi.arg1].isDynamicBit)
+					return "dynamic bit index";
+				break;
+			default:
+			}
+		}
+		for (final int outputId : f.outputIds) {
+			if (fir.internals[outputId].isDynamicBit)
+				return "dynamic bit index";
+		}
+		return null;
+	}
+
+	/**
+	 * The same as the getDataLong of a {@link LongAccess}
+	 */
+	private static String load(String array, LongAccess access) {
+		String res = array + "[" + access.getAccessIndex() + "]";
+		if (access.shift != 0) {
+			res = "(" + res + " >> " + access.shift + ")";
+		}
+		if (access.mask != 0xFFFFFFFFFFFFFFFFl) {
+			res = "(" + res + " & " + hex(access.mask) + ")";
+		}
+		if (access.signShift != 0) {
+			res = "((" + res + " << " + access.signShift + ") >> " + access.signShift + ")";
+		}
+		return res;
+	}
+
+	/**
+	 * The same as the fixOp of a FastFrame, but with the width known at
+	 * generation time
+	 */
+	private static String fixOp(String expr, int widthWithType) {
+		final int width = widthWithType >> 1;
+		if ((widthWithType & 1) == 1)
+			return "((" + expr + ") << " + width + ") >> " + width;
+		return "(" + expr + ") & " + hex((1l << width) - 1);
+	}
+
+	private static String hex(long value) {
+		return "0x" + Long.toHexString(value) + "L";
+	}
+
+	private static String string(String value) {
+		final StringBuilder res = new StringBuilder("\"");
+		for (final char c : value.toCharArray()) {
+			switch (c) {
+			case '"':
+			case '\\':
+				res.append('\\').append(c);
+				break;
+			case '\b':
+				res.append("\\b");
+				break;
+			case '\t':
+				res.append("\\t");
+				break;
+			case '\n':
+				res.append("\\n");
+				break;
+			case '\f':
+				res.append("\\f");
+				break;
+			case '\r':
+				res.append("\\r");
+				break;
+			default:
+				// Unicode escapes are translated before the source is parsed,
+				// so control characters must not use them
+				if (c < ' ') {
+					res.append(String.format("\\%03o", (int) c));
+				} else if (c > '~') {
+					res.append(String.format("\\u%04x", (int) c));
+				} else {
+					res.append(c);
+				}
+			}
+		}
+		return res.append('"').toString();
+	}
+
+	private static String escapeComment(String value) {
+		if (value == null)
+			return "";
+		return value.replace("*/", "* /").replace('\n', ' ').replace("\\u", "\\ u");
+	}
+
+	/**
+	 * Generates the source for a model file.
+	 *
+	 * Usage: <code>JavaSourceGenerator model.psex my.pkg.ClassName outputDir</code>
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.err.println("Usage: JavaSourceGenerator <model.psex> <fully.qualified.ClassName> <outputDir>");
+			System.exit(1);
+		}
+		final ExecutableModel model = IOUtil.readExecutableModel(new File(args[0]), false);
+		final String fqn = args[1];
+		final int dot = fqn.lastIndexOf('.');
+		final String packageName = dot == -1 ? null : fqn.substring(0, dot);
+		final String className = fqn.substring(dot + 1);
+		final File dir = new File(args[2], dot == -1 ? "" : packageName.replace('.', File.separatorChar));
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Failed to create directory:" + dir);
+		try (PrintStream out = new PrintStream(new File(dir, className + ".java"), "UTF-8")) {
+			out.print(new JavaSourceGenerator(model).generate(packageName, className));
+		}
+	}
+}
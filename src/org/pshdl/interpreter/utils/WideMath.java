@@ -0,0 +1,441 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2013 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter.utils;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic on fixed width two's complement numbers that are stored as
+ * consecutive 64 bit limbs in a long[]. The limb at the given offset is the
+ * least significant one. All operations work in place and wrap around at
+ * <code>n * 64</code> bits, so nothing is allocated except for the
+ * conversions from and to {@link BigInteger}.
+ */
+public final class WideMath {
+
+	private WideMath() {
+	}
+
+	/**
+	 * The number of limbs needed to store a value of the given bit width
+	 */
+	public static int limbs(int width) {
+		return (width + 63) >>> 6;
+	}
+
+	public static void setLong(long[] x, int xo, int n, long value) {
+		x[xo] = value;
+		final long fill = value >> 63;
+		for (int i = 1; i < n; i++) {
+			x[xo + i] = fill;
+		}
+	}
+
+	public static void copy(long[] src, int so, long[] dst, int dso, int n) {
+		System.arraycopy(src, so, dst, dso, n);
+	}
+
+	public static boolean isZero(long[] x, int xo, int n) {
+		for (int i = 0; i < n; i++)
+			if (x[xo + i] != 0)
+				return false;
+		return true;
+	}
+
+	public static boolean isNegative(long[] x, int xo, int n) {
+		return x[(xo + n) - 1] < 0;
+	}
+
+	public static boolean equal(long[] x, int xo, long[] y, int yo, int n) {
+		for (int i = 0; i < n; i++)
+			if (x[xo + i] != y[yo + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Signed comparison of x and y
+	 *
+	 * @return a negative number, zero or a positive number if x is less,
+	 *         equal or greater than y
+	 */
+	public static int compare(long[] x, int xo, long[] y, int yo, int n) {
+		final long xTop = x[(xo + n) - 1], yTop = y[(yo + n) - 1];
+		if (xTop != yTop)
+			return xTop < yTop ? -1 : 1;
+		return compareUnsigned(x, xo, y, yo, n - 1);
+	}
+
+	public static int compareUnsigned(long[] x, int xo, long[] y, int yo, int n) {
+		for (int i = n - 1; i >= 0; i--) {
+			final int res = Long.compareUnsigned(x[xo + i], y[yo + i]);
+			if (res != 0)
+				return res;
+		}
+		return 0;
+	}
+
+	public static void and(long[] x, int xo, long[] y, int yo, int n) {
+		for (int i = 0; i < n; i++) {
+			x[xo + i] &= y[yo + i];
+		}
+	}
+
+	public static void or(long[] x, int xo, long[] y, int yo, int n) {
+		for (int i = 0; i < n; i++) {
+			x[xo + i] |= y[yo + i];
+		}
+	}
+
+	public static void xor(long[] x, int xo, long[] y, int yo, int n) {
+		for (int i = 0; i < n; i++) {
+			x[xo + i] ^= y[yo + i];
+		}
+	}
+
+	public static void not(long[] x, int xo, int n) {
+		for (int i = 0; i < n; i++) {
+			x[xo + i] = ~x[xo + i];
+		}
+	}
+
+	public static void negate(long[] x, int xo, int n) {
+		long carry = 1;
+		for (int i = 0; i < n; i++) {
+			final long v = ~x[xo + i] + carry;
+			carry = (carry != 0) && (v == 0) ? 1 : 0;
+			x[xo + i] = v;
+		}
+	}
+
+	/**
+	 * x += y
+	 */
+	public static void add(long[] x, int xo, long[] y, int yo, int n) {
+		long carry = 0;
+		for (int i = 0; i < n; i++) {
+			final long a = x[xo + i];
+			final long s1 = a + y[yo + i];
+			final long s = s1 + carry;
+			carry = ((Long.compareUnsigned(s1, a) < 0) || (Long.compareUnsigned(s, s1) < 0)) ? 1 : 0;
+			x[xo + i] = s;
+		}
+	}
+
+	/**
+	 * x -= y
+	 */
+	public static void subtract(long[] x, int xo, long[] y, int yo, int n) {
+		long borrow = 0;
+		for (int i = 0; i < n; i++) {
+			final long a = x[xo + i];
+			final long b = y[yo + i];
+			final long d1 = a - b;
+			final long d = d1 - borrow;
+			borrow = ((Long.compareUnsigned(a, b) < 0) || (Long.compareUnsigned(d1, borrow) < 0)) ? 1 : 0;
+			x[xo + i] = d;
+		}
+	}
+
+	private static final long DIGIT = 0xFFFFFFFFL;
+
+	/**
+	 * The 32 bit digit k of x
+	 */
+	private static long digit(long[] x, int xo, int k) {
+		return (x[xo + (k >>> 1)] >>> ((k & 1) << 5)) & DIGIT;
+	}
+
+	/**
+	 * The number of 32 bit digits of x without leading zero digits
+	 */
+	private static int digits(long[] x, int xo, int n) {
+		for (int i = n - 1; i >= 0; i--) {
+			final long v = x[xo + i];
+			if (v != 0)
+				return (i * 2) + ((v >>> 32) != 0 ? 2 : 1);
+		}
+		return 0;
+	}
+
+	/**
+	 * Stores the 32 bit digits of x in dst and returns the number of digits
+	 * without leading zero digits
+	 */
+	private static int unpack(long[] x, int xo, int n, long[] dst, int dso) {
+		int len = 0;
+		for (int i = 0; i < n; i++) {
+			final long v = x[xo + i];
+			dst[dso + (2 * i)] = v & DIGIT;
+			dst[dso + (2 * i) + 1] = v >>> 32;
+			if (v != 0) {
+				len = (2 * i) + ((v >>> 32) != 0 ? 2 : 1);
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * dst = x * y. dst may be the same as x or y, tmp needs 6 * n entries and
+	 * must not overlap with any of them.
+	 */
+	public static void multiply(long[] x, int xo, long[] y, int yo, long[] dst, int dso, long[] tmp, int n) {
+		final int d = n * 2;
+		final int xd = d, yd = 2 * d;
+		final int lenX = unpack(x, xo, n, tmp, xd);
+		final int lenY = unpack(y, yo, n, tmp, yd);
+		for (int k = 0; k < d; k++) {
+			tmp[k] = 0;
+		}
+		for (int i = 0; i < lenX; i++) {
+			final long xi = tmp[xd + i];
+			if (xi == 0) {
+				continue;
+			}
+			final int jMax = Math.min(lenY, d - i);
+			long carry = 0;
+			for (int j = 0; j < jMax; j++) {
+				final long t = (xi * tmp[yd + j]) + tmp[i + j] + carry;
+				tmp[i + j] = t & DIGIT;
+				carry = t >>> 32;
+			}
+			if ((i + jMax) < d) {
+				tmp[i + jMax] = carry;
+			}
+		}
+		for (int k = 0; k < n; k++) {
+			dst[dso + k] = tmp[2 * k] | (tmp[(2 * k) + 1] << 32);
+		}
+	}
+
+	/**
+	 * Unsigned division of num by den with Knuth's algorithm D on 32 bit
+	 * digits. The quotient is stored in q, the remainder in r. num and den are
+	 * not modified and none of the arrays may overlap. den must not be zero.
+	 * scratch needs 4 * n + 1 entries.
+	 */
+	public static void divideUnsigned(long[] num, int no, long[] den, int dno, long[] q, int qo, long[] r, int ro, int n, long[] scratch) {
+		for (int i = 0; i < n; i++) {
+			q[qo + i] = 0;
+			r[ro + i] = 0;
+		}
+		final int m = digits(num, no, n);
+		final int dn = digits(den, dno, n);
+		if (m < dn) {
+			System.arraycopy(num, no, r, ro, n);
+			return;
+		}
+		if (dn == 1) {
+			final long v = digit(den, dno, 0);
+			long rem = 0;
+			for (int j = m - 1; j >= 0; j--) {
+				final long cur = (rem << 32) | digit(num, no, j);
+				final long qd = Long.divideUnsigned(cur, v);
+				rem = cur - (qd * v);
+				q[qo + (j >>> 1)] |= qd << ((j & 1) << 5);
+			}
+			r[ro] = rem;
+			return;
+		}
+		final int un = 0, vn = (2 * n) + 1;
+		final int s = Long.numberOfLeadingZeros(digit(den, dno, dn - 1)) - 32;
+		for (int i = dn - 1; i > 0; i--) {
+			scratch[vn + i] = ((digit(den, dno, i) << s) | (digit(den, dno, i - 1) >>> (32 - s))) & DIGIT;
+		}
+		scratch[vn] = (digit(den, dno, 0) << s) & DIGIT;
+		scratch[un + m] = digit(num, no, m - 1) >>> (32 - s);
+		for (int i = m - 1; i > 0; i--) {
+			scratch[un + i] = ((digit(num, no, i) << s) | (digit(num, no, i - 1) >>> (32 - s))) & DIGIT;
+		}
+		scratch[un] = (digit(num, no, 0) << s) & DIGIT;
+		final long vTop = scratch[(vn + dn) - 1];
+		final long vNext = scratch[(vn + dn) - 2];
+		for (int j = m - dn; j >= 0; j--) {
+			final long top = (scratch[un + j + dn] << 32) | scratch[(un + j + dn) - 1];
+			long qhat = Long.divideUnsigned(top, vTop);
+			long rhat = top - (qhat * vTop);
+			while ((qhat > DIGIT) || (Long.compareUnsigned(qhat * vNext, (rhat << 32) | scratch[(un + j + dn) - 2]) > 0)) {
+				qhat--;
+				rhat += vTop;
+				if (rhat > DIGIT) {
+					break;
+				}
+			}
+			long k = 0;
+			long t;
+			for (int i = 0; i < dn; i++) {
+				final long p = qhat * scratch[vn + i];
+				t = scratch[un + i + j] - k - (p & DIGIT);
+				scratch[un + i + j] = t & DIGIT;
+				k = (p >>> 32) - (t >> 32);
+			}
+			t = scratch[un + j + dn] - k;
+			scratch[un + j + dn] = t & DIGIT;
+			if (t < 0) {
+				qhat--;
+				k = 0;
+				for (int i = 0; i < dn; i++) {
+					t = scratch[un + i + j] + scratch[vn + i] + k;
+					scratch[un + i + j] = t & DIGIT;
+					k = t >>> 32;
+				}
+				scratch[un + j + dn] = (scratch[un + j + dn] + k) & DIGIT;
+			}
+			q[qo + (j >>> 1)] |= qhat << ((j & 1) << 5);
+		}
+		for (int i = 0; i < dn; i++) {
+			long v = scratch[un + i] >>> s;
+			if (s != 0) {
+				v |= (scratch[un + i + 1] << (32 - s)) & DIGIT;
+			}
+			r[ro + (i >>> 1)] |= v << ((i & 1) << 5);
+		}
+	}
+
+	public static void shiftLeft(long[] x, int xo, int n, int shift) {
+		if (shift < 0) {
+			shiftRight(x, xo, n, -shift);
+			return;
+		}
+		if (shift == 0)
+			return;
+		final int limbShift = shift >>> 6;
+		final int bitShift = shift & 63;
+		for (int i = n - 1; i >= 0; i--) {
+			final int src = i - limbShift;
+			long v = 0;
+			if (src >= 0) {
+				v = x[xo + src] << bitShift;
+				if ((bitShift != 0) && (src > 0)) {
+					v |= x[(xo + src) - 1] >>> (64 - bitShift);
+				}
+			}
+			x[xo + i] = v;
+		}
+	}
+
+	/**
+	 * Arithmetic shift to the right
+	 */
+	public static void shiftRight(long[] x, int xo, int n, int shift) {
+		if (shift < 0) {
+			shiftLeft(x, xo, n, -shift);
+			return;
+		}
+		if (shift == 0)
+			return;
+		final long fill = x[(xo + n) - 1] >> 63;
+		final int limbShift = shift >>> 6;
+		final int bitShift = shift & 63;
+		for (int i = 0; i < n; i++) {
+			final int src = i + limbShift;
+			long v;
+			if (src >= n) {
+				v = fill;
+			} else if (bitShift == 0) {
+				v = x[xo + src];
+			} else {
+				final long upper = (src + 1) < n ? x[xo + src + 1] : fill;
+				v = (x[xo + src] >>> bitShift) | (upper << (64 - bitShift));
+			}
+			x[xo + i] = v;
+		}
+	}
+
+	/**
+	 * Clears all bits at and above width
+	 */
+	public static void maskLow(long[] x, int xo, int n, int width) {
+		if (width < 0) {
+			width = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			final int low = i * 64;
+			if (width <= low) {
+				x[xo + i] = 0;
+			} else if (width < (low + 64)) {
+				x[xo + i] &= (1L << (width - low)) - 1;
+			}
+		}
+	}
+
+	/**
+	 * Replaces all bits above width - 1 with the bit at width - 1
+	 */
+	public static void signExtend(long[] x, int xo, int n, int width) {
+		if ((width <= 0) || (width >= (n * 64)))
+			return;
+		final int limb = (width - 1) >>> 6;
+		final int shift = 63 - ((width - 1) & 63);
+		final long v = (x[xo + limb] << shift) >> shift;
+		x[xo + limb] = v;
+		final long fill = v >> 63;
+		for (int i = limb + 1; i < n; i++) {
+			x[xo + i] = fill;
+		}
+	}
+
+	public static boolean testBit(long[] x, int xo, int n, int bit) {
+		final int limb = bit >>> 6;
+		if (limb >= n)
+			return x[(xo + n) - 1] < 0;
+		return ((x[xo + limb] >>> (bit & 63)) & 1) != 0;
+	}
+
+	public static BigInteger toBig(long[] x, int xo, int n) {
+		final byte[] bytes = new byte[n * 8];
+		for (int i = 0; i < n; i++) {
+			final long v = x[xo + i];
+			final int base = bytes.length - ((i + 1) * 8);
+			for (int b = 0; b < 8; b++) {
+				bytes[base + b] = (byte) (v >>> ((7 - b) * 8));
+			}
+		}
+		return new BigInteger(bytes);
+	}
+
+	/**
+	 * Stores the lower n * 64 bits of value in x
+	 */
+	public static void fromBig(BigInteger value, long[] x, int xo, int n) {
+		final byte[] bytes = value.toByteArray();
+		final long fill = value.signum() < 0 ? -1 : 0;
+		for (int i = 0; i < n; i++) {
+			long v = 0;
+			for (int b = 7; b >= 0; b--) {
+				final int idx = bytes.length - 1 - ((i * 8) + b);
+				v <<= 8;
+				if (idx >= 0) {
+					v |= bytes[idx] & 0xFF;
+				} else {
+					v |= fill & 0xFF;
+				}
+			}
+			x[xo + i] = v;
+		}
+	}
+}
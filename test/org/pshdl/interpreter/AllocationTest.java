@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * PSHDL is a library and (trans-)compiler for PSHDL input. It generates
+ *     output suitable for implementation or simulation of it.
+ *
+ *     Copyright (C) 2014 Karsten Becker (feedback (at) pshdl (dot) org)
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *     This License does not grant permission to use the trade names, trademarks,
+ *     service marks, or product names of the Licensor, except as required for
+ *     reasonable and customary use in describing the origin of the Work.
+ *
+ * Contributors:
+ *     Karsten Becker - initial API and implementation
+ ******************************************************************************/
+package org.pshdl.interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+
+import org.junit.Test;
+import org.pshdl.interpreter.Frame.FastInstruction;
+import org.pshdl.interpreter.VariableInformation.Direction;
+import org.pshdl.interpreter.VariableInformation.Type;
+import org.pshdl.interpreter.utils.Instruction;
+
+/**
+ * Checks that {@link IHDLInterpreter#run()} does not allocate once the
+ * interpreter is warmed up
+ */
+public class AllocationTest {
+
+	private static final int[] NO_INDEX = new int[0];
+	private static final int ROUNDS = 10;
+	private static final int RUNS = 10000;
+
+	/**
+	 * A counter that is incremented on the rising edge of clk, and an output
+	 * that is one larger than the counter
+	 */
+	private static ExecutableModel createModel() {
+		final VariableInformation clk = new VariableInformation(Direction.IN, "clk", 1, Type.BIT, false, true, false, null);
+		final VariableInformation r = new VariableInformation(Direction.OUT, "r", 8, Type.UINT, true, false, false, null);
+		final VariableInformation o = new VariableInformation(Direction.OUT, "o", 8, Type.UINT, false, false, false, null);
+		final InternalInformation[] internals = { new InternalInformation("clk", clk), new InternalInformation("r", r),
+				new InternalInformation("r" + InternalInformation.REG_POSTFIX, r), new InternalInformation("o", o) };
+		final Frame counter = new Frame(new FastInstruction[] { new FastInstruction(Instruction.isRisingEdge, 0, 0), new FastInstruction(Instruction.loadInternal, 1, 0),
+				new FastInstruction(Instruction.const1, 0, 0), new FastInstruction(Instruction.plus, 16, 0) }, new int[] { 1 }, null, null, 0, -1, new int[] { 2 }, 8, 4,
+				new BigInteger[0], new String[0], 0, false, 0, null, false);
+		final Frame next = new Frame(new FastInstruction[] { new FastInstruction(Instruction.loadInternal, 1, 0), new FastInstruction(Instruction.const1, 0, 0),
+				new FastInstruction(Instruction.plus, 16, 0) }, new int[] { 1 }, null, null, -1, -1, new int[] { 3 }, 8, 2, new BigInteger[0], new String[0], 1, false, 0, null,
+				false);
+		return new ExecutableModel(new Frame[] { counter, next }, internals, new VariableInformation[] { clk, r, o }, null, "counter", null, null);
+	}
+
+	@Test
+	public void testFastSimpleInterpreter() throws Exception {
+		try (final FastSimpleInterpreter interpreter = new FastSimpleInterpreter(createModel(), false, false)) {
+			assertNoAllocation(interpreter);
+		}
+	}
+
+	@Test
+	public void testHDLFrameInterpreter() throws Exception {
+		try (final HDLFrameInterpreter interpreter = new HDLFrameInterpreter(createModel(), null)) {
+			assertNoAllocation(interpreter);
+		}
+	}
+
+	private static void assertNoAllocation(IHDLInterpreter interpreter) {
+		final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(bean.isThreadAllocatedMemorySupported());
+		bean.setThreadAllocatedMemoryEnabled(true);
+		final int clk = interpreter.getIndex("clk");
+		// The first rounds warm up the interpreter and the measurement itself
+		long allocated = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			allocated = allocatedBytes(bean, interpreter, clk, round * RUNS);
+		}
+		assertEquals("Bytes allocated by " + RUNS + " runs", 0, allocated);
+		final long edges = (ROUNDS * RUNS) / 2;
+		assertEquals(edges & 0xFF, interpreter.getOutputLong(interpreter.getIndex("r"), NO_INDEX));
+		assertEquals((edges + 1) & 0xFF, interpreter.getOutputLong(interpreter.getIndex("o"), NO_INDEX));
+	}
+
+	private static long allocatedBytes(com.sun.management.ThreadMXBean bean, IHDLInterpreter interpreter, int clk, int offset) {
+		final long threadId = Thread.currentThread().getId();
+		// Reading the counter may allocate itself, so that is subtracted
+		final long overheadStart = bean.getThreadAllocatedBytes(threadId);
+		final long overhead = bean.getThreadAllocatedBytes(threadId) - overheadStart;
+		final long start = bean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < RUNS; i++) {
+			interpreter.setInput(clk, (offset + i + 1) & 1, NO_INDEX);
+			interpreter.run();
+		}
+		return bean.getThreadAllocatedBytes(threadId) - start - overhead;
+	}
+}